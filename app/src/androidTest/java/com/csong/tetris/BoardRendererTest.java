@@ -0,0 +1,109 @@
+package com.csong.tetris;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.csong.tetris.engine.Block;
+import com.csong.tetris.engine.Board;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that building and drawing a frame doesn't allocate, since garbage collection on the
+ * render thread shows up as dropped frames.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BoardRendererTest {
+    private static final int TILE_SIZE = 20;
+    private static final int FRAMES = 100;
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void draw_doesNotAllocate() throws Exception {
+        Board board = new Board(GamePanel.DEFAULT_WIDTH, GamePanel.DEFAULT_HEIGHT);
+        for (int x = 0; x < GamePanel.DEFAULT_WIDTH - 1; x++) {
+            board.fill(x, GamePanel.DEFAULT_HEIGHT - 1, x % 7);
+        }
+        Block block = new Block(Block.T, 3, 0);
+
+        BoardRenderer renderer = new BoardRenderer(GamePanel.DEFAULT_WIDTH,
+                GamePanel.DEFAULT_HEIGHT);
+        renderer.setTileSize(TILE_SIZE);
+        Canvas canvas = new Canvas(Bitmap.createBitmap(GamePanel.DEFAULT_WIDTH * TILE_SIZE + 1,
+                GamePanel.DEFAULT_HEIGHT * TILE_SIZE + 1, Bitmap.Config.ARGB_8888));
+        Rect dirty = new Rect();
+        DrawList frame = createDrawList();
+        CanvasDrawer drawer = new CanvasDrawer(new StatsOverlay(), new FrameStats());
+
+        // Warm up so class loading and lazy initialization aren't counted
+        draw(renderer, drawer, canvas, frame, board, block, 0, dirty);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < FRAMES; i++) {
+            // Redraw everything, the most work a frame can do
+            renderer.invalidate();
+            draw(renderer, drawer, canvas, frame, board, block, 0, dirty);
+        }
+        Debug.stopAllocCounting();
+
+        assertEquals(0, Debug.getThreadAllocCount());
+    }
+
+    @Test
+    public void dirtyRect_coversOnlyWhatChanged() throws Exception {
+        Board board = new Board(GamePanel.DEFAULT_WIDTH, GamePanel.DEFAULT_HEIGHT);
+        Block block = new Block(Block.SQUARE, 3, 0);
+        BoardRenderer renderer = new BoardRenderer(GamePanel.DEFAULT_WIDTH,
+                GamePanel.DEFAULT_HEIGHT);
+        renderer.setTileSize(TILE_SIZE);
+        DrawList frame = createDrawList();
+        Rect dirty = new Rect();
+
+        // The first frame redraws everything
+        renderer.getDirtyRect(board, block, 0, dirty);
+        assertEquals(new Rect(0, 0, GamePanel.DEFAULT_WIDTH * TILE_SIZE + 1,
+                GamePanel.DEFAULT_HEIGHT * TILE_SIZE + 1), dirty);
+        build(renderer, frame, board, block, 0, dirty);
+        board.clearDamage();
+
+        renderer.getDirtyRect(board, block, 0, dirty);
+        assertTrue(dirty.isEmpty());
+
+        // Moving the block between rows redraws where it was and where it is now
+        renderer.getDirtyRect(board, block, 5, dirty);
+        assertEquals(new Rect(3 * TILE_SIZE, 0, 5 * TILE_SIZE + 1, 2 * TILE_SIZE + 6), dirty);
+        build(renderer, frame, board, block, 5, dirty);
+
+        board.fill(9, GamePanel.DEFAULT_HEIGHT - 1, Block.T);
+        renderer.getDirtyRect(board, block, 5, dirty);
+        assertEquals(new Rect(9 * TILE_SIZE, (GamePanel.DEFAULT_HEIGHT - 1) * TILE_SIZE,
+                10 * TILE_SIZE + 1, GamePanel.DEFAULT_HEIGHT * TILE_SIZE + 1), dirty);
+    }
+
+    private static DrawList createDrawList() {
+        return new DrawList(BoardRenderer.getBatchColors(),
+                GamePanel.DEFAULT_WIDTH * GamePanel.DEFAULT_HEIGHT);
+    }
+
+    private static void build(BoardRenderer renderer, DrawList frame, Board board, Block block,
+                              int fallOffset, Rect dirty) {
+        frame.begin(dirty.left, dirty.top, dirty.right, dirty.bottom);
+        renderer.build(board, block, fallOffset, frame);
+    }
+
+    // What the render thread does for a frame on a software canvas
+    private static void draw(BoardRenderer renderer, CanvasDrawer drawer, Canvas canvas,
+                             DrawList frame, Board board, Block block, int fallOffset,
+                             Rect dirty) {
+        renderer.getDirtyRect(board, block, fallOffset, dirty);
+        build(renderer, frame, board, block, fallOffset, dirty);
+        drawer.draw(canvas, frame);
+    }
+}
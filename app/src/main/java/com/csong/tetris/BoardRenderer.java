@@ -0,0 +1,242 @@
+package com.csong.tetris;
+
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.csong.tetris.engine.Block;
+import com.csong.tetris.engine.Board;
+
+/**
+ * Turns the board and the falling block into draw commands. Building a frame doesn't allocate
+ * anything.
+ *
+ * Only the part of the screen that changed is redrawn: the cells the board reports as damaged
+ * plus wherever the falling block and its ghost piece were and now are drawn. The ghost comes
+ * from the board's column tops, so it costs next to nothing to work out every frame.
+ *
+ * A board too tall for the screen is drawn through a viewport of some of its rows, set with
+ * setViewport(). Only the rows in view are ever looked at, so a board of thousands of rows
+ * costs the same to draw as one of twenty.
+ */
+
+public class BoardRenderer {
+    // Color constants
+    public static final int CYAN = Color.rgb(128, 255, 255);
+    public static final int YELLOW = Color.rgb(255, 255, 150);
+    public static final int BLUE = Color.rgb(0, 128, 255);
+    public static final int DARK_RED = Color.rgb(170, 0, 0);
+    public static final int DARK_GREEN = Color.rgb(5, 100, 5);
+    public static final int ORANGE = Color.rgb(255, 128, 64);
+    public static final int LIME_GREEN = Color.rgb(75, 255, 75);
+    public static final int GARBAGE = Color.GRAY;
+    public static final int GHOST = Color.argb(70, 255, 255, 255);
+
+    // Garbage cells batch under their board cell type, and the ghost piece comes after that
+    public static final int GHOST_BATCH = Board.GARBAGE + 1;
+
+    private final int gridWidth;
+    private final int gridHeight;
+    // The first board row drawn, at the top of the screen, and how many are drawn
+    private int viewTop;
+    private int viewRows;
+
+    // Where the active block is drawn this frame and was drawn last frame
+    private final Rect blockRect;
+    private final Rect lastBlockRect;
+    private final Rect ghostRect;
+    private final Rect lastGhostRect;
+
+    private int tileSize;
+    private volatile boolean fullRedraw;
+
+    public BoardRenderer(int gridWidth, int gridHeight) {
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        this.viewRows = gridHeight;
+
+        blockRect = new Rect();
+        lastBlockRect = new Rect();
+        ghostRect = new Rect();
+        lastGhostRect = new Rect();
+        fullRedraw = true;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public void setTileSize(int tileSize) {
+        if (tileSize != this.tileSize) {
+            this.tileSize = tileSize;
+            fullRedraw = true;
+        }
+    }
+
+    // Draws rows board rows from top. Everything moves on screen when the view does, so the
+    // next frame redraws it all.
+    public void setViewport(int top, int rows) {
+        if (top != viewTop || rows != viewRows) {
+            viewTop = top;
+            viewRows = rows;
+            fullRedraw = true;
+        }
+    }
+
+    public int getViewTop() {
+        return viewTop;
+    }
+
+    public int getViewRows() {
+        return viewRows;
+    }
+
+    // Makes the next frame redraw everything, e.g. after the surface has changed
+    public void invalidate() {
+        fullRedraw = true;
+    }
+
+    // Stores the area that has to be redrawn for the next frame in dirty, or empties it if
+    // nothing has changed. The active block will be drawn fallOffset pixels below its row.
+    public void getDirtyRect(@NonNull Board board, @Nullable Block activeBlock, int fallOffset,
+                             @NonNull Rect dirty) {
+        if (fullRedraw) {
+            dirty.set(0, 0, gridWidth * tileSize + 1, viewRows * tileSize + 1);
+            return;
+        }
+
+        dirty.setEmpty();
+        // Damage outside the view doesn't need drawing
+        int damageTop = Math.max(board.getDamageTop(), viewTop);
+        int damageBottom = Math.min(board.getDamageBottom(), viewTop + viewRows - 1);
+        if (board.hasDamage() && damageTop <= damageBottom) {
+            long columns = 0;
+            for (int y = damageTop; y <= damageBottom; y++) {
+                columns |= board.getDamage(y);
+            }
+            // One extra pixel for the grid line on the right and bottom
+            if (columns != 0) {
+                dirty.set(Long.numberOfTrailingZeros(columns) * tileSize,
+                        (damageTop - viewTop) * tileSize,
+                        (Long.SIZE - Long.numberOfLeadingZeros(columns)) * tileSize + 1,
+                        (damageBottom - viewTop + 1) * tileSize + 1);
+            }
+        }
+
+        // The board only knows about whole cells, the block also moves between rows
+        getBlockRect(activeBlock, fallOffset, blockRect);
+        if (!blockRect.equals(lastBlockRect)) {
+            dirty.union(lastBlockRect);
+            dirty.union(blockRect);
+        }
+        getGhostRect(board, activeBlock, ghostRect);
+        if (!ghostRect.equals(lastGhostRect)) {
+            dirty.union(lastGhostRect);
+            dirty.union(ghostRect);
+        }
+    }
+
+    // Adds the landed cells, the active block and its ghost in the rows that overlap the frame's
+    // clip, then the grid. The active block is drawn fallOffset pixels below its row.
+    public void build(@NonNull Board board, @Nullable Block activeBlock, int fallOffset,
+                      @NonNull DrawList frame) {
+        if (tileSize <= 0) {
+            return;
+        }
+        if (frame.isEmpty()) {
+            getBlockRect(activeBlock, fallOffset, lastBlockRect);
+            getGhostRect(board, activeBlock, lastGhostRect);
+            return;
+        }
+
+        frame.addTiles(board, activeBlock, fallOffset, tileSize, viewTop, viewRows);
+        if (activeBlock != null) {
+            frame.addGhost(board, activeBlock, GHOST_BATCH, tileSize, viewTop, viewRows);
+        }
+        frame.addGrid(gridWidth, viewRows, tileSize);
+        getBlockRect(activeBlock, fallOffset, lastBlockRect);
+        getGhostRect(board, activeBlock, lastGhostRect);
+        fullRedraw = false;
+    }
+
+    // The color of each DrawList batch: one per block type, garbage, then the ghost piece
+    public static int[] getBatchColors() {
+        int[] colors = new int[GHOST_BATCH + 1];
+        for (int type = 0; type < Block.TYPE_COUNT; type++) {
+            colors[type] = getBlockColor(type);
+        }
+        colors[Board.GARBAGE] = GARBAGE;
+        colors[GHOST_BATCH] = GHOST;
+        return colors;
+    }
+
+    private void getBlockRect(@Nullable Block activeBlock, int fallOffset, @NonNull Rect rect) {
+        getBlockRect(activeBlock, 0, fallOffset, rect);
+    }
+
+    // Where the ghost piece is drawn, or empty if the block has already landed
+    private void getGhostRect(@NonNull Board board, @Nullable Block activeBlock,
+                              @NonNull Rect rect) {
+        int distance = activeBlock != null ? activeBlock.getDropDistance(board) : 0;
+        if (distance == 0) {
+            rect.setEmpty();
+        } else {
+            getBlockRect(activeBlock, distance, 0, rect);
+        }
+    }
+
+    // The area covered by the block moved down rows whole rows and then offset pixels, cut to
+    // the view
+    private void getBlockRect(@Nullable Block activeBlock, int rows, int offset,
+                              @NonNull Rect rect) {
+        rect.setEmpty();
+        if (activeBlock == null) {
+            return;
+        }
+
+        long columns = 0;
+        int top = -1;
+        int bottom = -1;
+        for (int y = activeBlock.getY(); y < activeBlock.getY() + 4; y++) {
+            long row = activeBlock.getRowMask(y);
+            if (row != 0) {
+                columns |= row;
+                top = top < 0 ? y : top;
+                bottom = y;
+            }
+        }
+        if (columns != 0) {
+            rect.set(Long.numberOfTrailingZeros(columns) * tileSize,
+                    Math.max(0, (top + rows - viewTop) * tileSize + offset),
+                    (Long.SIZE - Long.numberOfLeadingZeros(columns)) * tileSize + 1,
+                    Math.min(viewRows * tileSize + 1,
+                            (bottom + rows - viewTop + 1) * tileSize + offset + 1));
+            if (rect.top >= rect.bottom) {
+                rect.setEmpty();
+            }
+        }
+    }
+
+    public static int getBlockColor(int blockType) {
+        switch (blockType) {
+            case Block.T:
+                return CYAN;
+            case Block.L:
+                return DARK_GREEN;
+            case Block.INVERTED_L:
+                return YELLOW;
+            case Block.LINE:
+                return DARK_RED;
+            case Block.S:
+                return BLUE;
+            case Block.SQUARE:
+                return ORANGE;
+            case Block.Z:
+                return LIME_GREEN;
+            default:
+                // Shouldn't happen
+                return Color.WHITE;
+        }
+    }
+}
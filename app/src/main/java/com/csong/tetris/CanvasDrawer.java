@@ -0,0 +1,96 @@
+package com.csong.tetris;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.support.annotation.NonNull;
+
+/**
+ * Runs a DrawList on an android.graphics.Canvas, either the software one from lockCanvas or a
+ * hardware one. Each tile batch is drawn with one paint color, which on a hardware canvas lets
+ * the renderer merge the whole batch into a single draw call. Grid lines are cached in a
+ * bitmap, rebuilt only when the grid changes size.
+ */
+
+public class CanvasDrawer {
+    private final Paint tilePaint;
+    private final Paint gridPaint;
+    private final StatsOverlay statsOverlay;
+    private final FrameStats frameStats;
+
+    private Bitmap gridBitmap;
+    private int gridColumns;
+    private int gridRows;
+    private int gridTileSize;
+
+    public CanvasDrawer(@NonNull StatsOverlay statsOverlay, @NonNull FrameStats frameStats) {
+        this.statsOverlay = statsOverlay;
+        this.frameStats = frameStats;
+        tilePaint = new Paint();
+        gridPaint = new Paint();
+        gridPaint.setColor(Color.GRAY);
+    }
+
+    public void draw(@NonNull Canvas canvas, @NonNull DrawList frame) {
+        if (frame.isEmpty()) {
+            return;
+        }
+
+        canvas.save();
+        canvas.clipRect(frame.getClipLeft(), frame.getClipTop(), frame.getClipRight(),
+                frame.getClipBottom());
+        canvas.drawColor(Color.BLACK);
+
+        for (int batch = 0; batch < frame.getBatchCount(); batch++) {
+            int count = frame.getQuadCount(batch);
+            if (count == 0) {
+                continue;
+            }
+
+            tilePaint.setColor(frame.getBatchColor(batch));
+            float[] quads = frame.getQuads(batch);
+            for (int i = 0; i < count * 4; i += 4) {
+                canvas.drawRect(quads[i], quads[i + 1], quads[i + 2], quads[i + 3], tilePaint);
+            }
+        }
+
+        if (frame.hasGrid()) {
+            canvas.drawBitmap(getGridBitmap(frame), 0, 0, null);
+        }
+        canvas.restore();
+
+        if (frame.hasOverlay()) {
+            statsOverlay.draw(canvas, frameStats);
+        }
+    }
+
+    private Bitmap getGridBitmap(DrawList frame) {
+        int columns = frame.getGridColumns();
+        int rows = frame.getGridRows();
+        int tileSize = frame.getGridTileSize();
+        if (gridBitmap != null && columns == gridColumns && rows == gridRows
+                && tileSize == gridTileSize) {
+            return gridBitmap;
+        }
+
+        if (gridBitmap != null) {
+            gridBitmap.recycle();
+        }
+        gridColumns = columns;
+        gridRows = rows;
+        gridTileSize = tileSize;
+
+        // One extra pixel so the right and bottom lines fit
+        gridBitmap = Bitmap.createBitmap(columns * tileSize + 1, rows * tileSize + 1,
+                Bitmap.Config.ARGB_8888);
+        Canvas gridCanvas = new Canvas(gridBitmap);
+        for (int i = 0; i < columns + 1; i++) {
+            gridCanvas.drawLine(i * tileSize, 0, i * tileSize, tileSize * rows, gridPaint);
+        }
+        for (int i = 0; i < rows + 1; i++) {
+            gridCanvas.drawLine(0, i * tileSize, tileSize * columns, i * tileSize, gridPaint);
+        }
+        return gridBitmap;
+    }
+}
@@ -0,0 +1,213 @@
+package com.csong.tetris;
+
+import com.csong.tetris.engine.Block;
+import com.csong.tetris.engine.Board;
+
+/**
+ * One frame's drawing as plain data, built on the render thread and then handed to a
+ * RenderBackend. Tiles are grouped into a batch per block type, so a backend can draw each
+ * color in one run instead of switching paint for every tile. All the arrays are allocated up
+ * front and refilled every frame.
+ *
+ * A frame always runs in the same order: clear the clip area, the tile batches in batch
+ * order, the grid, then the stats overlay.
+ */
+
+public class DrawList {
+    private final int[] batchColors;
+    // left, top, right, bottom of each quad, per batch
+    private final float[][] quads;
+    private final int[] quadCounts;
+
+    private int clipLeft;
+    private int clipTop;
+    private int clipRight;
+    private int clipBottom;
+
+    private int gridColumns;
+    private int gridRows;
+    private int gridTileSize;
+    private boolean overlay;
+
+    // batchColors holds the color of each batch, indexed by block type, with any extra
+    // batches such as the ghost piece after them
+    public DrawList(int[] batchColors, int maxQuadsPerBatch) {
+        this.batchColors = batchColors.clone();
+        this.quads = new float[batchColors.length][maxQuadsPerBatch * 4];
+        this.quadCounts = new int[batchColors.length];
+    }
+
+    // Starts a new frame that redraws the given area
+    public void begin(int left, int top, int right, int bottom) {
+        for (int i = 0; i < quadCounts.length; i++) {
+            quadCounts[i] = 0;
+        }
+        gridColumns = 0;
+        overlay = false;
+        setClip(left, top, right, bottom);
+    }
+
+    // For backends that can't redraw as little as was asked for
+    public void setClip(int left, int top, int right, int bottom) {
+        clipLeft = left;
+        clipTop = top;
+        clipRight = right;
+        clipBottom = bottom;
+    }
+
+    // True if nothing needs redrawing this frame
+    public boolean isEmpty() {
+        return clipLeft >= clipRight || clipTop >= clipBottom;
+    }
+
+    public void addQuad(int batch, float left, float top, float right, float bottom) {
+        float[] batchQuads = quads[batch];
+        int i = quadCounts[batch] * 4;
+        batchQuads[i] = left;
+        batchQuads[i + 1] = top;
+        batchQuads[i + 2] = right;
+        batchQuads[i + 3] = bottom;
+        quadCounts[batch]++;
+    }
+
+    // Adds a quad for every landed cell and active block tile in the rows the clip covers.
+    // The active block is drawn fallOffset pixels below its row.
+    public void addTiles(Board board, Block activeBlock, int fallOffset, int tileSize) {
+        addTiles(board, activeBlock, fallOffset, tileSize, 0, board.getHeight());
+    }
+
+    // As addTiles() above for a view of viewRows board rows from viewTop, drawn from the top
+    // of the frame. Rows outside the view cost nothing however tall the board is.
+    public void addTiles(Board board, Block activeBlock, int fallOffset, int tileSize,
+                         int viewTop, int viewRows) {
+        // Start a row early, the active block there may be drawn partly into the first row
+        int firstRow = Math.max(0, viewTop + clipTop / tileSize - 1);
+        int lastRow = Math.min(Math.min(board.getHeight(), viewTop + viewRows) - 1,
+                viewTop + (clipBottom - 1) / tileSize);
+        for (int y = firstRow; y <= lastRow; y++) {
+            long blockRow = activeBlock != null ? activeBlock.getRowMask(y) : 0;
+            for (long bits = board.getRow(y) | blockRow; bits != 0; bits &= bits - 1) {
+                int x = Long.numberOfTrailingZeros(bits);
+                boolean active = (blockRow & (1L << x)) != 0;
+                int blockType = active ? activeBlock.getType() : board.getCellType(x, y);
+                int top = (y - viewTop) * tileSize + (active ? fallOffset : 0);
+                addQuad(blockType, x * tileSize, top, (x + 1) * tileSize, top + tileSize);
+            }
+        }
+    }
+
+    // Adds the ghost piece, the active block where it would land if dropped now, to the given
+    // batch. Tiles the active block already covers are left out, and there is no ghost at all
+    // once the block has landed.
+    public void addGhost(Board board, Block activeBlock, int batch, int tileSize) {
+        addGhost(board, activeBlock, batch, tileSize, 0, board.getHeight());
+    }
+
+    // As addGhost() above for a view of viewRows board rows from viewTop
+    public void addGhost(Board board, Block activeBlock, int batch, int tileSize, int viewTop,
+                         int viewRows) {
+        int distance = activeBlock.getDropDistance(board);
+        if (distance == 0) {
+            return;
+        }
+
+        int ghostY = activeBlock.getY() + distance;
+        int firstRow = Math.max(ghostY, viewTop + clipTop / tileSize);
+        int lastRow = Math.min(Math.min(ghostY + 3, Math.min(board.getHeight(),
+                viewTop + viewRows) - 1), viewTop + (clipBottom - 1) / tileSize);
+        for (int y = firstRow; y <= lastRow; y++) {
+            long ghostRow = activeBlock.getRowMask(y - distance) & ~activeBlock.getRowMask(y);
+            for (long bits = ghostRow; bits != 0; bits &= bits - 1) {
+                int x = Long.numberOfTrailingZeros(bits);
+                int top = (y - viewTop) * tileSize;
+                addQuad(batch, x * tileSize, top, (x + 1) * tileSize, top + tileSize);
+            }
+        }
+    }
+
+    // Draws grid lines around columns by rows tiles from the top left corner
+    public void addGrid(int columns, int rows, int tileSize) {
+        gridColumns = columns;
+        gridRows = rows;
+        gridTileSize = tileSize;
+    }
+
+    public void addOverlay() {
+        overlay = true;
+    }
+
+    public int getBatchCount() {
+        return batchColors.length;
+    }
+
+    public int[] getBatchColors() {
+        return batchColors.clone();
+    }
+
+    public int getMaxQuadsPerBatch() {
+        return quads[0].length / 4;
+    }
+
+    public int getBatchColor(int batch) {
+        return batchColors[batch];
+    }
+
+    public int getQuadCount(int batch) {
+        return quadCounts[batch];
+    }
+
+    // The quads of a batch as left, top, right, bottom, for getQuadCount(batch) quads. The
+    // array is reused by the next frame.
+    public float[] getQuads(int batch) {
+        return quads[batch];
+    }
+
+    public int getClipLeft() {
+        return clipLeft;
+    }
+
+    public int getClipTop() {
+        return clipTop;
+    }
+
+    public int getClipRight() {
+        return clipRight;
+    }
+
+    public int getClipBottom() {
+        return clipBottom;
+    }
+
+    public boolean hasGrid() {
+        return gridColumns > 0;
+    }
+
+    public int getGridColumns() {
+        return gridColumns;
+    }
+
+    public int getGridRows() {
+        return gridRows;
+    }
+
+    public int getGridTileSize() {
+        return gridTileSize;
+    }
+
+    public boolean hasOverlay() {
+        return overlay;
+    }
+
+    // Makes this list hold the same frame as other, which must have as many batches
+    public void copyFrom(DrawList other) {
+        for (int batch = 0; batch < quads.length; batch++) {
+            quadCounts[batch] = other.quadCounts[batch];
+            System.arraycopy(other.quads[batch], 0, quads[batch], 0, other.quadCounts[batch] * 4);
+        }
+        setClip(other.clipLeft, other.clipTop, other.clipRight, other.clipBottom);
+        gridColumns = other.gridColumns;
+        gridRows = other.gridRows;
+        gridTileSize = other.gridTileSize;
+        overlay = other.overlay;
+    }
+}
@@ -0,0 +1,94 @@
+package com.csong.tetris;
+
+import android.support.annotation.Nullable;
+
+import com.csong.tetris.engine.Block;
+import com.csong.tetris.engine.Board;
+
+/**
+ * Everything the render thread needs to draw one frame, copied out of the game on the game
+ * thread. Once published through a TripleBuffer it isn't changed again until the render thread
+ * has moved on from it, so drawing never has to lock the game.
+ */
+
+public class FrameSnapshot {
+    private final Board board;
+    private final Block block = new Block(Block.SQUARE, 0, 0);
+    private boolean hasBlock;
+    private int fallOffset;
+    private int tileSize;
+    private int screenWidth;
+    private int screenHeight;
+    private boolean showStats;
+    private int redraws;
+    private int viewTop;
+    private int viewRows;
+
+    public FrameSnapshot(int gridWidth, int gridHeight) {
+        // Nothing reads a snapshot's own damage, only that of the board it is copied into
+        board = new Board(gridWidth, gridHeight, false);
+    }
+
+    // Copies the game as it is to be drawn. Copying a 10 by 20 board is a few hundred bytes.
+    public void set(Board board, @Nullable Block activeBlock, int fallOffset, int tileSize,
+                    int screenWidth, int screenHeight, boolean showStats, int redraws,
+                    int viewTop, int viewRows) {
+        this.board.copyFrom(board);
+        hasBlock = activeBlock != null;
+        if (hasBlock) {
+            block.set(activeBlock.getType(), activeBlock.getRotation(), activeBlock.getX(),
+                    activeBlock.getY());
+        }
+        this.fallOffset = fallOffset;
+        this.tileSize = tileSize;
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        this.showStats = showStats;
+        this.redraws = redraws;
+        this.viewTop = viewTop;
+        this.viewRows = viewRows;
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    @Nullable
+    public Block getActiveBlock() {
+        return hasBlock ? block : null;
+    }
+
+    public int getFallOffset() {
+        return fallOffset;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getScreenWidth() {
+        return screenWidth;
+    }
+
+    public int getScreenHeight() {
+        return screenHeight;
+    }
+
+    public boolean isShowingStats() {
+        return showStats;
+    }
+
+    // Goes up each time the whole screen has to be drawn again
+    public int getRedraws() {
+        return redraws;
+    }
+
+    // The board rows on screen, as for BoardRenderer.setViewport()
+    public int getViewTop() {
+        return viewTop;
+    }
+
+    public int getViewRows() {
+        return viewRows;
+    }
+}
@@ -0,0 +1,111 @@
+package com.csong.tetris;
+
+import com.csong.tetris.engine.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Where the game and render threads spend each frame, kept as histograms so that occasional
+ * slow frames show up in the p99 and max instead of disappearing into an average. Recording
+ * is synchronized but never allocates.
+ */
+
+public class FrameStats {
+    // Time from the start of one frame to the start of the next
+    public static final int FRAME = 0;
+    // Waiting for lockCanvas to hand over a buffer
+    public static final int LOCK_CANVAS = 1;
+    // Running the game ticks that were due and copying out a snapshot of the game
+    public static final int UPDATE = 2;
+    public static final int DRAW = 3;
+    // Waiting for unlockCanvasAndPost to queue the buffer
+    public static final int POST = 4;
+    // How much longer a sleep took than was asked for
+    public static final int SLEEP_OVERSHOOT = 5;
+    // From a gesture being queued on the UI thread to the game thread applying it
+    public static final int INPUT = 6;
+    // Waiting with nothing to draw, until the frame would next change or the game is woken
+    public static final int IDLE = 7;
+    public static final int METRIC_COUNT = 8;
+
+    private static final String[] NAMES = {
+            "frame", "lockCanvas", "update", "draw", "unlockCanvasAndPost", "sleepOvershoot",
+            "input", "idle"
+    };
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[METRIC_COUNT];
+
+    public FrameStats() {
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static String getName(int metric) {
+        return NAMES[metric];
+    }
+
+    // A frame drawn by the render thread. The ticks run on the game thread and are recorded
+    // there as UPDATE.
+    public synchronized void recordRender(long frameNanos, long lockNanos, long drawNanos,
+                                          long postNanos) {
+        histograms[FRAME].record(frameNanos);
+        histograms[LOCK_CANVAS].record(lockNanos);
+        histograms[DRAW].record(drawNanos);
+        histograms[POST].record(postNanos);
+    }
+
+    public synchronized void record(int metric, long nanos) {
+        histograms[metric].record(nanos);
+    }
+
+    public synchronized long getCount(int metric) {
+        return histograms[metric].getCount();
+    }
+
+    public synchronized long getPercentile(int metric, double fraction) {
+        return histograms[metric].getPercentile(fraction);
+    }
+
+    public synchronized long getMax(int metric) {
+        return histograms[metric].getMax();
+    }
+
+    public synchronized void copyInto(FrameStats other) {
+        synchronized (other) {
+            for (int i = 0; i < METRIC_COUNT; i++) {
+                histograms[i].copyInto(other.histograms[i]);
+            }
+        }
+    }
+
+    public synchronized void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    // Writes a summary line per metric followed by every non-empty bucket, as CSV
+    public synchronized void writeCsv(Writer writer) throws IOException {
+        writer.write("metric,count,mean_ns,p50_ns,p90_ns,p99_ns,max_ns\n");
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            LatencyHistogram histogram = histograms[i];
+            writer.write(NAMES[i] + "," + histogram.getCount() + "," + histogram.getMean()
+                    + "," + histogram.getPercentile(0.5) + "," + histogram.getPercentile(0.9)
+                    + "," + histogram.getPercentile(0.99) + "," + histogram.getMax() + "\n");
+        }
+
+        writer.write("\nmetric,bucket_start_ns,count\n");
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            LatencyHistogram histogram = histograms[i];
+            for (int bucket = 0; bucket < histogram.getBucketCount(); bucket++) {
+                long count = histogram.getBucketCountAt(bucket);
+                if (count > 0) {
+                    writer.write(NAMES[i] + "," + histogram.getBucketLowerBound(bucket) + ","
+                            + count + "\n");
+                }
+            }
+        }
+    }
+}
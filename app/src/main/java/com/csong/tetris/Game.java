@@ -2,10 +2,36 @@ package com.csong.tetris;
 
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Window;
 import android.view.WindowManager;
 
+import java.io.File;
+import java.io.IOException;
+
 public class Game extends AppCompatActivity {
+    private static final String TAG = Game.class.getSimpleName();
+    private static final String FRAME_STATS_FILE = "frame_stats.csv";
+    private static final String REPLAY_FILE = "replays.bin";
+    private static final String STATE_FILE = "game_state.bin";
+    private static final String STATS_FILE = "stats.log";
+    // Events the game thread can record before the stats writer has to catch up
+    private static final int STATS_QUEUE_CAPACITY = 1024;
+
+    // Boolean extra that starts the game in autoplay, e.g.
+    // adb shell am start -n com.csong.tetris/.Game --ez autoplay true
+    public static final String EXTRA_AUTOPLAY = "autoplay";
+    // String extra with the path of a replay archive to play back before a normal game
+    public static final String EXTRA_REPLAY = "replay";
+    // Boolean extra that draws with the CPU even where the GPU path is available
+    public static final String EXTRA_SOFTWARE_RENDERING = "software_rendering";
+    // Int extras for the board size, e.g. --ei width 64 --ei height 5000 for a board that is
+    // shown through a viewport. Up to Board.MAX_WIDTH columns.
+    public static final String EXTRA_WIDTH = "width";
+    public static final String EXTRA_HEIGHT = "height";
+
+    private GamePanel gamePanel;
+    private StatsStore statsStore;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -13,6 +39,53 @@ public class Game extends AppCompatActivity {
 
         requestWindowFeature(Window.FEATURE_NO_TITLE);
         getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN, WindowManager.LayoutParams.FLAG_FULLSCREEN);
-        setContentView(new GamePanel(this));
+        gamePanel = new GamePanel(this,
+                getIntent().getIntExtra(EXTRA_WIDTH, GamePanel.DEFAULT_WIDTH),
+                getIntent().getIntExtra(EXTRA_HEIGHT, GamePanel.DEFAULT_HEIGHT));
+        gamePanel.setAutoplay(getIntent().getBooleanExtra(EXTRA_AUTOPLAY, false));
+        gamePanel.setHardwareRendering(
+                !getIntent().getBooleanExtra(EXTRA_SOFTWARE_RENDERING, false));
+        gamePanel.setReplayArchive(new File(getFilesDir(), REPLAY_FILE));
+        // The store loads its log on its own thread, so this doesn't hold up the UI
+        statsStore = new StatsStore(new File(getFilesDir(), STATS_FILE), STATS_QUEUE_CAPACITY);
+        statsStore.start();
+        gamePanel.setStatsStore(statsStore);
+        gamePanel.restoreState(new File(getFilesDir(), STATE_FILE));
+
+        String replay = getIntent().getStringExtra(EXTRA_REPLAY);
+        if (replay != null) {
+            try {
+                gamePanel.playReplays(new File(replay));
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't open replays " + replay, e);
+            }
+        }
+        setContentView(gamePanel);
+    }
+
+    // Holds the game while something covers it, e.g. the notification shade or a dialog
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+
+        gamePanel.setPaused(!hasFocus);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        gamePanel.saveState(new File(getFilesDir(), STATE_FILE));
+        gamePanel.exportFrameStats(new File(getFilesDir(), FRAME_STATS_FILE));
+        statsStore.flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // The writer finishes on its own thread
+        gamePanel.setStatsStore(null);
+        statsStore.close();
     }
 }
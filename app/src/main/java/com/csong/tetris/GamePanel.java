@@ -1,10 +1,7 @@
 package com.csong.tetris;
 
 import android.content.Context;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.support.annotation.NonNull;
+import android.os.Build;
 import android.support.v4.view.GestureDetectorCompat;
 import android.util.Log;
 import android.view.GestureDetector;
@@ -12,77 +9,168 @@ import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
+import com.csong.tetris.engine.AutoPlayer;
+import com.csong.tetris.engine.Block;
+import com.csong.tetris.engine.BoardEvaluator;
+import com.csong.tetris.engine.GameEngine;
+import com.csong.tetris.engine.GravityCurve;
+import com.csong.tetris.engine.Input;
+import com.csong.tetris.engine.PlacementSearch;
+import com.csong.tetris.engine.ReplayReader;
+import com.csong.tetris.engine.ReplayRecorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.io.Writer;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created by csong on 10/21/16.
  */
 
-public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, GestureDetector.OnGestureListener {
-    // dimensions of the grid in blocks
-    public static final int GRID_WIDTH = 10;
-    public static final int GRID_HEIGHT = 20;
+public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, GestureDetector.OnGestureListener, InputQueue.Handler {
+    // dimensions of the grid in blocks, unless the game is given others
+    public static final int DEFAULT_WIDTH = 10;
+    public static final int DEFAULT_HEIGHT = 20;
+    // Taller boards are shown through a viewport of this many rows
+    public static final int MAX_VISIBLE_ROWS = 20;
 
     private static final String TAG = GamePanel.class.getSimpleName();
     private static final int FLING_THRESHOLD = 1000;
-
-    private List<Block> blocks;
-    private Block activeBlock;
+    private static final int INPUT_QUEUE_CAPACITY = 64;
+    private static final Object REPLAY_FILE_LOCK = new Object();
+
+    private final int gridWidth;
+    private final int gridHeight;
+    private GameEngine engine;
+    // Gestures arrive on the UI thread and are applied on the game thread
+    private InputQueue inputQueue;
+    // Only used on the render thread once the surface is created
+    private BoardRenderer renderer;
+    private StatsOverlay statsOverlay;
+    private CanvasDrawer canvasDrawer;
+    private volatile RenderBackend renderBackend;
+    private boolean hardwareRendering = true;
+    private volatile boolean showStats;
+    // Plays by itself when set, only touched on the game thread
+    private AutoPlayer autoPlayer;
+    private volatile boolean autoplay;
+    // No ticks run while paused and the game thread sleeps until something needs drawing
+    private volatile boolean paused;
+
+    // Every game is recorded and appended to replayArchive when it ends
+    private final ReplayRecorder recorder = new ReplayRecorder();
+    private volatile File replayArchive;
+    // Replays waiting to be picked up by the game thread, and the ones being played
+    private volatile ReplayReader pendingReplays;
+    private ReplayPlayback replayPlayback;
+    // Scores and session stats go here when set. Recorded on the game thread, and on the UI
+    // thread once the game thread has stopped.
+    private volatile StatsStore statsStore;
 
     public int tileSize;
-    private int fallSpeed;
-    private int frameCounter;
-    private MainThread mainThread;
+    private final FrameStats frameStats = new FrameStats();
+    private volatile MainThread mainThread;
+    private volatile RenderThread renderThread;
+    // Frames go from the game thread to the render thread through these
+    private final TripleBuffer<FrameSnapshot> snapshots;
+    // What was in the last published snapshot, so an unchanged frame isn't published again.
+    // Only touched on the game thread.
+    private long publishedTicks = -1;
+    private int publishedFallOffset;
+    private int publishedTileSize;
+    private int publishedWidth;
+    private int publishedHeight;
+    private boolean publishedStats;
+    private int publishedRedraws;
+    private int publishedViewTop;
+    // The rows on screen, moved on the game thread to follow the falling block
+    private final Viewport viewport;
+    // Counts the times the whole screen has to be drawn again. Only changed on the UI thread,
+    // and carried to the render thread in the snapshots so a skipped one isn't missed.
+    private volatile int redraws;
+    // Reused for every snapshot of the game state
+    private final ByteBuffer snapshot;
+    // Set when the game was restored part way through, so there is no replay of its start
+    private boolean restoredGame;
     private GestureDetectorCompat gestureDetector;
 
     public GamePanel(Context context) {
-        super(context);
+        this(context, DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
 
-        frameCounter = 0;
-        fallSpeed = 2;
+    // A game on a board gridWidth columns wide, up to Board.MAX_WIDTH, and gridHeight rows tall
+    public GamePanel(Context context, int gridWidth, int gridHeight) {
+        super(context);
 
         getHolder().addCallback(this);
 
-        mainThread = new MainThread(getHolder(), this);
         setFocusable(true);
-        blocks = new ArrayList<>((GRID_HEIGHT * GRID_WIDTH) / 4);
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        engine = new GameEngine(gridWidth, gridHeight, System.nanoTime());
+        snapshot = ByteBuffer.allocate(engine.getMaxSnapshotSize());
+        recorder.start(gridWidth, gridHeight, engine.getSeed());
+        inputQueue = new InputQueue(INPUT_QUEUE_CAPACITY);
+        viewport = new Viewport(gridHeight, MAX_VISIBLE_ROWS);
+        renderer = new BoardRenderer(gridWidth, gridHeight);
+        statsOverlay = new StatsOverlay();
+        canvasDrawer = new CanvasDrawer(statsOverlay, frameStats);
+        snapshots = new TripleBuffer<>(new FrameSnapshot(gridWidth, gridHeight),
+                new FrameSnapshot(gridWidth, gridHeight),
+                new FrameSnapshot(gridWidth, gridHeight));
 
         gestureDetector = new GestureDetectorCompat(context, this);
     }
 
     @Override
     public void surfaceCreated(SurfaceHolder surfaceHolder) {
-        frameCounter = 0;
-        fallSpeed = 2;
-        tileSize = getHeight() / GRID_HEIGHT;
-
-        activeBlock = generateNewBlock();
-
+        tileSize = getTileSize(getWidth(), getHeight());
+        redraws++;
+
+        // The engine kept its state while the surface was gone, carry on with fresh threads.
+        // Waking a thread that hasn't started does nothing, so the render thread goes first.
+        renderBackend = createRenderBackend(surfaceHolder);
+        renderThread = new RenderThread(snapshots, renderer, renderBackend, statsOverlay,
+                frameStats, createDrawList(), gridWidth, gridHeight);
+        renderThread.setRunning(true);
+        renderThread.start();
+        mainThread = new MainThread(surfaceHolder, this, renderThread, frameStats);
         mainThread.setRunning(true);
         mainThread.start();
     }
 
     @Override
-    public void surfaceChanged(SurfaceHolder surfaceHolder, int i, int i1, int i2) {
-
+    public void surfaceChanged(SurfaceHolder surfaceHolder, int format, int width, int height) {
+        // The game thread copies tileSize into each snapshot while holding the lock
+        synchronized (surfaceHolder) {
+            tileSize = getTileSize(width, height);
+        }
+        redraws++;
+        wakeGameThread();
     }
 
     @Override
     public void surfaceDestroyed(SurfaceHolder surfaceHolder) {
-        frameCounter = 0;
-        fallSpeed = 2;
         boolean retry = true;
         while (retry) {
             try {
                 mainThread.setRunning(false);
                 mainThread.join();
+                // The surface can't go until the render thread has let go of its canvas
+                renderThread.setRunning(false);
+                renderThread.join();
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
             retry = false;
         }
+        recordSession();
     }
 
     @Override
@@ -94,27 +182,367 @@ public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, Ge
         return super.onTouchEvent(event);
     }
 
+    // Runs one game tick, GameEngine.TICKS_PER_SECOND times per second
     public void update() {
-        frameCounter++;
-        if (frameCounter >= MainThread.FPS / fallSpeed) {
-            boolean blockLanded = activeBlock.update(blocks);
+        if (pendingReplays != null || replayPlayback != null) {
+            updateReplay();
+            return;
+        }
 
-            if (blockLanded) {
-                activeBlock = generateNewBlock();
+        inputQueue.drain(this);
+        if (autoplay) {
+            playAutomatically();
+        }
+        int type = engine.getActiveBlock().getType();
+        int pieces = engine.getPiecesPlaced();
+        int lines = engine.getLinesCleared();
+        engine.tick();
+        recordPiece(type, pieces, lines);
+
+        // No room for the new block, start over with an empty board
+        if (engine.isGameOver()) {
+            StatsStore stats = statsStore;
+            if (stats != null) {
+                stats.recordGame(engine.getScore(), engine.getLinesCleared(),
+                        engine.getPiecesPlaced(), engine.getSeed(), System.currentTimeMillis());
+            }
+            recorder.finish(engine);
+            if (!restoredGame) {
+                saveReplay();
             }
-            frameCounter = 0;
+            newGame();
         }
     }
 
-    @Override
-    public void draw(Canvas canvas) {
-        super.draw(canvas);
+    private void newGame() {
+        engine.reset(System.nanoTime());
+        recorder.start(gridWidth, gridHeight, engine.getSeed());
+        restoredGame = false;
+    }
+
+    // Snapshots the game and writes it to file on a background thread. Holding the lock the
+    // game thread updates under only takes as long as the snapshot, well under a millisecond.
+    public void saveState(final File file) {
+        final byte[] state;
+        synchronized (getHolder()) {
+            snapshot.clear();
+            engine.writeSnapshot(snapshot);
+            snapshot.flip();
+            state = new byte[snapshot.remaining()];
+            snapshot.get(state);
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (OutputStream out = new FileOutputStream(file)) {
+                    out.write(state);
+                } catch (IOException e) {
+                    Log.e(TAG, "Couldn't save game to " + file, e);
+                }
+            }
+        }, "GameStateSave").start();
+    }
+
+    // Carries on the game saved by saveState(), if there is one. Call before the surface is
+    // created.
+    public void restoreState(File file) {
+        if (!file.exists()) {
+            return;
+        }
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            snapshot.clear();
+            in.getChannel().read(snapshot);
+            snapshot.flip();
+            synchronized (getHolder()) {
+                engine.readSnapshot(snapshot);
+                restoredGame = true;
+            }
+        } catch (IOException | RuntimeException e) {
+            // A missing or damaged save just means a new game
+            Log.e(TAG, "Couldn't restore game from " + file, e);
+            newGame();
+        }
+    }
+
+    // Applies an input on the game thread and records it in the replay
+    private void applyInput(int input) {
+        int type = engine.getActiveBlock().getType();
+        int pieces = engine.getPiecesPlaced();
+        int lines = engine.getLinesCleared();
+        engine.handleInput(input);
+        recorder.record(engine.getTicks(), input);
+        recordPiece(type, pieces, lines);
+    }
+
+    // Sets where scores and session stats are kept, or null to stop keeping them
+    public void setStatsStore(StatsStore statsStore) {
+        this.statsStore = statsStore;
+    }
 
-        for (Block block : blocks) {
-            block.draw(canvas);
+    // Records a block of type as placed if the engine has placed one since it had placed
+    // pieces blocks and cleared lines rows. Queued for the store's writer, so it is cheap
+    // enough for every tick.
+    private void recordPiece(int type, int pieces, int lines) {
+        StatsStore stats = statsStore;
+        if (stats != null && engine.getPiecesPlaced() != pieces) {
+            stats.recordPiece(type, engine.getLinesCleared() - lines);
         }
+    }
+
+    // Ends the store's session with the frame times so far. Called once the game thread has
+    // stopped, and only queues the records, so it is fine on the UI thread.
+    private void recordSession() {
+        StatsStore stats = statsStore;
+        if (stats == null) {
+            return;
+        }
+        for (int metric = 0; metric < FrameStats.METRIC_COUNT; metric++) {
+            if (frameStats.getCount(metric) > 0) {
+                stats.recordFrames(metric, frameStats.getCount(metric),
+                        frameStats.getPercentile(metric, 0.5),
+                        frameStats.getPercentile(metric, 0.99), frameStats.getMax(metric));
+            }
+        }
+        stats.endSession();
+    }
+
+    // Copies the game as it is to be drawn into the back snapshot. Called on the game thread
+    // under the surface holder lock. Returns false, leaving nothing to publish, if the frame
+    // would look the same as the last one published. interpolation is how far the game has got
+    // from the last tick towards the next one, from 0 to 1. The falling block is drawn that
+    // far between rows so it moves smoothly.
+    public boolean writeSnapshot(float interpolation) {
+        int fallOffset = getFallOffset(interpolation);
+        int width = getWidth();
+        int height = getHeight();
+        boolean stats = showStats;
+        int redraw = redraws;
+        int viewTop = followActiveBlock();
+        // The overlay shows the timings of the frames being drawn, so it keeps them coming
+        if (!stats && redraw == publishedRedraws && engine.getTicks() == publishedTicks
+                && fallOffset == publishedFallOffset && tileSize == publishedTileSize
+                && width == publishedWidth && height == publishedHeight
+                && stats == publishedStats && viewTop == publishedViewTop) {
+            return false;
+        }
+
+        snapshots.getBack().set(engine.getBoard(), engine.getActiveBlock(), fallOffset, tileSize,
+                width, height, stats, redraw, viewTop, viewport.getRows());
+        publishedTicks = engine.getTicks();
+        publishedFallOffset = fallOffset;
+        publishedTileSize = tileSize;
+        publishedWidth = width;
+        publishedHeight = height;
+        publishedStats = stats;
+        publishedRedraws = redraw;
+        publishedViewTop = viewTop;
+        return true;
+    }
+
+    // Moves the viewport to keep the active block and, where it fits, its ghost on screen.
+    // Returns the top row of the view.
+    private int followActiveBlock() {
+        Block block = engine.getActiveBlock();
+        int blockTop = -1;
+        int blockBottom = -1;
+        for (int y = block.getY(); y < block.getY() + 4; y++) {
+            if (block.getRowMask(y) != 0) {
+                blockTop = blockTop < 0 ? y : blockTop;
+                blockBottom = y;
+            }
+        }
+        int ghostBottom = blockBottom + engine.getGhostY() - block.getY();
+        return viewport.follow(Math.max(0, blockTop), Math.max(0, blockBottom),
+                Math.max(0, ghostBottom));
+    }
+
+    // The largest tiles that fit the width of the board and the rows in view on screen
+    private int getTileSize(int width, int height) {
+        return Math.min(width / gridWidth, height / viewport.getRows());
+    }
+
+    // Hands the snapshot filled by writeSnapshot() to the render thread. Called on the game
+    // thread, outside the lock.
+    public void publishSnapshot() {
+        snapshots.publish();
+    }
+
+    // Returns how long after the last tick the frame would next look different if nothing is
+    // input, in nanoseconds. That is when the falling block reaches its next pixel or row, or
+    // locks. Long.MAX_VALUE while paused, as only a wake changes anything then.
+    public long getNanosUntilChange(float interpolation) {
+        if (paused) {
+            return Long.MAX_VALUE;
+        }
+        // Inputs can come from the game itself on any tick
+        if (autoplay || replayPlayback != null || pendingReplays != null || engine.isGameOver()) {
+            return MainThread.TICK_NANOS;
+        }
+
+        double ticks = engine.getTicksUntilFall();
+        int offset = getFallOffset(interpolation);
+        boolean falling = engine.getGhostY() > engine.getActiveBlock().getY();
+        if (falling && offset + 1 < tileSize) {
+            double fallen = engine.getFallProgress(0) * GravityCurve.ONE_ROW;
+            double nextPixel = (offset + 1) * (double) GravityCurve.ONE_ROW / tileSize;
+            ticks = Math.min(ticks, (nextPixel - fallen) / engine.getGravity());
+        }
+        return (long) (ticks * MainThread.TICK_NANOS);
+    }
+
+    // Every tile in view can be in one batch, e.g. a board of nothing but one type. The view
+    // can start a row early for a block falling into it.
+    public DrawList createDrawList() {
+        return new DrawList(BoardRenderer.getBatchColors(), gridWidth * (viewport.getRows() + 1));
+    }
 
-        drawGrid(canvas);
+    // Draws through the GPU where the device supports it. Takes effect the next time the
+    // surface is created.
+    public void setHardwareRendering(boolean hardwareRendering) {
+        this.hardwareRendering = hardwareRendering;
+    }
+
+    private RenderBackend createRenderBackend(SurfaceHolder surfaceHolder) {
+        if (hardwareRendering && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return new HardwareCanvasBackend(surfaceHolder, canvasDrawer);
+        }
+        return new SoftwareCanvasBackend(surfaceHolder, canvasDrawer);
+    }
+
+    private int getFallOffset(float interpolation) {
+        return Math.min((int) (engine.getFallProgress(interpolation) * tileSize), tileSize - 1);
+    }
+
+    // Lets the placement search play the game, one input per tick. Used for demos and to soak
+    // test the game loop for hours without anyone touching the screen.
+    public void setAutoplay(boolean autoplay) {
+        this.autoplay = autoplay;
+        wakeGameThread();
+    }
+
+    // Stops the game where it is, e.g. while the window is covered. It carries on from the
+    // same tick when resumed.
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        wakeGameThread();
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    // Lets the game thread see a change made from another thread straight away, instead of
+    // when it next expected the frame to change
+    private void wakeGameThread() {
+        MainThread thread = mainThread;
+        if (thread != null) {
+            thread.wake();
+        }
+    }
+
+    private void playAutomatically() {
+        if (autoPlayer == null) {
+            // ForkJoinPool only exists from Lollipop, older devices search on the game thread
+            ForkJoinPool pool = null;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                pool = new ForkJoinPool();
+            }
+            autoPlayer = new AutoPlayer(new PlacementSearch(new BoardEvaluator()), pool);
+        }
+
+        int input = autoPlayer.nextInput(engine);
+        if (input != AutoPlayer.NONE) {
+            applyInput(input);
+        }
+    }
+
+    // Sets the file finished games are appended to, or null to stop saving them
+    public void setReplayArchive(File replayArchive) {
+        this.replayArchive = replayArchive;
+    }
+
+    // Plays every replay in the archive in real time through the normal update, then goes
+    // back to a new game, sooner if a replay can't be played. Gestures are ignored until it
+    // finishes.
+    public void playReplays(File archive) throws IOException {
+        pendingReplays = ReplayReader.open(archive);
+        wakeGameThread();
+    }
+
+    private void updateReplay() {
+        ReplayReader replays = pendingReplays;
+        if (replays != null) {
+            pendingReplays = null;
+            replayPlayback = new ReplayPlayback(replays);
+        }
+
+        // Gestures don't get applied during a replay but still need taking off the queue
+        inputQueue.drain(this);
+
+        if (!replayPlayback.step(engine)) {
+            // The rest of an archive that can't be read is skipped, the game carries on
+            if (replayPlayback.getError() != null) {
+                Log.e(TAG, "Couldn't play replay", replayPlayback.getError());
+            }
+            replayPlayback = null;
+            newGame();
+        }
+    }
+
+    // Appends the finished game to the archive on a background thread
+    private void saveReplay() {
+        final File file = replayArchive;
+        if (file == null) {
+            return;
+        }
+        final byte[] replay = recorder.toByteArray();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Keeps two saves from interleaving their bytes in the file
+                synchronized (REPLAY_FILE_LOCK) {
+                    try (OutputStream out = new FileOutputStream(file, true)) {
+                        out.write(replay);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Couldn't save replay to " + file, e);
+                    }
+                }
+            }
+        }, "ReplaySave").start();
+    }
+
+    public FrameStats getFrameStats() {
+        return frameStats;
+    }
+
+    // Writes the frame timings so far to a CSV file on a background thread
+    public void exportFrameStats(final File file) {
+        final FrameStats copy = new FrameStats();
+        frameStats.copyInto(copy);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Writer writer = new FileWriter(file)) {
+                    copy.writeCsv(writer);
+                } catch (IOException e) {
+                    Log.e(TAG, "Couldn't export frame stats to " + file, e);
+                }
+            }
+        }, "FrameStatsExport").start();
+    }
+
+    // Called on the game thread for each queued gesture
+    @Override
+    public void onInput(int input, long queuedNanos) {
+        if (replayPlayback != null) {
+            return;
+        }
+        applyInput(input);
+        frameStats.record(FrameStats.INPUT, System.nanoTime() - queuedNanos);
     }
 
     // region GestureDetector callbacks
@@ -128,7 +556,7 @@ public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, Ge
 
     @Override
     public boolean onSingleTapUp(MotionEvent motionEvent) {
-        activeBlock.rotate();
+        queueInput(Input.ROTATE);
         return true;
     }
 
@@ -138,16 +566,27 @@ public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, Ge
     }
 
     @Override
-    public void onLongPress(MotionEvent motionEvent) { }
+    public void onLongPress(MotionEvent motionEvent) {
+        showStats = !showStats;
+        if (!showStats) {
+            // Nothing else would redraw the area the overlay covered
+            redraws++;
+        }
+        wakeGameThread();
+    }
 
     @Override
     public boolean onFling(MotionEvent event1, MotionEvent event2, float velocityX, float velocityY) {
         Log.d(TAG, "onFling: " + event1.toString() + event2.toString());
-        if (Math.abs(velocityX) > FLING_THRESHOLD) {
+        if (Math.abs(velocityY) > Math.abs(velocityX)) {
+            if (velocityY > FLING_THRESHOLD) {    // down swipe
+                queueInput(Input.DROP);
+            }
+        } else if (Math.abs(velocityX) > FLING_THRESHOLD) {
             if (velocityX < 0) {    // left swipe
-
+                queueInput(Input.MOVE_LEFT);
             } else {    // right swipe
-
+                queueInput(Input.MOVE_RIGHT);
             }
         }
         return true;
@@ -155,26 +594,10 @@ public class GamePanel extends SurfaceView implements SurfaceHolder.Callback, Ge
 
     // endregion
 
-    private Block generateNewBlock() {
-        Random random = new Random();
-        @Block.Type int block = random.nextInt(7);
-        Block blockToAdd = new Block(block, tileSize, random.nextInt(GRID_WIDTH - 2), 0);
-        blocks.add(blockToAdd);
-
-        return blockToAdd;
-    }
-
-    private void drawGrid(@NonNull Canvas canvas) {
-        for (int i = 0; i < GRID_WIDTH + 1; i++) {
-            Paint paint = new Paint();
-            paint.setColor(Color.GRAY);
-            canvas.drawLine(i * tileSize, 0, i * tileSize, tileSize * (GRID_HEIGHT), paint);
-        }
-
-        for (int i = 0; i < GRID_HEIGHT + 1; i++) {
-            Paint paint = new Paint();
-            paint.setColor(Color.GRAY);
-            canvas.drawLine(0, i * tileSize, tileSize * GRID_WIDTH, i * tileSize, paint);
+    private void queueInput(int input) {
+        if (!inputQueue.offer(input, System.nanoTime())) {
+            Log.w(TAG, "Input queue full, dropping input " + input);
         }
+        wakeGameThread();
     }
 }
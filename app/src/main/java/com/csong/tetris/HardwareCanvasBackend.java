@@ -0,0 +1,62 @@
+package com.csong.tetris;
+
+import android.annotation.TargetApi;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+/**
+ * Draws through the GPU with Surface.lockHardwareCanvas(), available from Marshmallow. Drawing
+ * calls are only recorded on the render thread and rasterized by the GPU, so the CPU cost per
+ * tile is small. A hardware canvas doesn't keep the previous frame, so each frame is drawn in
+ * full.
+ */
+
+@TargetApi(Build.VERSION_CODES.M)
+public class HardwareCanvasBackend implements RenderBackend {
+    private final SurfaceHolder surfaceHolder;
+    private final CanvasDrawer drawer;
+    private Surface surface;
+    private Canvas canvas;
+
+    public HardwareCanvasBackend(@NonNull SurfaceHolder surfaceHolder,
+                                 @NonNull CanvasDrawer drawer) {
+        this.surfaceHolder = surfaceHolder;
+        this.drawer = drawer;
+    }
+
+    @Override
+    public boolean begin(DrawList frame) {
+        surface = surfaceHolder.getSurface();
+        if (surface == null || !surface.isValid()) {
+            return false;
+        }
+
+        try {
+            canvas = surface.lockHardwareCanvas();
+        } catch (IllegalStateException e) {
+            // The surface went away between the check and the lock
+            return false;
+        }
+        frame.setClip(0, 0, canvas.getWidth(), canvas.getHeight());
+        return true;
+    }
+
+    @Override
+    public void draw(DrawList frame) {
+        drawer.draw(canvas, frame);
+    }
+
+    @Override
+    public void end() {
+        surface.unlockCanvasAndPost(canvas);
+        canvas = null;
+    }
+
+    @Override
+    public boolean preservesContents() {
+        return false;
+    }
+}
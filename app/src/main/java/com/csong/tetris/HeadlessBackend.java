@@ -0,0 +1,46 @@
+package com.csong.tetris;
+
+/**
+ * Draws nothing and keeps a copy of the last frame instead, so tests can check what would have
+ * been drawn without a device or a surface.
+ */
+
+public class HeadlessBackend implements RenderBackend {
+    private final DrawList lastFrame;
+    private final boolean preservesContents;
+    private int frames;
+
+    public HeadlessBackend(DrawList template, boolean preservesContents) {
+        // Only the batch colors and sizes of the template are used
+        this.lastFrame = new DrawList(template.getBatchColors(), template.getMaxQuadsPerBatch());
+        this.preservesContents = preservesContents;
+    }
+
+    @Override
+    public boolean begin(DrawList frame) {
+        return true;
+    }
+
+    @Override
+    public void draw(DrawList frame) {
+        lastFrame.copyFrom(frame);
+    }
+
+    @Override
+    public void end() {
+        frames++;
+    }
+
+    @Override
+    public boolean preservesContents() {
+        return preservesContents;
+    }
+
+    public DrawList getLastFrame() {
+        return lastFrame;
+    }
+
+    public int getFrameCount() {
+        return frames;
+    }
+}
@@ -0,0 +1,64 @@
+package com.csong.tetris;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands input commands from the UI thread to the game thread without locks or allocation. A
+ * fixed ring of slots holds each command with the time it was queued. Exactly one thread may
+ * call offer() and exactly one other thread may call drain().
+ */
+
+public class InputQueue {
+    public interface Handler {
+        void onInput(int input, long queuedNanos);
+    }
+
+    private final int mask;
+    private final int[] inputs;
+    private final long[] timestamps;
+
+    // Next slot to read, only advanced by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write, only advanced by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    // capacity is rounded up to a power of two
+    public InputQueue(int capacity) {
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        inputs = new int[size];
+        timestamps = new long[size];
+    }
+
+    public int getCapacity() {
+        return inputs.length;
+    }
+
+    // Producer only. Returns false and drops the input if the queue is full.
+    public boolean offer(int input, long queuedNanos) {
+        long t = tail.get();
+        if (t - head.get() == inputs.length) {
+            return false;
+        }
+
+        int slot = (int) t & mask;
+        inputs[slot] = input;
+        timestamps[slot] = queuedNanos;
+        // Publishes the slot contents before the consumer can see the new tail
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    // Consumer only. Passes every queued input to the handler in order and returns how many.
+    public int drain(Handler handler) {
+        long h = head.get();
+        long t = tail.get();
+        for (long i = h; i < t; i++) {
+            int slot = (int) i & mask;
+            handler.onInput(inputs[slot], timestamps[slot]);
+        }
+        // Hands the slots back to the producer
+        head.lazySet(t);
+        return (int) (t - h);
+    }
+}
@@ -1,75 +1,138 @@
 package com.csong.tetris;
 
-import android.graphics.Canvas;
 import android.support.annotation.NonNull;
 import android.view.SurfaceHolder;
 
+import com.csong.tetris.engine.GameEngine;
+
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * Created by csong on 10/21/16.
  */
 
 public class MainThread extends Thread {
-    public static final int FPS = 10;
-    private double averageFPS;
+    // Game logic runs at a fixed rate. The render thread draws the frames, and only when
+    // something on screen has changed.
+    public static final long TICK_NANOS = 1000000000L / GameEngine.TICKS_PER_SECOND;
+
+    // After a slow frame, run at most this many ticks to catch up. A device that can't keep up
+    // then runs the game slower instead of falling further behind every frame.
+    private static final int MAX_TICKS_PER_FRAME = 5;
+    // The most ticks run at once even after a long idle wait, a second of play
+    private static final int MAX_CATCH_UP_TICKS = GameEngine.TICKS_PER_SECOND;
+    // Shortest idle wait, so a change predicted a hair too early doesn't spin the loop
+    private static final long MIN_WAIT_NANOS = 1000000;
+
+    private final FrameStats frameStats;
+    private final RenderThread renderThread;
     private SurfaceHolder surfaceHolder;
     private GamePanel gamePanel;
-    private boolean running;
-    public static Canvas canvas;
+    private volatile boolean running;
 
-    public MainThread(@NonNull SurfaceHolder surfaceHolder, @NonNull GamePanel gamePanel) {
-        super();
+    // A thread only runs once, so the panel makes a new one each time its surface is created.
+    // frameStats outlives the thread and keeps collecting across them. Each change to the
+    // frame is published to renderThread, which does the drawing.
+    public MainThread(@NonNull SurfaceHolder surfaceHolder, @NonNull GamePanel gamePanel,
+                      @NonNull RenderThread renderThread, @NonNull FrameStats frameStats) {
+        super("MainThread");
         this.surfaceHolder = surfaceHolder;
         this.gamePanel = gamePanel;
+        this.renderThread = renderThread;
+        this.frameStats = frameStats;
     }
 
     @Override
     public void run() {
-        long startTime;
-        long timeMillis;
-        long waitTime;
-        long totalTime = 0;
-        long frameCount = 0;
-
-        // in millis
-        long targetTime = 1000/FPS;
+        long previousTime = System.nanoTime();
+        long accumulator = 0;
+        // Ticks the last wait slept through, which aren't taken for a slow frame
+        long waitedTicks = 0;
+        boolean paused = false;
 
         while(running) {
-            startTime = System.nanoTime();
-            canvas = null;
-
-            canvas = this.surfaceHolder.lockCanvas();
-            if (canvas != null) {
-                synchronized (surfaceHolder) {
-                    this.gamePanel.update();
-                    this.gamePanel.draw(canvas);
-                }
-                surfaceHolder.unlockCanvasAndPost(canvas);
+            long now = System.nanoTime();
+            long frameTime = now - previousTime;
+            previousTime = now;
+            // Time spent paused is never owed
+            if (!paused) {
+                accumulator += frameTime;
             }
 
-            timeMillis = (System.nanoTime() - startTime) / 1000000;
-            waitTime = targetTime - timeMillis;
-
-            if (waitTime > 0) {
-                try {
-                    Thread.sleep(waitTime);
-                } catch (InterruptedException e) {
+            boolean changed;
+            long idleNanos;
+            synchronized (surfaceHolder) {
+                paused = gamePanel.isPaused();
+                if (paused) {
+                    accumulator = 0;
+                } else {
+                    long maxTicks = Math.min(MAX_CATCH_UP_TICKS,
+                            MAX_TICKS_PER_FRAME + waitedTicks);
+                    int ticks = 0;
+                    while (accumulator >= TICK_NANOS && ticks < maxTicks) {
+                        this.gamePanel.update();
+                        accumulator -= TICK_NANOS;
+                        ticks++;
+                    }
 
+                    // Drop whatever is still owed so the next frame doesn't start behind
+                    if (accumulator >= TICK_NANOS) {
+                        accumulator %= TICK_NANOS;
+                    }
                 }
-            }
 
-            totalTime += System.nanoTime() - startTime;
-            frameCount++;
+                float interpolation = (float) accumulator / TICK_NANOS;
+                changed = this.gamePanel.writeSnapshot(interpolation);
+                idleNanos = this.gamePanel.getNanosUntilChange(interpolation);
+            }
 
-            if (frameCount == FPS) {
-                averageFPS = (frameCount * 1000000) / (totalTime / 1000);
-                frameCount = 0;
-                totalTime = 0;
-                System.out.println(averageFPS);
+            // Drawing happens on the render thread, so the next tick doesn't wait for it
+            if (changed) {
+                gamePanel.publishSnapshot();
+                renderThread.wake();
             }
+            frameStats.record(FrameStats.UPDATE, System.nanoTime() - now);
+
+            // Sleep until the frame would next change unless an input or the panel wakes the
+            // thread first
+            long wait = idleNanos == Long.MAX_VALUE ? Long.MAX_VALUE
+                    : Math.max(MIN_WAIT_NANOS, idleNanos - accumulator);
+            long waitStart = System.nanoTime();
+            waitForWake(wait);
+            long waited = System.nanoTime() - waitStart;
+            frameStats.record(FrameStats.IDLE, waited);
+            // Only what was really slept through, which is less than asked for after a wake
+            waitedTicks = Math.min(waited, wait) / TICK_NANOS;
+        }
+    }
+
+    // Ends a wait early, e.g. when an input is queued or the game is resumed. Can be called
+    // from any thread. A wake that comes before the wait ends the next one instead, so none
+    // are lost.
+    public void wake() {
+        LockSupport.unpark(this);
+    }
+
+    // Parks the thread for up to nanos, or until woken. Long.MAX_VALUE waits for the wake.
+    private void waitForWake(long nanos) {
+        if (!running) {
+            return;
+        }
+        if (nanos == Long.MAX_VALUE) {
+            LockSupport.park(this);
+        } else {
+            LockSupport.parkNanos(this, nanos);
         }
     }
 
     public void setRunning(boolean isRunning) {
         running = isRunning;
+        if (!isRunning) {
+            wake();
+        }
+    }
+
+    public FrameStats getFrameStats() {
+        return frameStats;
     }
 }
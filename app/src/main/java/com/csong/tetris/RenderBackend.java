@@ -0,0 +1,21 @@
+package com.csong.tetris;
+
+/**
+ * Somewhere a DrawList can be drawn. The render thread calls begin(), then draw() and end() if
+ * begin() succeeded, once per frame.
+ */
+
+public interface RenderBackend {
+    // Gets a target ready for the frame. May grow the frame's clip if the backend can't keep
+    // part of the previous frame. Returns false if there is nowhere to draw yet.
+    boolean begin(DrawList frame);
+
+    void draw(DrawList frame);
+
+    // Shows the frame
+    void end();
+
+    // True if everything outside the clip keeps the previous frame, so only what changed has
+    // to be drawn. Otherwise every frame must redraw the whole screen.
+    boolean preservesContents();
+}
@@ -0,0 +1,143 @@
+package com.csong.tetris;
+
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+
+import com.csong.tetris.engine.Block;
+import com.csong.tetris.engine.Board;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Draws the newest FrameSnapshot the game thread has published, so drawing and waiting for the
+ * display happen alongside the next ticks instead of between them. Snapshots come through a
+ * TripleBuffer, so the two threads never wait for each other. A snapshot the render thread
+ * didn't get to in time is skipped, not queued.
+ *
+ * Each snapshot's board is copied into the render thread's own board, which marks the cells
+ * that differ from what was last drawn. Damage from a skipped snapshot is still there for the
+ * next one, so only what changed is redrawn even when frames are dropped. With nothing new
+ * the thread parks until the game thread publishes again.
+ */
+
+public class RenderThread extends Thread {
+    private final TripleBuffer<FrameSnapshot> snapshots;
+    private final BoardRenderer renderer;
+    private final RenderBackend renderBackend;
+    private final StatsOverlay statsOverlay;
+    private final FrameStats frameStats;
+    private final DrawList frame;
+    // What has been drawn, with damage for every cell that differs from the newest snapshot
+    private final Board board;
+    private volatile boolean running;
+
+    // Like MainThread, one is made each time the surface is created
+    public RenderThread(@NonNull TripleBuffer<FrameSnapshot> snapshots,
+                        @NonNull BoardRenderer renderer, @NonNull RenderBackend renderBackend,
+                        @NonNull StatsOverlay statsOverlay, @NonNull FrameStats frameStats,
+                        @NonNull DrawList frame, int gridWidth, int gridHeight) {
+        super("RenderThread");
+        this.snapshots = snapshots;
+        this.renderer = renderer;
+        this.renderBackend = renderBackend;
+        this.statsOverlay = statsOverlay;
+        this.frameStats = frameStats;
+        this.frame = frame;
+        this.board = new Board(gridWidth, gridHeight);
+    }
+
+    @Override
+    public void run() {
+        Rect dirty = new Rect();
+        Rect statsBounds = new Rect();
+        long previousTime = System.nanoTime();
+        // Anything drawn by an earlier thread may have gone with the old surface
+        int redraws = -1;
+
+        while (running) {
+            boolean fresh = snapshots.update();
+            FrameSnapshot snapshot = snapshots.getFront();
+            // Nothing has been published yet
+            if (snapshot.getTileSize() <= 0) {
+                waitForWake();
+                continue;
+            }
+            if (snapshot.getRedraws() != redraws) {
+                redraws = snapshot.getRedraws();
+                renderer.invalidate();
+                fresh = true;
+            }
+            if (fresh) {
+                board.copyFrom(snapshot.getBoard());
+            }
+            Block activeBlock = snapshot.getActiveBlock();
+            renderer.setTileSize(snapshot.getTileSize());
+            renderer.setViewport(snapshot.getViewTop(), snapshot.getViewRows());
+            renderer.getDirtyRect(board, activeBlock, snapshot.getFallOffset(), dirty);
+
+            // The overlay shows the timings of the frames being drawn, so it keeps them coming
+            if (snapshot.isShowingStats()) {
+                statsOverlay.getBounds(snapshot.getScreenWidth(), statsBounds);
+                dirty.union(statsBounds);
+            }
+
+            // Nothing looks any different, so don't take a buffer until there is a new snapshot
+            if (dirty.isEmpty()) {
+                waitForWake();
+                continue;
+            }
+            if (!renderBackend.preservesContents()) {
+                renderer.invalidate();
+                dirty.set(0, 0, snapshot.getScreenWidth(), snapshot.getScreenHeight());
+            }
+
+            frame.begin(dirty.left, dirty.top, dirty.right, dirty.bottom);
+            long lockStart = System.nanoTime();
+            long frameTime = lockStart - previousTime;
+            previousTime = lockStart;
+
+            // Blocks until the display can take another frame. Only this thread waits, the
+            // game thread carries on ticking.
+            boolean ready = renderBackend.begin(frame);
+            long locked = System.nanoTime();
+
+            if (ready) {
+                renderer.build(board, activeBlock, snapshot.getFallOffset(), frame);
+                board.clearDamage();
+                if (snapshot.isShowingStats()) {
+                    frame.addOverlay();
+                }
+                renderBackend.draw(frame);
+                long postStart = System.nanoTime();
+                renderBackend.end();
+                frameStats.recordRender(frameTime, locked - lockStart, postStart - locked,
+                        System.nanoTime() - postStart);
+            } else {
+                // The surface isn't ready, wait for it instead of spinning
+                long sleepStart = System.nanoTime();
+                LockSupport.parkNanos(this, MainThread.TICK_NANOS);
+                frameStats.record(FrameStats.SLEEP_OVERSHOOT,
+                        Math.max(0, System.nanoTime() - sleepStart - MainThread.TICK_NANOS));
+            }
+        }
+    }
+
+    // Lets the thread know a snapshot has been published. A wake that comes before the thread
+    // parks ends its next park instead, so none are lost.
+    public void wake() {
+        LockSupport.unpark(this);
+    }
+
+    private void waitForWake() {
+        if (running) {
+            LockSupport.park(this);
+        }
+    }
+
+    public void setRunning(boolean isRunning) {
+        running = isRunning;
+        if (!isRunning) {
+            wake();
+        }
+    }
+}
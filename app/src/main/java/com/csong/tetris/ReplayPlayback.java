@@ -0,0 +1,50 @@
+package com.csong.tetris;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.csong.tetris.engine.GameEngine;
+import com.csong.tetris.engine.ReplayPlayer;
+import com.csong.tetris.engine.ReplayReader;
+
+/**
+ * Plays every replay in an archive on the game's engine, one tick per update. The archive is
+ * appended to by every version of the game, so it can hold replays in an older format or for
+ * another board size, or end part way through one. Playback stops at the first replay that
+ * can't be played instead of taking the game thread down, and keeps what went wrong for the
+ * caller to report.
+ */
+
+public class ReplayPlayback {
+    private final ReplayPlayer player;
+    private boolean started;
+    private RuntimeException error;
+
+    public ReplayPlayback(@NonNull ReplayReader archive) {
+        player = new ReplayPlayer(archive);
+    }
+
+    // Runs one tick of the replay being played, moving on to the next replay when it ends.
+    // Returns false once there are none left, or once one couldn't be played.
+    public boolean step(@NonNull GameEngine engine) {
+        try {
+            if (!started) {
+                started = true;
+                if (!player.nextReplay(engine)) {
+                    return false;
+                }
+            }
+            return player.step(engine) || player.nextReplay(engine);
+        } catch (RuntimeException e) {
+            // e.g. no replay where one should start, a replay cut short or the wrong board size
+            error = e;
+            return false;
+        }
+    }
+
+    // Why playback stopped early, or null if it hasn't
+    @Nullable
+    public RuntimeException getError() {
+        return error;
+    }
+}
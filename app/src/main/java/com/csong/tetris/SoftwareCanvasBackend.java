@@ -0,0 +1,54 @@
+package com.csong.tetris;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+import android.view.SurfaceHolder;
+
+/**
+ * Draws with the CPU into the canvas from SurfaceHolder.lockCanvas(Rect). The surface keeps
+ * the previous frame outside the rect, so only what changed is drawn.
+ */
+
+public class SoftwareCanvasBackend implements RenderBackend {
+    private final SurfaceHolder surfaceHolder;
+    private final CanvasDrawer drawer;
+    private final Rect dirty = new Rect();
+    private Canvas canvas;
+
+    public SoftwareCanvasBackend(@NonNull SurfaceHolder surfaceHolder,
+                                 @NonNull CanvasDrawer drawer) {
+        this.surfaceHolder = surfaceHolder;
+        this.drawer = drawer;
+    }
+
+    @Override
+    public boolean begin(DrawList frame) {
+        dirty.set(frame.getClipLeft(), frame.getClipTop(), frame.getClipRight(),
+                frame.getClipBottom());
+        // Blocks until the display can take another frame, and may grow dirty
+        canvas = surfaceHolder.lockCanvas(dirty);
+        if (canvas == null) {
+            return false;
+        }
+
+        frame.setClip(dirty.left, dirty.top, dirty.right, dirty.bottom);
+        return true;
+    }
+
+    @Override
+    public void draw(DrawList frame) {
+        drawer.draw(canvas, frame);
+    }
+
+    @Override
+    public void end() {
+        surfaceHolder.unlockCanvasAndPost(canvas);
+        canvas = null;
+    }
+
+    @Override
+    public boolean preservesContents() {
+        return true;
+    }
+}
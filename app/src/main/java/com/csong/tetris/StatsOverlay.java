@@ -0,0 +1,96 @@
+package com.csong.tetris;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.support.annotation.NonNull;
+
+/**
+ * Draws the p50, p99 and max of every frame timing over the game. Text is built in a reused
+ * char buffer so the overlay doesn't add allocations to the frames it is measuring.
+ */
+
+public class StatsOverlay {
+    private static final float TEXT_SIZE = 28;
+    private static final float PADDING = 8;
+
+    private final Paint textPaint;
+    private final Paint backgroundPaint;
+    private final char[] line = new char[96];
+    private int length;
+
+    public StatsOverlay() {
+        textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(TEXT_SIZE);
+        textPaint.setTypeface(Typeface.MONOSPACE);
+
+        backgroundPaint = new Paint();
+        backgroundPaint.setColor(Color.argb(160, 0, 0, 0));
+    }
+
+    // Stores the area the overlay covers on a screen of the given width
+    public void getBounds(int width, @NonNull Rect bounds) {
+        bounds.set(0, 0, width, (int) Math.ceil(getHeight()));
+    }
+
+    public void draw(@NonNull Canvas canvas, @NonNull FrameStats stats) {
+        float lineHeight = TEXT_SIZE + PADDING;
+        canvas.drawRect(0, 0, canvas.getWidth(), getHeight(), backgroundPaint);
+
+        for (int i = 0; i < FrameStats.METRIC_COUNT; i++) {
+            length = 0;
+            append(FrameStats.getName(i));
+            append(" p50 ");
+            appendMillis(stats.getPercentile(i, 0.5));
+            append(" p99 ");
+            appendMillis(stats.getPercentile(i, 0.99));
+            append(" max ");
+            appendMillis(stats.getMax(i));
+            append(" ms");
+            canvas.drawText(line, 0, length, PADDING, lineHeight * (i + 1), textPaint);
+        }
+    }
+
+    private float getHeight() {
+        return (TEXT_SIZE + PADDING) * FrameStats.METRIC_COUNT + PADDING;
+    }
+
+    private void append(String text) {
+        for (int i = 0; i < text.length() && length < line.length; i++) {
+            line[length++] = text.charAt(i);
+        }
+    }
+
+    // Appends nanos as milliseconds with two decimal places
+    private void appendMillis(long nanos) {
+        long hundredths = nanos / 10000;
+        appendNumber(hundredths / 100);
+        append(".");
+        long fraction = hundredths % 100;
+        if (fraction < 10) {
+            append("0");
+        }
+        appendNumber(fraction);
+    }
+
+    private void appendNumber(long value) {
+        int start = length;
+        do {
+            if (length == line.length) {
+                return;
+            }
+            line[length++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+
+        // The digits went in backwards
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            char c = line[i];
+            line[i] = line[j];
+            line[j] = c;
+        }
+    }
+}
@@ -0,0 +1,760 @@
+package com.csong.tetris;
+
+import com.csong.tetris.engine.Block;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps high scores and per-session stats in a file without the game thread ever touching it.
+ * The game thread records events into a fixed ring of slots, the same way InputQueue hands
+ * over gestures, so recording never blocks or allocates. If the ring is full the event is
+ * dropped and counted. A writer thread wakes every FLUSH_NANOS, or sooner once the ring is
+ * half full, folds everything recorded into an in-memory index and appends it to the log as
+ * one batch.
+ *
+ * The log is a magic number followed by records, each its payload length as a varint, the
+ * payload and a CRC32 of the payload. A payload is a kind byte and varints: a finished game,
+ * what a session added to its counts since the last batch, or a session's frame times. A
+ * record cut short by the app being killed fails its CRC and is cut off when the log is next
+ * loaded. The log only grows until it is twice the size it was after the last compaction,
+ * when it is rewritten from the index as one record per high score and per session.
+ *
+ * The index is loaded by the writer thread before anything else, so opening the store costs
+ * the UI thread nothing. Reads wait for it if they come first. Events are recorded from one
+ * thread at a time, e.g. each game thread in turn.
+ */
+
+public class StatsStore {
+    public static final int HIGH_SCORE_COUNT = 10;
+
+    private static final int MAGIC = 0x54535431;    // "TST1"
+    private static final long FLUSH_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MIN_COMPACT_BYTES = 64 * 1024;
+
+    // Event kinds in the ring
+    private static final int PIECE = 0;
+    private static final int GAME = 1;
+    private static final int FRAMES = 2;
+    private static final int SESSION_END = 3;
+    // Longs per slot: the kind and up to five values
+    private static final int SLOT_LONGS = 6;
+
+    // Record kinds in the log
+    private static final int GAME_RECORD = 1;
+    private static final int SESSION_RECORD = 2;
+    private static final int FRAMES_RECORD = 3;
+
+    /**
+     * A finished game.
+     */
+    public static class HighScore {
+        private final long score;
+        private final int lines;
+        private final int pieces;
+        private final long seed;
+        private final long timeMillis;
+
+        HighScore(long score, int lines, int pieces, long seed, long timeMillis) {
+            this.score = score;
+            this.lines = lines;
+            this.pieces = pieces;
+            this.seed = seed;
+            this.timeMillis = timeMillis;
+        }
+
+        public long getScore() {
+            return score;
+        }
+
+        public int getLines() {
+            return lines;
+        }
+
+        public int getPieces() {
+            return pieces;
+        }
+
+        // Plays the same blocks again
+        public long getSeed() {
+            return seed;
+        }
+
+        // When the game ended, as System.currentTimeMillis()
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+    }
+
+    /**
+     * What was played while the game thread ran, from the surface being created until it was
+     * destroyed.
+     */
+    public static class Session {
+        private final int id;
+        private int games;
+        private long lines;
+        private final long[] pieces = new long[Block.TYPE_COUNT];
+        // Count, p50, p99 and max for each FrameStats metric, across the whole app run
+        private final long[][] frames = new long[FrameStats.METRIC_COUNT][];
+
+        Session(int id) {
+            this.id = id;
+        }
+
+        Session(Session other) {
+            this(other.id);
+            games = other.games;
+            lines = other.lines;
+            System.arraycopy(other.pieces, 0, pieces, 0, Block.TYPE_COUNT);
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = other.frames[i] == null ? null : other.frames[i].clone();
+            }
+        }
+
+        // Numbered from 0 in the order sessions were played
+        public int getId() {
+            return id;
+        }
+
+        public int getGames() {
+            return games;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getPieces(int type) {
+            return pieces[type];
+        }
+
+        public long getPiecesPlaced() {
+            long total = 0;
+            for (long count : pieces) {
+                total += count;
+            }
+            return total;
+        }
+
+        public boolean hasFrames(int metric) {
+            return frames[metric] != null;
+        }
+
+        public long getFrameCount(int metric) {
+            return frames[metric][0];
+        }
+
+        public long getFrameP50(int metric) {
+            return frames[metric][1];
+        }
+
+        public long getFrameP99(int metric) {
+            return frames[metric][2];
+        }
+
+        public long getFrameMax(int metric) {
+            return frames[metric][3];
+        }
+
+        boolean isEmpty() {
+            return games == 0 && lines == 0 && getPiecesPlaced() == 0;
+        }
+    }
+
+    private final File file;
+    private final long minCompactBytes;
+    private final Writer writer;
+
+    // The ring, single producer and single consumer as in InputQueue
+    private final int mask;
+    private final long[] slots;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long dropped;
+
+    // Everything the log holds, guarded by itself. Only the writer thread changes it.
+    private final Object index = new Object();
+    private final List<HighScore> highScores = new ArrayList<>();
+    private final Map<Integer, Session> sessions = new LinkedHashMap<>();
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    // capacity is rounded up to a power of two
+    public StatsStore(File file, int capacity) {
+        this(file, capacity, MIN_COMPACT_BYTES);
+    }
+
+    StatsStore(File file, int capacity, long minCompactBytes) {
+        this.file = file;
+        this.minCompactBytes = minCompactBytes;
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        slots = new long[size * SLOT_LONGS];
+        writer = new Writer();
+    }
+
+    // Starts the writer thread, which loads the log first
+    public void start() {
+        writer.start();
+    }
+
+    // Asks the writer to write out whatever is queued and stop. Doesn't wait for it.
+    public void close() {
+        writer.running = false;
+        LockSupport.unpark(writer);
+    }
+
+    // Waits up to millis for the writer to stop after close(). Returns false if it hasn't.
+    public boolean awaitClosed(long millis) throws InterruptedException {
+        writer.join(millis);
+        return !writer.isAlive();
+    }
+
+    // Asks the writer to write out whatever is queued now instead of at its next flush. Only
+    // wakes it, so it is safe from the UI thread.
+    public void flush() {
+        LockSupport.unpark(writer);
+    }
+
+    // region Recording, from one thread at a time. None of these block or allocate.
+
+    // A block of type locked in place and cleared lines rows
+    public boolean recordPiece(int type, int lines) {
+        return offer(PIECE, type, lines, 0, 0, 0);
+    }
+
+    public boolean recordGame(long score, int lines, int pieces, long seed, long timeMillis) {
+        return offer(GAME, score, lines, pieces, seed, timeMillis);
+    }
+
+    // The frame times of one metric so far, sent before ending a session
+    public boolean recordFrames(int metric, long count, long p50, long p99, long max) {
+        return offer(FRAMES, metric, count, p50, p99, max);
+    }
+
+    // Closes the current session. Everything recorded after goes to a new one.
+    public boolean endSession() {
+        boolean offered = offer(SESSION_END, 0, 0, 0, 0, 0);
+        LockSupport.unpark(writer);
+        return offered;
+    }
+
+    // Events dropped because the ring was full
+    public long getDropped() {
+        return dropped;
+    }
+
+    private boolean offer(int kind, long a, long b, long c, long d, long e) {
+        long t = tail.get();
+        int size = mask + 1;
+        long queued = t - head.get();
+        if (queued == size) {
+            dropped++;
+            return false;
+        }
+
+        int slot = ((int) t & mask) * SLOT_LONGS;
+        slots[slot] = kind;
+        slots[slot + 1] = a;
+        slots[slot + 2] = b;
+        slots[slot + 3] = c;
+        slots[slot + 4] = d;
+        slots[slot + 5] = e;
+        tail.lazySet(t + 1);
+
+        // Don't wait for the timer once half the ring is taken
+        if (queued + 1 == size / 2) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    // endregion
+
+    // region Reading, from any thread. Waits for the log to be loaded.
+
+    // The best games, highest score first
+    public List<HighScore> getHighScores() throws InterruptedException {
+        loaded.await();
+        synchronized (index) {
+            return new ArrayList<>(highScores);
+        }
+    }
+
+    // Every session, oldest first. The one being played shows what has been written so far.
+    public List<Session> getSessions() throws InterruptedException {
+        loaded.await();
+        synchronized (index) {
+            List<Session> copies = new ArrayList<>(sessions.size());
+            for (Session session : sessions.values()) {
+                copies.add(new Session(session));
+            }
+            return copies;
+        }
+    }
+
+    // Pieces of each type placed in every session together
+    public long[] getPieceTotals() throws InterruptedException {
+        loaded.await();
+        long[] totals = new long[Block.TYPE_COUNT];
+        synchronized (index) {
+            for (Session session : sessions.values()) {
+                for (int type = 0; type < Block.TYPE_COUNT; type++) {
+                    totals[type] += session.pieces[type];
+                }
+            }
+        }
+        return totals;
+    }
+
+    public long getLogSize() {
+        return file.length();
+    }
+
+    // endregion
+
+    private class Writer extends Thread {
+        volatile boolean running = true;
+
+        private final Buffer batch = new Buffer();
+        private final Buffer payload = new Buffer();
+        private final CRC32 crc = new CRC32();
+        private RandomAccessFile log;
+        private long compactedSize;
+        // The session events are being recorded for
+        private int sessionId;
+        // What the current session has added since the last batch
+        private final Session added = new Session(0);
+
+        Writer() {
+            super("StatsStore");
+        }
+
+        @Override
+        public void run() {
+            try {
+                load();
+            } catch (IOException | RuntimeException e) {
+                // Nothing to keep from a log that can't be read, or that holds a record that
+                // checks out but makes no sense. Start again with a new log, since appending
+                // to this one would fail the same way next time.
+                e.printStackTrace();
+                clearIndex();
+                if (file.exists() && !file.delete()) {
+                    System.err.println("Couldn't delete " + file);
+                }
+            } finally {
+                loaded.countDown();
+            }
+
+            try {
+                openLog();
+                while (running) {
+                    LockSupport.parkNanos(this, FLUSH_NANOS);
+                    writeBatch();
+                }
+                writeBatch();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                closeLog();
+            }
+        }
+
+        // Reads the log into the index, cutting off anything after the last whole record
+        private void load() throws IOException {
+            int nextId = 0;
+            if (file.exists()) {
+                byte[] bytes = readFile();
+                Reader reader = new Reader(bytes);
+                long good = 0;
+                if (bytes.length >= 4 && reader.readInt() == MAGIC) {
+                    good = 4;
+                    while (reader.hasRecord(crc)) {
+                        nextId = Math.max(nextId, apply(reader) + 1);
+                        reader.position = reader.next;
+                        good = reader.next;
+                    }
+                }
+                if (good < bytes.length) {
+                    try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                        out.setLength(good);
+                    }
+                }
+                compactedSize = good;
+            }
+            sessionId = nextId;
+        }
+
+        private byte[] readFile() throws IOException {
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                byte[] bytes = new byte[(int) in.length()];
+                in.readFully(bytes);
+                return bytes;
+            }
+        }
+
+        // Adds one record from the log to the index. Returns the session it was about, or -1.
+        private int apply(Reader reader) {
+            int kind = reader.readByte();
+            synchronized (index) {
+                if (kind == GAME_RECORD) {
+                    addHighScore(new HighScore(reader.readVarLong(), (int) reader.readVarLong(),
+                            (int) reader.readVarLong(), reader.readVarLong(),
+                            reader.readVarLong()));
+                    return -1;
+                }
+
+                Session session = getSession((int) reader.readVarLong());
+                if (kind == SESSION_RECORD) {
+                    session.games += reader.readVarLong();
+                    session.lines += reader.readVarLong();
+                    for (int type = 0; type < Block.TYPE_COUNT; type++) {
+                        session.pieces[type] += reader.readVarLong();
+                    }
+                } else if (kind == FRAMES_RECORD) {
+                    int metric = (int) reader.readVarLong();
+                    long[] frames = new long[4];
+                    for (int i = 0; i < frames.length; i++) {
+                        frames[i] = reader.readVarLong();
+                    }
+                    // Metrics added after the log was written are skipped
+                    if (metric < FrameStats.METRIC_COUNT) {
+                        session.frames[metric] = frames;
+                    }
+                }
+                return session.id;
+            }
+        }
+
+        private void openLog() throws IOException {
+            log = new RandomAccessFile(file, "rw");
+            if (log.length() == 0) {
+                batch.clear();
+                batch.writeInt(MAGIC);
+                log.write(batch.bytes, 0, batch.length);
+                compactedSize = batch.length;
+            }
+            log.seek(log.length());
+        }
+
+        private void closeLog() {
+            if (log != null) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // Takes everything off the ring into the index and appends it to the log in one write
+        private void writeBatch() throws IOException {
+            batch.clear();
+            long h = head.get();
+            long t = tail.get();
+            for (long i = h; i < t; i++) {
+                int slot = ((int) i & mask) * SLOT_LONGS;
+                take(slots, slot);
+            }
+            head.lazySet(t);
+            writeAdded();
+            if (batch.length == 0) {
+                return;
+            }
+
+            log.write(batch.bytes, 0, batch.length);
+            if (log.length() >= Math.max(minCompactBytes, 2 * compactedSize)) {
+                compact();
+            }
+        }
+
+        private void take(long[] slots, int slot) {
+            int kind = (int) slots[slot];
+            if (kind == PIECE) {
+                int type = (int) slots[slot + 1];
+                int lines = (int) slots[slot + 2];
+                added.pieces[type]++;
+                added.lines += lines;
+                synchronized (index) {
+                    Session session = getSession(sessionId);
+                    session.pieces[type]++;
+                    session.lines += lines;
+                }
+            } else if (kind == GAME) {
+                HighScore game = new HighScore(slots[slot + 1], (int) slots[slot + 2],
+                        (int) slots[slot + 3], slots[slot + 4], slots[slot + 5]);
+                added.games++;
+                boolean kept;
+                synchronized (index) {
+                    getSession(sessionId).games++;
+                    kept = addHighScore(game);
+                }
+                // Games that aren't high scores are only counted
+                if (kept) {
+                    writeGame(game);
+                }
+            } else if (kind == FRAMES) {
+                int metric = (int) slots[slot + 1];
+                long[] frames = {slots[slot + 2], slots[slot + 3], slots[slot + 4],
+                        slots[slot + 5]};
+                synchronized (index) {
+                    getSession(sessionId).frames[metric] = frames;
+                }
+                writeFrames(sessionId, metric, frames);
+            } else if (kind == SESSION_END) {
+                writeAdded();
+                sessionId++;
+            }
+        }
+
+        // Rewrites the log from the index, through a temporary file so a crash part way
+        // through leaves the old log. If the new log can't be written or put in place the old
+        // one is kept and appended to, and isn't compacted again until it has doubled.
+        private void compact() throws IOException {
+            batch.clear();
+            batch.writeInt(MAGIC);
+            synchronized (index) {
+                for (HighScore game : highScores) {
+                    writeGame(game);
+                }
+                for (Session session : sessions.values()) {
+                    writeSession(session);
+                    for (int metric = 0; metric < FrameStats.METRIC_COUNT; metric++) {
+                        if (session.frames[metric] != null) {
+                            writeFrames(session.id, metric, session.frames[metric]);
+                        }
+                    }
+                }
+            }
+
+            File compacted = new File(file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(compacted)) {
+                out.write(batch.bytes, 0, batch.length);
+                out.getFD().sync();
+            } catch (IOException e) {
+                e.printStackTrace();
+                keepLog(compacted);
+                return;
+            }
+            log.close();
+            log = null;
+            if (!compacted.renameTo(file)) {
+                System.err.println("Couldn't replace " + file + " with " + compacted);
+                openLog();
+                keepLog(compacted);
+                return;
+            }
+            compactedSize = batch.length;
+            batch.clear();
+            openLog();
+        }
+
+        // Goes on with the log as it is after a failed compaction
+        private void keepLog(File compacted) throws IOException {
+            batch.clear();
+            compacted.delete();
+            compactedSize = log.length();
+        }
+
+        private void writeAdded() {
+            if (!added.isEmpty()) {
+                writeSession(added);
+                added.games = 0;
+                added.lines = 0;
+                Arrays.fill(added.pieces, 0);
+            }
+        }
+
+        private void writeGame(HighScore game) {
+            payload.clear();
+            payload.writeByte(GAME_RECORD);
+            payload.writeVarLong(game.score);
+            payload.writeVarLong(game.lines);
+            payload.writeVarLong(game.pieces);
+            payload.writeVarLong(game.seed);
+            payload.writeVarLong(game.timeMillis);
+            writeRecord();
+        }
+
+        // Writes counts to add to a session, under the current session's id unless it is one
+        // from the index
+        private void writeSession(Session session) {
+            payload.clear();
+            payload.writeByte(SESSION_RECORD);
+            payload.writeVarLong(session == added ? sessionId : session.id);
+            payload.writeVarLong(session.games);
+            payload.writeVarLong(session.lines);
+            for (long count : session.pieces) {
+                payload.writeVarLong(count);
+            }
+            writeRecord();
+        }
+
+        private void writeFrames(int id, int metric, long[] frames) {
+            payload.clear();
+            payload.writeByte(FRAMES_RECORD);
+            payload.writeVarLong(id);
+            payload.writeVarLong(metric);
+            for (long value : frames) {
+                payload.writeVarLong(value);
+            }
+            writeRecord();
+        }
+
+        private void writeRecord() {
+            crc.reset();
+            crc.update(payload.bytes, 0, payload.length);
+            batch.writeVarLong(payload.length);
+            batch.write(payload.bytes, payload.length);
+            batch.writeInt((int) crc.getValue());
+        }
+    }
+
+    // Call with the index lock held
+    private Session getSession(int id) {
+        Session session = sessions.get(id);
+        if (session == null) {
+            session = new Session(id);
+            sessions.put(id, session);
+        }
+        return session;
+    }
+
+    // Call with the index lock held. Returns false if the game didn't make the table.
+    private boolean addHighScore(HighScore game) {
+        int i = highScores.size();
+        while (i > 0 && highScores.get(i - 1).score < game.score) {
+            i--;
+        }
+        if (i >= HIGH_SCORE_COUNT) {
+            return false;
+        }
+        highScores.add(i, game);
+        if (highScores.size() > HIGH_SCORE_COUNT) {
+            highScores.remove(HIGH_SCORE_COUNT);
+        }
+        return true;
+    }
+
+    private void clearIndex() {
+        synchronized (index) {
+            highScores.clear();
+            sessions.clear();
+        }
+    }
+
+    // Grows as needed, only used by the writer thread
+    private static class Buffer {
+        byte[] bytes = new byte[4096];
+        int length;
+
+        void clear() {
+            length = 0;
+        }
+
+        void writeByte(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            writeByte(value >>> 24);
+            writeByte(value >>> 16);
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void write(byte[] source, int count) {
+            for (int i = 0; i < count; i++) {
+                writeByte(source[i]);
+            }
+        }
+    }
+
+    private static class Reader {
+        private final byte[] bytes;
+        int position;
+        // Where the payload of the record being read ends, and where the next record starts
+        private int end;
+        int next;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+            this.end = bytes.length;
+        }
+
+        // Checks the next record is whole and its CRC matches, and moves to its payload
+        boolean hasRecord(CRC32 crc) {
+            end = bytes.length;
+            int start = position;
+            try {
+                long length = readVarLong();
+                if (length < 1 || length > bytes.length - position - 4) {
+                    position = start;
+                    return false;
+                }
+                int payload = position;
+                position += (int) length;
+                int expected = readInt();
+                crc.reset();
+                crc.update(bytes, payload, (int) length);
+                if ((int) crc.getValue() != expected) {
+                    position = start;
+                    return false;
+                }
+                next = position;
+                position = payload;
+                end = payload + (int) length;
+                return true;
+            } catch (ArrayIndexOutOfBoundsException e) {
+                position = start;
+                return false;
+            }
+        }
+
+        int readByte() {
+            if (position >= end) {
+                throw new ArrayIndexOutOfBoundsException(position);
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        int readInt() {
+            return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
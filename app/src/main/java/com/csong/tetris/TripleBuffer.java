@@ -0,0 +1,62 @@
+package com.csong.tetris;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the latest of a stream of values from one thread to another without locks, waiting or
+ * allocation. There are three buffers: the producer fills the back one, the consumer reads the
+ * front one, and the third sits in the middle holding the newest value not yet taken. Both
+ * sides swap with the middle in one atomic step, so neither ever waits for the other, and a
+ * consumer that falls behind skips straight to the newest value.
+ *
+ * Exactly one thread may call getBack() and publish(), and exactly one other thread may call
+ * update() and getFront().
+ */
+
+public class TripleBuffer<T> {
+    // Set in the middle index while it holds a value the consumer hasn't taken
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    private final Object[] buffers;
+    private final AtomicInteger middle = new AtomicInteger(1);
+    // Only touched by the producer
+    private int back = 2;
+    // Only touched by the consumer
+    private int front = 0;
+
+    public TripleBuffer(T first, T second, T third) {
+        buffers = new Object[] {first, second, third};
+    }
+
+    // Producer only. The buffer to fill, which nothing else touches until it is published.
+    @SuppressWarnings("unchecked")
+    public T getBack() {
+        return (T) buffers[back];
+    }
+
+    // Producer only. Makes the back buffer the newest value and takes a new back buffer.
+    // Returns true if that replaced a value the consumer never took. The new back buffer holds
+    // an older value, so it has to be filled again completely.
+    public boolean publish() {
+        int previous = middle.getAndSet(back | FRESH);
+        back = previous & INDEX;
+        return (previous & FRESH) != 0;
+    }
+
+    // Consumer only. Moves to the newest published value, if there is one since the last
+    // update. Returns false and keeps the current front buffer otherwise.
+    public boolean update() {
+        if ((middle.get() & FRESH) == 0) {
+            return false;
+        }
+        front = middle.getAndSet(front) & INDEX;
+        return true;
+    }
+
+    // Consumer only. The value taken by the last successful update().
+    @SuppressWarnings("unchecked")
+    public T getFront() {
+        return (T) buffers[front];
+    }
+}
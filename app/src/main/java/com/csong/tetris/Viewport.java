@@ -0,0 +1,60 @@
+package com.csong.tetris;
+
+/**
+ * Which rows of a board are on screen when it has more than fit. The view follows the falling
+ * block a page at a time instead of a row at a time: once the block gets near the bottom of
+ * the view it jumps down to put the block near the top, so the whole screen only has to be
+ * redrawn every few rows the block falls rather than on every one. Where the block will land
+ * is kept in view too whenever it is close enough.
+ *
+ * A board that fits on screen has a view of every row that never moves.
+ */
+
+public class Viewport {
+    // Rows kept between the block and the edges of the view, where there are that many
+    private static final int MARGIN = 2;
+
+    private final int gridHeight;
+    private final int rows;
+    private final int margin;
+    private int top;
+
+    // A view of up to maxRows rows of a board gridHeight rows tall, starting at the top
+    public Viewport(int gridHeight, int maxRows) {
+        this.gridHeight = gridHeight;
+        this.rows = Math.max(1, Math.min(gridHeight, maxRows));
+        // A block and a row either side of it always fit
+        this.margin = Math.max(0, Math.min(MARGIN, (rows - 4) / 2));
+    }
+
+    // Moves the view, if it has to, so the block in rows blockTop to blockBottom is in it, and
+    // the ghost piece down to ghostBottom as well if both fit. Returns the top row of the view.
+    public int follow(int blockTop, int blockBottom, int ghostBottom) {
+        if (rows == gridHeight) {
+            return top;
+        }
+
+        int bottom = ghostBottom - blockTop < rows - 2 * margin ? ghostBottom : blockBottom;
+        if (blockTop < top + margin) {
+            // Above the view, e.g. a new block, so put the block near the bottom
+            top = bottom + margin + 1 - rows;
+        } else if (bottom > top + rows - 1 - margin) {
+            // Below the view, so put the block near the top and let it fall through
+            top = blockTop - margin;
+        }
+        top = Math.max(0, Math.min(gridHeight - rows, top));
+        return top;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getGridHeight() {
+        return gridHeight;
+    }
+}
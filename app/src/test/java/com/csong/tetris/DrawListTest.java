@@ -0,0 +1,118 @@
+package com.csong.tetris;
+
+import com.csong.tetris.engine.Block;
+import com.csong.tetris.engine.Board;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DrawListTest {
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 20;
+    private static final int TILE_SIZE = 10;
+    private static final int[] COLORS = {0, 1, 2, 3, 4, 5, 6};
+
+    @Test
+    public void tiles_areBatchedByType() throws Exception {
+        Board board = new Board(WIDTH, HEIGHT);
+        for (int x = 0; x < 4; x++) {
+            board.fill(x, HEIGHT - 1, Block.L);
+        }
+        board.fill(5, HEIGHT - 1, Block.S);
+        Block block = new Block(Block.T, 3, 0);
+
+        HeadlessBackend backend = drawFrame(board, block, 0, WIDTH * TILE_SIZE,
+                HEIGHT * TILE_SIZE);
+        DrawList frame = backend.getLastFrame();
+
+        assertEquals(1, backend.getFrameCount());
+        assertEquals(4, frame.getQuadCount(Block.L));
+        assertEquals(1, frame.getQuadCount(Block.S));
+        assertEquals(4, frame.getQuadCount(Block.T));
+        assertEquals(0, frame.getQuadCount(Block.LINE));
+        assertEquals(Block.T, frame.getBatchColor(Block.T));
+
+        // The lone S tile, at the bottom of column 5
+        float[] quads = frame.getQuads(Block.S);
+        assertEquals(5 * TILE_SIZE, quads[0], 0);
+        assertEquals((HEIGHT - 1) * TILE_SIZE, quads[1], 0);
+        assertEquals(6 * TILE_SIZE, quads[2], 0);
+        assertEquals(HEIGHT * TILE_SIZE, quads[3], 0);
+        assertTrue(frame.hasGrid());
+        assertFalse(frame.hasOverlay());
+    }
+
+    @Test
+    public void clip_limitsTheRowsDrawn() throws Exception {
+        Board board = new Board(WIDTH, HEIGHT);
+        board.fill(0, HEIGHT - 1, Block.L);
+        board.fill(0, 5, Block.L);
+
+        DrawList frame = drawFrame(board, null, 0, WIDTH * TILE_SIZE, 8 * TILE_SIZE)
+                .getLastFrame();
+
+        assertEquals(1, frame.getQuadCount(Block.L));
+        assertEquals(5 * TILE_SIZE, frame.getQuads(Block.L)[1], 0);
+    }
+
+    @Test
+    public void activeBlock_isDrawnAtItsFallOffset() throws Exception {
+        Board board = new Board(WIDTH, HEIGHT);
+        Block block = new Block(Block.SQUARE, 0, 2);
+
+        DrawList frame = drawFrame(board, block, 3, WIDTH * TILE_SIZE, HEIGHT * TILE_SIZE)
+                .getLastFrame();
+
+        assertEquals(4, frame.getQuadCount(Block.SQUARE));
+        assertEquals(2 * TILE_SIZE + 3, frame.getQuads(Block.SQUARE)[1], 0);
+    }
+
+    @Test
+    public void ghost_isDrawnWhereTheBlockWouldLand() throws Exception {
+        Board board = new Board(WIDTH, HEIGHT);
+        board.fill(0, HEIGHT - 1, Block.L);
+        Block block = new Block(Block.SQUARE, 0, 2);
+        int ghostBatch = COLORS.length;
+        DrawList frame = new DrawList(new int[]{0, 1, 2, 3, 4, 5, 6, 7}, WIDTH * HEIGHT);
+        frame.begin(0, 0, WIDTH * TILE_SIZE, HEIGHT * TILE_SIZE);
+
+        frame.addGhost(board, block, ghostBatch, TILE_SIZE);
+        assertEquals(4, frame.getQuadCount(ghostBatch));
+        assertEquals((HEIGHT - 3) * TILE_SIZE, frame.getQuads(ghostBatch)[1], 0);
+
+        // One row above the ghost, the block covers half of it
+        block.set(Block.SQUARE, Block.ZERO, 0, HEIGHT - 4);
+        frame.begin(0, 0, WIDTH * TILE_SIZE, HEIGHT * TILE_SIZE);
+        frame.addGhost(board, block, ghostBatch, TILE_SIZE);
+        assertEquals(2, frame.getQuadCount(ghostBatch));
+
+        // Landed blocks have no ghost
+        block.set(Block.SQUARE, Block.ZERO, 0, HEIGHT - 3);
+        frame.begin(0, 0, WIDTH * TILE_SIZE, HEIGHT * TILE_SIZE);
+        frame.addGhost(board, block, ghostBatch, TILE_SIZE);
+        assertEquals(0, frame.getQuadCount(ghostBatch));
+    }
+
+    @Test
+    public void emptyClip_drawsNothing() throws Exception {
+        DrawList frame = new DrawList(COLORS, WIDTH * HEIGHT);
+        frame.begin(0, 0, 0, 0);
+
+        assertTrue(frame.isEmpty());
+    }
+
+    // Builds a frame clipped to the top left width by height pixels and draws it headless
+    private static HeadlessBackend drawFrame(Board board, Block block, int fallOffset, int width,
+                                             int height) {
+        DrawList frame = new DrawList(COLORS, WIDTH * HEIGHT);
+        HeadlessBackend backend = new HeadlessBackend(frame, true);
+        frame.begin(0, 0, width, height);
+        assertTrue(backend.begin(frame));
+        frame.addTiles(board, block, fallOffset, TILE_SIZE);
+        frame.addGrid(WIDTH, HEIGHT, TILE_SIZE);
+        backend.draw(frame);
+        backend.end();
+        return backend;
+    }
+}
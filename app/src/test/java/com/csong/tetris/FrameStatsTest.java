@@ -0,0 +1,39 @@
+package com.csong.tetris;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class FrameStatsTest {
+    @Test
+    public void recordRender_fillsTheRenderThreadsMetrics() throws Exception {
+        FrameStats stats = new FrameStats();
+        stats.recordRender(16000000, 1000000, 3000000, 400000);
+
+        assertEquals(1, stats.getCount(FrameStats.FRAME));
+        assertEquals(1, stats.getCount(FrameStats.LOCK_CANVAS));
+        assertEquals(1, stats.getCount(FrameStats.POST));
+        // Ticks are timed on the game thread
+        assertEquals(0, stats.getCount(FrameStats.UPDATE));
+        assertEquals(0, stats.getCount(FrameStats.SLEEP_OVERSHOOT));
+        assertEquals(3000000, stats.getMax(FrameStats.DRAW));
+    }
+
+    @Test
+    public void writeCsv_hasSummaryAndBuckets() throws Exception {
+        FrameStats stats = new FrameStats();
+        stats.recordRender(16000000, 1000000, 3000000, 400000);
+        stats.record(FrameStats.UPDATE, 200000);
+        stats.record(FrameStats.SLEEP_OVERSHOOT, 50000);
+        StringWriter writer = new StringWriter();
+        stats.writeCsv(writer);
+
+        String csv = writer.toString();
+        assertTrue(csv.startsWith("metric,count,mean_ns,p50_ns,p90_ns,p99_ns,max_ns\n"));
+        assertTrue(csv.contains("\ndraw,1,3000000,3000000,3000000,3000000,3000000\n"));
+        assertTrue(csv.contains("\nmetric,bucket_start_ns,count\n"));
+        assertTrue(csv.contains("\nsleepOvershoot,49152,1\n"));
+    }
+}
@@ -0,0 +1,86 @@
+package com.csong.tetris;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InputQueueTest {
+    @Test
+    public void capacity_isRoundedUpToAPowerOfTwo() throws Exception {
+        assertEquals(1, new InputQueue(1).getCapacity());
+        assertEquals(64, new InputQueue(64).getCapacity());
+        assertEquals(128, new InputQueue(65).getCapacity());
+    }
+
+    @Test
+    public void drain_returnsInputsInOrderWithTimestamps() throws Exception {
+        InputQueue queue = new InputQueue(4);
+        queue.offer(2, 100);
+        queue.offer(0, 200);
+        Recorder recorder = new Recorder();
+
+        assertEquals(2, queue.drain(recorder));
+        assertEquals(2, (int) recorder.inputs.get(0));
+        assertEquals(200, (long) recorder.timestamps.get(1));
+        assertEquals(0, queue.drain(recorder));
+    }
+
+    @Test
+    public void offer_failsWhenFullAndRecoversAfterDrain() throws Exception {
+        InputQueue queue = new InputQueue(2);
+        assertTrue(queue.offer(1, 0));
+        assertTrue(queue.offer(2, 0));
+        assertFalse(queue.offer(3, 0));
+
+        queue.drain(new Recorder());
+        assertTrue(queue.offer(4, 0));
+    }
+
+    @Test
+    public void concurrentProducer_deliversEveryInputInOrder() throws Exception {
+        final InputQueue queue = new InputQueue(16);
+        final int count = 100000;
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    while (!queue.offer(i, i)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        final int[] expected = {0};
+        InputQueue.Handler checker = new InputQueue.Handler() {
+            @Override
+            public void onInput(int input, long queuedNanos) {
+                assertEquals(expected[0], input);
+                assertEquals(expected[0], queuedNanos);
+                expected[0]++;
+            }
+        };
+        while (expected[0] < count) {
+            if (queue.drain(checker) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+    }
+
+    private static class Recorder implements InputQueue.Handler {
+        final List<Integer> inputs = new ArrayList<>();
+        final List<Long> timestamps = new ArrayList<>();
+
+        @Override
+        public void onInput(int input, long queuedNanos) {
+            inputs.add(input);
+            timestamps.add(queuedNanos);
+        }
+    }
+}
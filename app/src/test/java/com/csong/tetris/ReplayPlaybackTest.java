@@ -0,0 +1,96 @@
+package com.csong.tetris;
+
+import com.csong.tetris.engine.GameEngine;
+import com.csong.tetris.engine.Input;
+import com.csong.tetris.engine.ReplayReader;
+import com.csong.tetris.engine.ReplayRecorder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ReplayPlaybackTest {
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 20;
+
+    @Test
+    public void archive_isPlayedToTheEnd() throws Exception {
+        byte[] replay = record(WIDTH, HEIGHT);
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 0);
+        ReplayPlayback playback = new ReplayPlayback(archive(replay, replay));
+
+        int steps = play(playback, engine);
+        assertNull(playback.getError());
+        assertTrue(engine.isGameOver());
+        // Every tick of both games, plus the step that moved on to the second
+        assertEquals(2 * engine.getTicks() + 1, steps);
+    }
+
+    @Test
+    public void corruptArchive_stopsWithTheError() throws Exception {
+        byte[] garbage = new byte[64];
+        Arrays.fill(garbage, (byte) 0x5A);
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 0);
+        ReplayPlayback playback = new ReplayPlayback(archive(garbage));
+
+        assertFalse(playback.step(engine));
+        assertNotNull(playback.getError());
+    }
+
+    @Test
+    public void badReplayAfterAGoodOne_stopsPlayback() throws Exception {
+        byte[] replay = record(WIDTH, HEIGHT);
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 0);
+
+        // Cut short part way through its inputs
+        ReplayPlayback truncated = new ReplayPlayback(archive(replay,
+                Arrays.copyOf(replay, replay.length / 2)));
+        assertTrue(play(truncated, engine) > 0);
+        assertNotNull(truncated.getError());
+
+        // Recorded on a board of another size
+        ReplayPlayback otherSize = new ReplayPlayback(archive(replay, record(WIDTH + 2, HEIGHT)));
+        assertTrue(play(otherSize, engine) > 0);
+        assertNotNull(otherSize.getError());
+    }
+
+    // Steps until playback stops and returns how many steps carried on
+    private static int play(ReplayPlayback playback, GameEngine engine) {
+        int steps = 0;
+        while (playback.step(engine)) {
+            steps++;
+        }
+        return steps;
+    }
+
+    // A game of dropping every block as soon as it spawns, until the stack reaches the top
+    private static byte[] record(int width, int height) {
+        GameEngine engine = new GameEngine(width, height, 0);
+        ReplayRecorder recorder = new ReplayRecorder();
+        recorder.start(width, height, 42);
+        engine.reset(42);
+        while (!engine.isGameOver()) {
+            recorder.record(engine.getTicks(), Input.DROP);
+            engine.handleInput(Input.DROP);
+            engine.tick();
+        }
+        recorder.finish(engine);
+        return recorder.toByteArray();
+    }
+
+    private static ReplayReader archive(byte[]... replays) {
+        int length = 0;
+        for (byte[] replay : replays) {
+            length += replay.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] replay : replays) {
+            buffer.put(replay);
+        }
+        buffer.flip();
+        return new ReplayReader(buffer);
+    }
+}
@@ -0,0 +1,230 @@
+package com.csong.tetris;
+
+import com.csong.tetris.engine.Block;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class StatsStoreTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("stats", ".log");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void recordedStats_areReadBackAfterReopening() throws Exception {
+        StatsStore store = open(1000);
+        store.recordPiece(4, 0);
+        store.recordPiece(4, 4);
+        store.recordPiece(0, 1);
+        store.recordGame(300, 5, 3, 42, 1000);
+        store.recordGame(900, 20, 60, 43, 2000);
+        store.recordFrames(FrameStats.FRAME, 100, 16000000, 17000000, 40000000);
+        store.endSession();
+        store.recordPiece(3, 0);
+        close(store);
+
+        store = open(1000);
+        List<StatsStore.HighScore> scores = store.getHighScores();
+        assertEquals(2, scores.size());
+        assertEquals(900, scores.get(0).getScore());
+        assertEquals(43, scores.get(0).getSeed());
+        assertEquals(300, scores.get(1).getScore());
+
+        List<StatsStore.Session> sessions = store.getSessions();
+        assertEquals(2, sessions.size());
+        StatsStore.Session first = sessions.get(0);
+        assertEquals(2, first.getGames());
+        assertEquals(5, first.getLines());
+        assertEquals(2, first.getPieces(4));
+        assertEquals(3, first.getPiecesPlaced());
+        assertTrue(first.hasFrames(FrameStats.FRAME));
+        assertEquals(17000000, first.getFrameP99(FrameStats.FRAME));
+        assertFalse(first.hasFrames(FrameStats.DRAW));
+        assertEquals(1, sessions.get(1).getPieces(3));
+        assertEquals(1, store.getPieceTotals()[3]);
+
+        // Sessions after a reopen carry on from the last one
+        store.recordPiece(5, 0);
+        store.endSession();
+        close(store);
+        store = open(1000);
+        assertEquals(3, store.getSessions().size());
+        close(store);
+    }
+
+    @Test
+    public void highScores_keepOnlyTheBest() throws Exception {
+        StatsStore store = open(1000);
+        for (int i = 0; i < StatsStore.HIGH_SCORE_COUNT + 5; i++) {
+            store.recordGame(i * 10, 0, 0, i, 0);
+        }
+        close(store);
+
+        store = open(1000);
+        List<StatsStore.HighScore> scores = store.getHighScores();
+        assertEquals(StatsStore.HIGH_SCORE_COUNT, scores.size());
+        assertEquals((StatsStore.HIGH_SCORE_COUNT + 4) * 10, scores.get(0).getScore());
+        assertEquals(50, scores.get(StatsStore.HIGH_SCORE_COUNT - 1).getScore());
+        assertEquals(StatsStore.HIGH_SCORE_COUNT + 5, store.getSessions().get(0).getGames());
+        close(store);
+    }
+
+    @Test
+    public void compaction_shrinksTheLogAndKeepsTheIndex() throws Exception {
+        // Compacts once the log passes 256 bytes
+        StatsStore store = new StatsStore(file, 64, 256);
+        store.start();
+        for (int batch = 0; batch < 50; batch++) {
+            for (int i = 0; i < 20; i++) {
+                store.recordPiece(i % Block.TYPE_COUNT, 1);
+            }
+            // Every game beats the last, so every one is written
+            for (int i = 0; i < 10; i++) {
+                store.recordGame(batch * 10 + i, 0, 20, batch, 0);
+            }
+            store.endSession();
+            // endSession() wakes the writer, let it take each batch on its own
+            while (store.getSessions().size() <= batch) {
+                Thread.sleep(1);
+            }
+        }
+        close(store);
+
+        // 500 game records alone would take over 5000 bytes
+        assertTrue(file.length() < 3000);
+        store = open(64);
+        List<StatsStore.Session> sessions = store.getSessions();
+        assertEquals(50, sessions.size());
+        for (StatsStore.Session session : sessions) {
+            assertEquals(20, session.getPiecesPlaced());
+            assertEquals(20, session.getLines());
+            assertEquals(10, session.getGames());
+        }
+        assertEquals(499, store.getHighScores().get(0).getScore());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        close(store);
+    }
+
+    @Test
+    public void tornRecord_isCutOff() throws Exception {
+        StatsStore store = open(1000);
+        store.recordGame(500, 1, 2, 3, 4);
+        close(store);
+        long good = file.length();
+
+        // Half a record, as if the app was killed part way through a write
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] {20, 1, 2, 3});
+        }
+
+        store = open(1000);
+        assertEquals(500, store.getHighScores().get(0).getScore());
+        store.recordGame(700, 1, 2, 3, 4);
+        close(store);
+        assertTrue(file.length() > good);
+        store = open(1000);
+        assertEquals(2, store.getHighScores().size());
+        close(store);
+    }
+
+    @Test
+    public void recordThatMakesNoSense_startsANewLog() throws Exception {
+        StatsStore store = open(1000);
+        store.recordGame(500, 1, 2, 3, 4);
+        close(store);
+
+        // Frame times for metric -1, whole and with a good CRC
+        byte[] payload = {3, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F,
+                0, 0, 0, 0};
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            out.write(payload.length);
+            out.write(payload);
+            out.writeInt((int) crc.getValue());
+        }
+
+        store = open(1000);
+        assertTrue(store.getHighScores().isEmpty());
+        // The writer carries on, into a log that can be read back
+        store.recordGame(700, 1, 2, 3, 4);
+        close(store);
+        store = open(1000);
+        assertEquals(1, store.getHighScores().size());
+        assertEquals(700, store.getHighScores().get(0).getScore());
+        close(store);
+    }
+
+    @Test
+    public void failedCompaction_keepsAppendingToTheLog() throws Exception {
+        // Nothing can be written where the compacted log would go, or cleared from there
+        File compacted = new File(file.getPath() + ".tmp");
+        File blocker = new File(compacted, "blocker");
+        assertTrue(compacted.mkdir());
+        assertTrue(blocker.createNewFile());
+        try {
+            StatsStore store = new StatsStore(file, 64, 256);
+            store.start();
+            for (int i = 0; i < 100; i++) {
+                assertTrue(store.recordGame(i, 0, 20, i, 0));
+                store.flush();
+                // Each game is the best so far once the writer has taken it
+                List<StatsStore.HighScore> best;
+                while ((best = store.getHighScores()).isEmpty()
+                        || best.get(0).getScore() != i) {
+                    Thread.sleep(1);
+                }
+            }
+            close(store);
+
+            store = open(64);
+            assertEquals(StatsStore.HIGH_SCORE_COUNT, store.getHighScores().size());
+            assertEquals(99, store.getHighScores().get(0).getScore());
+            close(store);
+        } finally {
+            assertTrue(blocker.delete());
+            assertTrue(compacted.delete());
+        }
+    }
+
+    @Test
+    public void fullQueue_dropsInsteadOfBlocking() throws Exception {
+        // Never started, so nothing takes from the queue
+        StatsStore store = new StatsStore(file, 4);
+        for (int i = 0; i < 6; i++) {
+            store.recordPiece(0, 0);
+        }
+
+        assertFalse(store.recordPiece(0, 0));
+        assertEquals(3, store.getDropped());
+    }
+
+    private StatsStore open(int capacity) {
+        StatsStore store = new StatsStore(file, capacity);
+        store.start();
+        return store;
+    }
+
+    private static void close(StatsStore store) throws InterruptedException {
+        store.close();
+        assertTrue(store.awaitClosed(5000));
+    }
+}
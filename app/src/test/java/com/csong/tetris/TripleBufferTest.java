@@ -0,0 +1,80 @@
+package com.csong.tetris;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TripleBufferTest {
+    @Test
+    public void update_takesTheNewestPublished() throws Exception {
+        TripleBuffer<int[]> buffer = new TripleBuffer<>(new int[1], new int[1], new int[1]);
+        buffer.getBack()[0] = 1;
+        assertFalse(buffer.publish());
+        buffer.getBack()[0] = 2;
+        // The first value was never taken
+        assertTrue(buffer.publish());
+
+        assertTrue(buffer.update());
+        assertEquals(2, buffer.getFront()[0]);
+        // Nothing new, so the front stays where it is
+        assertFalse(buffer.update());
+        assertEquals(2, buffer.getFront()[0]);
+    }
+
+    @Test
+    public void buffers_areNeverShared() throws Exception {
+        TripleBuffer<int[]> buffer = new TripleBuffer<>(new int[1], new int[1], new int[1]);
+        for (int i = 0; i < 10; i++) {
+            buffer.getBack()[0] = i;
+            buffer.publish();
+            assertNotSame(buffer.getBack(), buffer.getFront());
+            if (i % 3 == 0) {
+                assertTrue(buffer.update());
+                assertEquals(i, buffer.getFront()[0]);
+                assertNotSame(buffer.getBack(), buffer.getFront());
+            }
+        }
+    }
+
+    @Test
+    public void consumer_onlySeesWholeValuesInOrder() throws Exception {
+        // Each value is written twice, a torn read would see the halves differ
+        final TripleBuffer<long[]> buffer = new TripleBuffer<>(new long[2], new long[2],
+                new long[2]);
+        final int count = 200000;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long last = 0;
+                    while (last < count) {
+                        if (buffer.update()) {
+                            long[] value = buffer.getFront();
+                            assertEquals(value[0], value[1]);
+                            assertTrue(value[0] > last);
+                            last = value[0];
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        consumer.start();
+
+        for (long i = 1; i <= count; i++) {
+            long[] value = buffer.getBack();
+            value[0] = i;
+            value[1] = i;
+            buffer.publish();
+        }
+        consumer.join(10000);
+
+        assertFalse(consumer.isAlive());
+        assertNull(failure.get());
+    }
+}
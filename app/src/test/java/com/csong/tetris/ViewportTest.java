@@ -0,0 +1,40 @@
+package com.csong.tetris;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ViewportTest {
+    @Test
+    public void boardThatFits_neverMoves() throws Exception {
+        Viewport viewport = new Viewport(20, 20);
+
+        assertEquals(20, viewport.getRows());
+        assertEquals(0, viewport.follow(15, 18, 19));
+    }
+
+    @Test
+    public void fallingBlock_isFollowedAPageAtATime() throws Exception {
+        Viewport viewport = new Viewport(1000, 20);
+        assertEquals(0, viewport.follow(0, 1, 998));
+
+        // Still in view, so nothing moves and nothing has to be redrawn
+        assertEquals(0, viewport.follow(10, 11, 998));
+        // Near the bottom, so the block goes near the top with room to fall
+        assertEquals(15, viewport.follow(17, 18, 998));
+        assertEquals(15, viewport.follow(25, 26, 998));
+    }
+
+    @Test
+    public void landingRow_isShownWhenItFits() throws Exception {
+        Viewport viewport = new Viewport(2000, 20);
+        viewport.follow(500, 501, 998);
+
+        // Block and ghost fit together, so both come into view
+        assertEquals(983, viewport.follow(985, 986, 998));
+        // and it stays put while the block falls to the landing row
+        assertEquals(983, viewport.follow(995, 996, 998));
+        // A new block at the top takes the view back up
+        assertEquals(0, viewport.follow(0, 1, 998));
+    }
+}
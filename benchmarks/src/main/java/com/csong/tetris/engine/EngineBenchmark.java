@@ -0,0 +1,137 @@
+package com.csong.tetris.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-tick operations of the engine: a gravity step, shape lookup, collision checks and
+ * spawning a block. Run with the GC profiler (see the jmh task) to get allocations per op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EngineBenchmark {
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 20;
+
+    // Tall enough that the falling block only needs replacing every few thousand steps, so
+    // the allocation doesn't show up in the gravity step's numbers
+    private static final int TALL_HEIGHT = 4096;
+
+    private Board stackedBoard;
+    private Board tallBoard;
+    private Block fallingBlock;
+    private Block stackedBlock;
+    private Block rotatingBlock;
+    private Board emptyBoard;
+    private GameEngine engine;
+    private GameEngine snapshotEngine;
+    private ByteBuffer snapshot;
+
+    @Setup
+    public void setUp() {
+        // A typical mid-game board: the bottom half filled apart from one column
+        stackedBoard = new Board(WIDTH, HEIGHT);
+        for (int y = HEIGHT / 2; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (x != y % WIDTH) {
+                    stackedBoard.fill(x, y, Block.L);
+                }
+            }
+        }
+        stackedBlock = new Block(Block.T, 4, HEIGHT / 2 - 2);
+
+        tallBoard = new Board(WIDTH, TALL_HEIGHT);
+        fallingBlock = new Block(Block.T, 4, 0);
+
+        emptyBoard = new Board(WIDTH, HEIGHT);
+        rotatingBlock = new Block(Block.L, 4, 4);
+
+        engine = new GameEngine(WIDTH, HEIGHT, 1);
+
+        // A game part way through, so the snapshot has a stack to write
+        snapshotEngine = new GameEngine(WIDTH, HEIGHT, 2);
+        while (snapshotEngine.getPiecesPlaced() < 20 && !snapshotEngine.isGameOver()) {
+            snapshotEngine.moveLeft();
+            snapshotEngine.hardDrop();
+        }
+        snapshot = ByteBuffer.allocate(snapshotEngine.getMaxSnapshotSize());
+    }
+
+    // Block.update: one row of gravity, including the landing check
+    @Benchmark
+    public boolean gravityStep() {
+        if (fallingBlock.update(tallBoard)) {
+            fallingBlock = new Block(Block.T, 4, 0);
+            return true;
+        }
+        return false;
+    }
+
+    // Finding the landing row from the top of the tall board in one probe, the work a tick
+    // does at 20G
+    @Benchmark
+    public int dropDistance() {
+        return fallingBlock.getDropDistance(tallBoard);
+    }
+
+    // Rotating a block and reading back the shape it now fills
+    @Benchmark
+    public long shape() {
+        rotatingBlock.rotate(emptyBoard);
+        int y = rotatingBlock.getY();
+        return rotatingBlock.getRowMask(y) ^ rotatingBlock.getRowMask(y + 1)
+                ^ rotatingBlock.getRowMask(y + 2) ^ rotatingBlock.getRowMask(y + 3);
+    }
+
+    // The block against landed cells and walls
+    @Benchmark
+    public boolean collision() {
+        return stackedBlock.collidesWith(stackedBoard);
+    }
+
+    // Whether the block is resting on the stack or the floor
+    @Benchmark
+    public boolean onGround() {
+        return !stackedBlock.canMove(stackedBoard, 0, 1);
+    }
+
+    // Picking and placing a new block, including the top-out check
+    @Benchmark
+    public Block spawn() {
+        engine.spawn();
+        return engine.getActiveBlock();
+    }
+
+    // Writing the whole game state into a reused buffer
+    @Benchmark
+    public int snapshotWrite() {
+        snapshot.clear();
+        snapshotEngine.writeSnapshot(snapshot);
+        return snapshot.position();
+    }
+
+    // Writing and then restoring it
+    @Benchmark
+    public long snapshotRestore() {
+        snapshot.clear();
+        snapshotEngine.writeSnapshot(snapshot);
+        snapshot.flip();
+        snapshotEngine.readSnapshot(snapshot);
+        return snapshotEngine.getTicks();
+    }
+}
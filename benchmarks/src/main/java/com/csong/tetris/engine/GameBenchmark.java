@@ -0,0 +1,74 @@
+package com.csong.tetris.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole games from the first spawn to top-out with random moves, at one row per tick and at
+ * 20G.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameBenchmark {
+    private GameEngine engine;
+    private long seed;
+    private int inputs;
+
+    @Setup
+    public void setUp() {
+        engine = new GameEngine(10, 20, 0);
+        inputs = 1;
+    }
+
+    @Benchmark
+    public int fullGame() {
+        engine.reset(seed++);
+        engine.setFallSpeed(GameEngine.TICKS_PER_SECOND);
+        return play();
+    }
+
+    @Benchmark
+    public int fullGameTwentyG() {
+        engine.reset(seed++);
+        engine.setGravity(GravityCurve.MAX_GRAVITY);
+        return play();
+    }
+
+    private int play() {
+        while (!engine.isGameOver()) {
+            // xorshift, so picking moves doesn't allocate
+            inputs ^= inputs << 13;
+            inputs ^= inputs >>> 17;
+            inputs ^= inputs << 5;
+            switch (inputs & 7) {
+                case 0:
+                    engine.moveLeft();
+                    break;
+                case 1:
+                    engine.moveRight();
+                    break;
+                case 2:
+                    engine.rotate();
+                    break;
+                default:
+                    break;
+            }
+            engine.tick();
+        }
+        return engine.getPiecesPlaced();
+    }
+}
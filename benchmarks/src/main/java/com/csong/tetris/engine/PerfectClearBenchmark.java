@@ -0,0 +1,66 @@
+package com.csong.tetris.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to find a 4-line perfect clear on an empty board for the first ten blocks of a bag
+ * game, on the calling thread and across a ForkJoinPool. Seed 9 is found almost straight
+ * away, seed 17 only after most of the search.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PerfectClearBenchmark {
+    @Param({"9", "17"})
+    public long seed;
+
+    private PerfectClearSolver solver;
+    private ForkJoinPool pool;
+    private Board board;
+    private final int[] pieces = new int[10];
+
+    @Setup
+    public void setUp() {
+        solver = new PerfectClearSolver(10, 20, 20);
+        pool = new ForkJoinPool();
+
+        GameEngine engine = new GameEngine(10, 20, seed, new BagRandomizer(), pieces.length - 1);
+        board = engine.getBoard();
+        pieces[0] = engine.getActiveBlock().getType();
+        for (int i = 1; i < pieces.length; i++) {
+            pieces[i] = engine.getPreview(i - 1);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public PerfectClearSolver.Solution sequential() {
+        return solver.solve(board, pieces, 4);
+    }
+
+    @Benchmark
+    public PerfectClearSolver.Solution parallel() {
+        return solver.solve(board, pieces, 4, pool);
+    }
+}
@@ -0,0 +1,66 @@
+package com.csong.tetris.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One placement search with a single preview, on a mid-game board, searched on the calling
+ * thread and across a ForkJoinPool. Each search scores roughly a thousand finished boards.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchBenchmark {
+    private PlacementSearch search;
+    private ForkJoinPool pool;
+    private GameEngine engine;
+    private final int[] previews = new int[1];
+
+    @Setup
+    public void setUp() {
+        search = new PlacementSearch(new BoardEvaluator());
+        pool = new ForkJoinPool();
+
+        // Let the bot build up a stack to search over
+        engine = new GameEngine(10, 20, 0);
+        AutoPlayer player = new AutoPlayer(search, null);
+        while (engine.getPiecesPlaced() < 30) {
+            int input = player.nextInput(engine);
+            if (input != AutoPlayer.NONE) {
+                engine.handleInput(input);
+            }
+            engine.tick();
+        }
+        previews[0] = engine.getNextType();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Placement sequential() {
+        return search.findBest(engine.getBoard(), engine.getActiveBlock(), previews);
+    }
+
+    @Benchmark
+    public Placement parallel() {
+        return search.findBest(engine.getBoard(), engine.getActiveBlock(), previews, pool);
+    }
+}
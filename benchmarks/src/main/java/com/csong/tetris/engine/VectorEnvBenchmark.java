@@ -0,0 +1,99 @@
+package com.csong.tetris.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Game steps per second through VectorEnv, on the calling thread and split over a pool with
+ * a worker per core, next to the same steps through one GameEngine per game. Each operation is
+ * one step of one game.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VectorEnvBenchmark {
+    private static final int GAMES = 4096;
+    // Sets of actions stepped in turn, so the branches can't be learned
+    private static final int ACTION_SETS = 64;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private VectorEnv env;
+    private GameEngine[] engines;
+    private int[][] actions;
+    private int step;
+
+    @Setup
+    public void setUp() {
+        // 0 is a worker per core
+        int parallelism = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        env = new VectorEnv(GAMES, 10, 20, 0, pool);
+        engines = new GameEngine[GAMES];
+        for (int i = 0; i < GAMES; i++) {
+            engines[i] = new GameEngine(10, 20, i);
+        }
+
+        Random random = new Random(1);
+        actions = new int[ACTION_SETS][GAMES];
+        for (int[] set : actions) {
+            for (int i = 0; i < GAMES; i++) {
+                int roll = random.nextInt(8);
+                set[i] = roll < Input.COUNT ? roll : VectorEnv.NO_INPUT;
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GAMES)
+    public int vectorEnv() {
+        env.step(actions[step++ & (ACTION_SETS - 1)]);
+        return env.getRewards()[0];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GAMES)
+    public int gameEngines() {
+        int[] set = actions[step++ & (ACTION_SETS - 1)];
+        int placed = 0;
+        for (int i = 0; i < GAMES; i++) {
+            GameEngine engine = engines[i];
+            if (set[i] != VectorEnv.NO_INPUT) {
+                engine.handleInput(set[i]);
+            }
+            engine.tick();
+            if (engine.isGameOver()) {
+                engine.reset(engine.getSeed() + GAMES);
+            }
+            placed += engine.getPiecesPlaced();
+        }
+        return placed;
+    }
+}
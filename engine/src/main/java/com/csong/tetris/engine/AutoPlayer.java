@@ -0,0 +1,61 @@
+package com.csong.tetris.engine;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Plays a game by itself. Each time a new block spawns it asks the placement search where the
+ * block should go, then hands out the inputs that take it there one at a time: rotations
+ * first, then moves, then a drop. Used for the autoplay mode and for soak testing the engine.
+ */
+
+public class AutoPlayer {
+    // Returned by nextInput() when there is nothing to do this tick
+    public static final int NONE = -1;
+
+    private final PlacementSearch search;
+    private final ForkJoinPool pool;
+    private final int[] previews = new int[1];
+
+    // Pieces placed when the current plan was made, so a new block is noticed
+    private int plannedAt = -1;
+    private Placement target;
+
+    // pool may be null to search on the calling thread
+    public AutoPlayer(PlacementSearch search, ForkJoinPool pool) {
+        this.search = search;
+        this.pool = pool;
+    }
+
+    // Returns the next Input to apply to the engine, or NONE
+    public int nextInput(GameEngine engine) {
+        if (engine.isGameOver()) {
+            return NONE;
+        }
+
+        Block block = engine.getActiveBlock();
+        if (plannedAt != engine.getPiecesPlaced() || target == null) {
+            plannedAt = engine.getPiecesPlaced();
+            previews[0] = engine.getNextType();
+            target = search.findBest(engine.getBoard(), block, previews, pool);
+            if (target == null) {
+                // Nowhere to go, so let it land where it is
+                return Input.DROP;
+            }
+        }
+
+        if (block.getRotation() != target.getRotation()) {
+            return Input.ROTATE;
+        }
+        if (block.getX() > target.getX()) {
+            return Input.MOVE_LEFT;
+        }
+        if (block.getX() < target.getX()) {
+            return Input.MOVE_RIGHT;
+        }
+        return Input.DROP;
+    }
+
+    public PlacementSearch getSearch() {
+        return search;
+    }
+}
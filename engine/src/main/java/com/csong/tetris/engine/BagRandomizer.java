@@ -0,0 +1,62 @@
+package com.csong.tetris.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Deals the seven types in a shuffled order, then shuffles them again. Every type comes up
+ * once in each run of seven, so at most twelve other blocks come between two of the same type.
+ */
+
+public class BagRandomizer implements Randomizer {
+    private final int[] bag = new int[Block.TYPE_COUNT];
+    // The types still to deal are bag[0] to bag[remaining - 1]
+    private int remaining;
+
+    public BagRandomizer() {
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < bag.length; i++) {
+            bag[i] = i;
+        }
+        remaining = 0;
+    }
+
+    @Override
+    public int next(GameRandom random) {
+        if (remaining == 0) {
+            remaining = bag.length;
+        }
+
+        // Deals a random type from the rest of the bag and moves it out of the way
+        int i = random.nextInt(remaining);
+        int type = bag[i];
+        remaining--;
+        bag[i] = bag[remaining];
+        bag[remaining] = type;
+        return type;
+    }
+
+    @Override
+    public int getMaxStateSize() {
+        return 1 + bag.length;
+    }
+
+    @Override
+    public void writeState(ByteBuffer out) {
+        out.put((byte) remaining);
+        for (int type : bag) {
+            out.put((byte) type);
+        }
+    }
+
+    @Override
+    public void readState(ByteBuffer in) {
+        remaining = in.get();
+        for (int i = 0; i < bag.length; i++) {
+            bag[i] = in.get();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.csong.tetris.engine;
+
+import java.util.Arrays;
+
+/**
+ * Created by csong on 10/21/16.
+ */
+
+public class Block {
+    // Block types
+    public static final int SQUARE = 0;
+    public static final int L = 1;
+    public static final int INVERTED_L = 2;
+    public static final int T = 3;
+    public static final int LINE = 4;
+    public static final int Z = 5;
+    public static final int S = 6;
+    public static final int TYPE_COUNT = 7;
+
+    // Rotations, clockwise from the spawn orientation
+    public static final int ZERO = 0;
+    public static final int CLOCKWISE = 1;
+    public static final int FLIPPED = 2;
+    public static final int COUNTER_CLOCKWISE = 3;
+
+    // Tile offsets from the top left tile as {x0, y0, x1, y1, ...}, indexed by type then rotation
+    private static final int[][][] TILES = {
+            // SQUARE
+            {
+                    {0, 0, 1, 0, 0, 1, 1, 1},
+                    {0, 0, 1, 0, 0, 1, 1, 1},
+                    {0, 0, 1, 0, 0, 1, 1, 1},
+                    {0, 0, 1, 0, 0, 1, 1, 1},
+            },
+            // L
+            {
+                    {0, 0, 0, 1, 0, 2, 1, 2},
+                    {0, 0, 1, 0, 2, 0, 0, 1},
+                    {0, 0, 1, 0, 1, 1, 1, 2},
+                    {2, 0, 0, 1, 1, 1, 2, 1},
+            },
+            // INVERTED_L
+            {
+                    {1, 0, 1, 1, 1, 2, 0, 2},
+                    {0, 0, 0, 1, 1, 1, 2, 1},
+                    {0, 0, 1, 0, 0, 1, 0, 2},
+                    {0, 0, 1, 0, 2, 0, 2, 1},
+            },
+            // T
+            {
+                    {1, 0, 0, 1, 1, 1, 2, 1},
+                    {0, 0, 0, 1, 1, 1, 0, 2},
+                    {0, 0, 1, 0, 2, 0, 1, 1},
+                    {1, 0, 0, 1, 1, 1, 1, 2},
+            },
+            // LINE
+            {
+                    {0, 0, 0, 1, 0, 2, 0, 3},
+                    {0, 0, 1, 0, 2, 0, 3, 0},
+                    {0, 0, 0, 1, 0, 2, 0, 3},
+                    {0, 0, 1, 0, 2, 0, 3, 0},
+            },
+            // Z
+            {
+                    {0, 0, 1, 0, 1, 1, 2, 1},
+                    {1, 0, 0, 1, 1, 1, 0, 2},
+                    {0, 0, 1, 0, 1, 1, 2, 1},
+                    {1, 0, 0, 1, 1, 1, 0, 2},
+            },
+            // S
+            {
+                    {1, 0, 2, 0, 0, 1, 1, 1},
+                    {0, 0, 0, 1, 1, 1, 1, 2},
+                    {1, 0, 2, 0, 0, 1, 1, 1},
+                    {0, 0, 0, 1, 1, 1, 1, 2},
+            },
+    };
+
+    // Bitmask of the columns each shape fills in its rows, relative to the top left tile.
+    // Built once from TILES so collisions can be checked a whole row at a time.
+    private static final int[][][] ROW_MASKS = new int[TILES.length][4][4];
+
+    static {
+        for (int type = 0; type < TILES.length; type++) {
+            for (int rotation = 0; rotation < 4; rotation++) {
+                int[] tiles = TILES[type][rotation];
+                for (int i = 0; i < tiles.length; i += 2) {
+                    ROW_MASKS[type][rotation][tiles[i + 1]] |= 1 << tiles[i];
+                }
+            }
+        }
+    }
+
+    // The lowest row each shape fills in each of its columns, or -1 for columns it doesn't
+    // reach. Where a shape lands on a surface depends only on these.
+    private static final int[][][] BOTTOMS = new int[TILES.length][4][4];
+
+    static {
+        for (int type = 0; type < TILES.length; type++) {
+            for (int rotation = 0; rotation < 4; rotation++) {
+                int[] bottoms = BOTTOMS[type][rotation];
+                Arrays.fill(bottoms, -1);
+                int[] tiles = TILES[type][rotation];
+                for (int i = 0; i < tiles.length; i += 2) {
+                    bottoms[tiles[i]] = Math.max(bottoms[tiles[i]], tiles[i + 1]);
+                }
+            }
+        }
+    }
+
+    // Number of rotations of each type that give different shapes. Rotating a block that many
+    // times brings it back to a shape it has already had.
+    private static final int[] DISTINCT_ROTATIONS = new int[TILES.length];
+
+    static {
+        for (int type = 0; type < TILES.length; type++) {
+            int[][] masks = ROW_MASKS[type];
+            if (Arrays.equals(masks[ZERO], masks[CLOCKWISE])) {
+                DISTINCT_ROTATIONS[type] = 1;
+            } else if (Arrays.equals(masks[ZERO], masks[FLIPPED])) {
+                DISTINCT_ROTATIONS[type] = 2;
+            } else {
+                DISTINCT_ROTATIONS[type] = 4;
+            }
+        }
+    }
+
+    private int blockType;
+    private int rotation;
+
+    // Indicates the top left tile
+    private int boardX;
+    private int boardY;
+
+    // The column bitmask of each row of a shape, relative to its top left tile. The array is
+    // shared and must not be modified.
+    public static int[] getShapeRows(int blockType, int rotation) {
+        return ROW_MASKS[blockType][rotation];
+    }
+
+    // The lowest row of a shape in each of its columns, or -1 where it has no tile. The array is
+    // shared and must not be modified.
+    public static int[] getShapeBottoms(int blockType, int rotation) {
+        return BOTTOMS[blockType][rotation];
+    }
+
+    public static int getDistinctRotations(int blockType) {
+        return DISTINCT_ROTATIONS[blockType];
+    }
+
+    public Block(int blockType, int boardX, int boardY) {
+        this(blockType, ZERO, boardX, boardY);
+    }
+
+    public Block(int blockType, int rotation, int boardX, int boardY) {
+        set(blockType, rotation, boardX, boardY);
+    }
+
+    // Turns this block into a different one, so blocks can be reused instead of allocated
+    public void set(int blockType, int rotation, int boardX, int boardY) {
+        this.blockType = blockType;
+        this.rotation = rotation;
+        this.boardX = boardX;
+        this.boardY = boardY;
+    }
+
+    // Returns true if the block has just stopped falling
+    public boolean update(Board board) {
+        // This block falls normally
+        boardY++;
+
+        // Check for collision with landed blocks and the ground
+        if (this.collidesWith(board)) {
+            boardY--;
+            return true;
+        }
+
+        return false;
+    }
+
+    // Rows this block can fall before it lands. Usually comes straight from the board's column
+    // tops, so it is cheap enough to ask every frame.
+    public int getDropDistance(Board board) {
+        return board.getDropDistance(ROW_MASKS[blockType][rotation], BOTTOMS[blockType][rotation],
+                boardX, boardY);
+    }
+
+    // Moves the block down without checking for collisions, for when the caller already knows
+    // there is room, e.g. from getDropDistance()
+    void fall(int rows) {
+        boardY += rows;
+    }
+
+    public void rotate(Board board) {
+        int previous = rotation;
+        rotation = (rotation + 1) % 4;
+
+        // Don't rotate into the walls or other blocks
+        if (this.collidesWith(board)) {
+            rotation = previous;
+        }
+    }
+
+    // Moves the block sideways by dx columns unless that would collide. Returns true if it moved.
+    public boolean move(Board board, int dx) {
+        if (!canMove(board, dx, 0)) {
+            return false;
+        }
+        boardX += dx;
+        return true;
+    }
+
+    public boolean collidesWith(Board board) {
+        return board.collides(ROW_MASKS[blockType][rotation], boardX, boardY);
+    }
+
+    // Returns true if the block could be moved by (dx, dy) without colliding
+    public boolean canMove(Board board, int dx, int dy) {
+        return !board.collides(ROW_MASKS[blockType][rotation], boardX + dx, boardY + dy);
+    }
+
+    public int getType() {
+        return blockType;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public int getX() {
+        return boardX;
+    }
+
+    public int getY() {
+        return boardY;
+    }
+
+    // Returns the columns this block fills in board row y as a bitmask
+    public long getRowMask(int y) {
+        int i = y - boardY;
+        if (i < 0 || i >= 4) {
+            return 0;
+        }
+        return Board.shift(ROW_MASKS[blockType][rotation][i], boardX);
+    }
+
+    // Copies this block's tiles onto the board once it has landed and clears any rows that
+    // are now full. Returns the number of rows cleared.
+    public int mergeInto(Board board) {
+        board.merge(ROW_MASKS[blockType][rotation], boardX, boardY, blockType);
+        return board.clearFullRows(boardY, boardY + 3);
+    }
+}
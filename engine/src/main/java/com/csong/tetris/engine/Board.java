@@ -0,0 +1,465 @@
+package com.csong.tetris.engine;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The cells that landed blocks occupy. Each row is stored as a long bitmask where bit x is set
+ * when column x is filled, so boards can be up to 64 columns wide and checking a falling block
+ * against the board costs the same no matter how many blocks have landed or how tall the
+ * board is. Each row also keeps a count of its filled cells so that
+ * full rows can be found by looking only at the rows a block has just landed in.
+ *
+ * The top filled row of every column is kept as well, updated as cells are filled and rows
+ * cleared, so where a block would land can usually be read off the surface instead of
+ * searched for.
+ *
+ * A board made to track damage also records which cells have changed since the last call to
+ * clearDamage(), so a renderer can redraw just those. Boards that are only played on, like
+ * the engine's, leave it out and skip the bookkeeping.
+ *
+ * Nothing above the top of the stack is ever read or written except to mark damage, so clearing,
+ * copying and saving a board costs as much as the rows in use, however many thousands of rows
+ * it has.
+ */
+
+public class Board {
+    // Cell type of garbage rows, after all the block types
+    public static final int GARBAGE = Block.TYPE_COUNT;
+
+    public static final int MAX_WIDTH = Long.SIZE;
+    // Row counts are saved as two bytes
+    public static final int MAX_HEIGHT = 0xFFFF;
+
+    private final int width;
+    private final int height;
+    private final long[] rows;
+    private final int[] rowFill;
+    // Every column filled
+    private final long fullRow;
+
+    // The highest row with anything in it, or height when the board is empty
+    private int stackTop;
+
+    // The highest filled row of each column, or height when the column is empty
+    private final int[] columnTops;
+
+    // Block type of every filled cell, indexed by y * width + x. Only needed for drawing.
+    private final byte[] cellTypes;
+
+    // Columns changed in each row since damage was last cleared, and the rows that have any.
+    // Null on a board that doesn't track damage, which then never has any.
+    private final long[] damage;
+    private int damageTop;
+    private int damageBottom;
+
+    // A board that tracks damage, starting with all of it damaged
+    public Board(int width, int height) {
+        this(width, height, true);
+    }
+
+    public Board(int width, int height, boolean tracksDamage) {
+        if (width < 1 || width > MAX_WIDTH) {
+            throw new IllegalArgumentException("width must be between 1 and " + MAX_WIDTH);
+        }
+        if (height < 1 || height > MAX_HEIGHT) {
+            throw new IllegalArgumentException("height must be between 1 and " + MAX_HEIGHT);
+        }
+        this.width = width;
+        this.height = height;
+        this.rows = new long[height];
+        this.rowFill = new int[height];
+        this.fullRow = getFullRow(width);
+        this.stackTop = height;
+        this.columnTops = new int[width];
+        Arrays.fill(columnTops, height);
+        this.cellTypes = new byte[width * height];
+        if (tracksDamage) {
+            this.damage = new long[height];
+            markAllDamaged();
+        } else {
+            this.damage = null;
+            damageTop = height;
+            damageBottom = -1;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Returns the bitmask of filled columns in row y
+    public long getRow(int y) {
+        return rows[y];
+    }
+
+    // The highest filled row of column x, or the board height if the column is empty
+    public int getColumnTop(int x) {
+        return columnTops[x];
+    }
+
+    // Number of rows from the floor up to and including the top filled cell of column x
+    public int getColumnHeight(int x) {
+        return height - columnTops[x];
+    }
+
+    // The walls and the floor count as occupied, the space above the top row does not
+    public boolean isOccupied(int x, int y) {
+        if (x < 0 || x >= width || y >= height) {
+            return true;
+        }
+        return y >= 0 && (rows[y] & (1L << x)) != 0;
+    }
+
+    // Returns true if a shape overlaps a filled cell, a wall or the floor. The shape is given as
+    // one column bitmask per row, relative to the board position (x, y) of its top left tile.
+    public boolean collides(int[] shapeRows, int x, int y) {
+        return collides(rows, width, shapeRows, x, y);
+    }
+
+    // Same as collides() above for a board held as a plain array of row bitmasks, so that
+    // searches can try placements on copies without building Board objects
+    public static boolean collides(long[] rows, int width, int[] shapeRows, int x, int y) {
+        for (int i = 0; i < shapeRows.length; i++) {
+            int shapeRow = shapeRows[i];
+            if (shapeRow == 0) {
+                continue;
+            }
+
+            int left = x + Integer.numberOfTrailingZeros(shapeRow);
+            int right = x + Integer.SIZE - Integer.numberOfLeadingZeros(shapeRow);
+            if (left < 0 || right > width || y + i >= rows.length) {
+                return true;
+            }
+
+            if (y + i >= 0 && (rows[y + i] & shift(shapeRow, x)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns how many rows a shape at (x, y) can fall before it lands, without stepping
+    // through them one at a time: everything above stackTop is empty, so the shape can jump
+    // straight down to it and only the rows of the stack itself need probing.
+    public int getDropDistance(int[] shapeRows, int x, int y) {
+        int bottom = 0;
+        for (int i = 0; i < shapeRows.length; i++) {
+            if (shapeRows[i] != 0) {
+                bottom = i;
+            }
+        }
+
+        int distance = Math.max(0, stackTop - 1 - (y + bottom));
+        while (!collides(shapeRows, x, y + distance + 1)) {
+            distance++;
+        }
+        return distance;
+    }
+
+    // As getDropDistance() above, but reads the landing row off the column tops when it can.
+    // shapeBottoms holds the lowest shape row in each column of the shape, or -1 where the shape
+    // has no tile, as Block.getShapeBottoms() gives it. The shape lands on whichever column top
+    // it reaches first, which only holds while every tile is still above the surface: a shape
+    // tucked under an overhang falls back to probing the rows.
+    public int getDropDistance(int[] shapeRows, int[] shapeBottoms, int x, int y) {
+        int landing = Integer.MAX_VALUE;
+        for (int i = 0; i < shapeBottoms.length; i++) {
+            int bottom = shapeBottoms[i];
+            if (bottom < 0) {
+                continue;
+            }
+
+            int top = columnTops[x + i];
+            if (y + bottom >= top) {
+                return getDropDistance(shapeRows, x, y);
+            }
+            landing = Math.min(landing, top - 1 - bottom);
+        }
+        return landing - y;
+    }
+
+    // Fills the cells of a shape, given the same way as for collides(). Rows above the top of
+    // the board are dropped.
+    public void merge(int[] shapeRows, int x, int y, int blockType) {
+        for (int i = 0; i < shapeRows.length; i++) {
+            if (y + i < 0 || shapeRows[i] == 0) {
+                continue;
+            }
+
+            long placed = shift(shapeRows[i], x);
+            rows[y + i] |= placed;
+            rowFill[y + i] = Long.bitCount(rows[y + i]);
+            markDamage(y + i, placed);
+            stackTop = Math.min(stackTop, y + i);
+            for (long bits = placed; bits != 0; bits &= bits - 1) {
+                int column = Long.numberOfTrailingZeros(bits);
+                cellTypes[(y + i) * width + column] = (byte) blockType;
+                columnTops[column] = Math.min(columnTops[column], y + i);
+            }
+        }
+    }
+
+    public int getCellType(int x, int y) {
+        return cellTypes[y * width + x];
+    }
+
+    // Marks a cell as filled. Cells above the top row are dropped.
+    public void fill(int x, int y, int blockType) {
+        if (y < 0) {
+            return;
+        }
+        rows[y] |= 1L << x;
+        rowFill[y] = Long.bitCount(rows[y]);
+        markDamage(y, 1L << x);
+        stackTop = Math.min(stackTop, y);
+        columnTops[x] = Math.min(columnTops[x], y);
+        cellTypes[y * width + x] = (byte) blockType;
+    }
+
+    // Removes the full rows between top and bottom (inclusive) and moves the rows above them
+    // down. Only rows from the top of the stack down to bottom are touched. Returns the number
+    // of rows removed.
+    public int clearFullRows(int top, int bottom) {
+        top = Math.max(top, stackTop);
+        bottom = Math.min(bottom, height - 1);
+
+        int cleared = 0;
+        for (int y = top; y <= bottom; y++) {
+            if (rowFill[y] == width) {
+                cleared++;
+            }
+        }
+        if (cleared == 0) {
+            return 0;
+        }
+
+        // Full rows can only be between top and bottom, so everything above top just moves down
+        int write = bottom;
+        for (int read = bottom; read >= stackTop; read--) {
+            if (read >= top && rowFill[read] == width) {
+                continue;
+            }
+            if (write != read) {
+                rows[write] = rows[read];
+                rowFill[write] = rowFill[read];
+                System.arraycopy(cellTypes, read * width, cellTypes, write * width, width);
+            }
+            write--;
+        }
+        for (int y = stackTop; y <= write; y++) {
+            rows[y] = 0;
+            rowFill[y] = 0;
+        }
+
+        // Every row from the old top of the stack down has moved
+        for (int y = stackTop; y <= bottom; y++) {
+            markDamage(y, fullRow);
+        }
+
+        stackTop += cleared;
+        updateColumnTops();
+        return cleared;
+    }
+
+    // Pushes everything up by count rows and fills the bottom count rows with garbage, full
+    // except for holeColumn. Returns false if that pushed filled cells off the top, which ends
+    // the game.
+    public boolean addGarbage(int count, int holeColumn) {
+        count = Math.min(count, height);
+        if (count <= 0) {
+            return true;
+        }
+        boolean fits = stackTop >= count;
+
+        int newTop = Math.max(0, stackTop - count);
+        for (int y = newTop; y < height - count; y++) {
+            rows[y] = rows[y + count];
+            rowFill[y] = rowFill[y + count];
+            System.arraycopy(cellTypes, (y + count) * width, cellTypes, y * width, width);
+        }
+        long garbageRow = fullRow & ~(1L << holeColumn);
+        for (int y = height - count; y < height; y++) {
+            rows[y] = garbageRow;
+            rowFill[y] = Long.bitCount(garbageRow);
+            Arrays.fill(cellTypes, y * width, (y + 1) * width, (byte) GARBAGE);
+        }
+
+        for (int y = newTop; y < height; y++) {
+            markDamage(y, fullRow);
+        }
+        stackTop = newTop;
+        updateColumnTops();
+        return fits;
+    }
+
+    // Empties the board. Only the rows of the stack are touched, and only they are damaged.
+    public void clear() {
+        for (int y = stackTop; y < height; y++) {
+            markDamage(y, rows[y]);
+            rows[y] = 0;
+            rowFill[y] = 0;
+        }
+        stackTop = height;
+        Arrays.fill(columnTops, height);
+    }
+
+    // A hash of which cells are filled and with what, for checking that two boards ended up
+    // the same without keeping either around. Columns past 32 only go into the hash when they
+    // are filled, so boards up to 32 wide hash the same as when rows were ints.
+    public int getChecksum() {
+        int hash = 0x811C9DC5;
+        for (int y = stackTop; y < height; y++) {
+            long row = rows[y];
+            if (row == 0) {
+                continue;
+            }
+            hash = (hash ^ y) * 0x01000193;
+            hash = (hash ^ (int) row) * 0x01000193;
+            if ((row >>> Integer.SIZE) != 0) {
+                hash = (hash ^ (int) (row >>> Integer.SIZE)) * 0x01000193;
+            }
+            for (long bits = row; bits != 0; bits &= bits - 1) {
+                hash = (hash ^ cellTypes[y * width + Long.numberOfTrailingZeros(bits)])
+                        * 0x01000193;
+            }
+        }
+        return hash;
+    }
+
+    // Makes this board hold the same cells as other, which must be the same size. Only the
+    // cells that end up different are marked damaged, and damage already recorded is kept, so a
+    // copy that is only sometimes brought up to date still knows everything that changed.
+    public void copyFrom(Board other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("Boards must be the same size");
+        }
+        // Both boards are empty above the higher of the two stacks
+        int top = Math.min(stackTop, other.stackTop);
+        if (damage != null) {
+            for (int y = top; y < height; y++) {
+                long changed = rows[y] ^ other.rows[y];
+                for (long bits = rows[y] & other.rows[y]; bits != 0; bits &= bits - 1) {
+                    int i = y * width + Long.numberOfTrailingZeros(bits);
+                    if (cellTypes[i] != other.cellTypes[i]) {
+                        changed |= bits & -bits;
+                    }
+                }
+                markDamage(y, changed);
+            }
+        }
+        System.arraycopy(other.rows, top, rows, top, height - top);
+        System.arraycopy(other.rowFill, top, rowFill, top, height - top);
+        System.arraycopy(other.columnTops, 0, columnTops, 0, width);
+        System.arraycopy(other.cellTypes, top * width, cellTypes, top * width,
+                (height - top) * width);
+        stackTop = other.stackTop;
+    }
+
+    // Writes the rows from the top of the stack down, each as its bitmask followed by the type
+    // of every filled cell in it. Masks take 4 bytes on boards narrower than 32 columns and 8
+    // otherwise, so at most 2 + (8 + width) * height bytes.
+    public void writeTo(ByteBuffer out) {
+        out.putShort((short) (height - stackTop));
+        for (int y = stackTop; y < height; y++) {
+            long row = rows[y];
+            if (width < Integer.SIZE) {
+                out.putInt((int) row);
+            } else {
+                out.putLong(row);
+            }
+            for (long bits = row; bits != 0; bits &= bits - 1) {
+                out.put(cellTypes[y * width + Long.numberOfTrailingZeros(bits)]);
+            }
+        }
+    }
+
+    // Replaces the board with one written by writeTo() for a board of the same width. The
+    // rows that were in use and the rows read are marked damaged.
+    public void readFrom(ByteBuffer in) {
+        clear();
+        stackTop = height - (in.getShort() & 0xFFFF);
+        for (int y = stackTop; y < height; y++) {
+            long row = width < Integer.SIZE ? in.getInt() & 0xFFFFFFFFL : in.getLong();
+            rows[y] = row;
+            rowFill[y] = Long.bitCount(row);
+            markDamage(y, row);
+            for (long bits = row; bits != 0; bits &= bits - 1) {
+                cellTypes[y * width + Long.numberOfTrailingZeros(bits)] = in.get();
+            }
+        }
+        updateColumnTops();
+    }
+
+    // Records that the given columns of row y need redrawing. Rows off the board are ignored.
+    public void markDamage(int y, long columns) {
+        if (damage == null || y < 0 || y >= height || columns == 0) {
+            return;
+        }
+        damage[y] |= columns;
+        damageTop = Math.min(damageTop, y);
+        damageBottom = Math.max(damageBottom, y);
+    }
+
+    public boolean hasDamage() {
+        return damageTop <= damageBottom;
+    }
+
+    // The first and last rows with damage. Only meaningful when hasDamage() is true.
+    public int getDamageTop() {
+        return damageTop;
+    }
+
+    public int getDamageBottom() {
+        return damageBottom;
+    }
+
+    // Returns the bitmask of changed columns in row y
+    public long getDamage(int y) {
+        return damage == null ? 0 : damage[y];
+    }
+
+    public void clearDamage() {
+        for (int y = damageTop; y <= damageBottom; y++) {
+            damage[y] = 0;
+        }
+        damageTop = height;
+        damageBottom = -1;
+    }
+
+    // Finds the top of every column again in one pass down the stack, taking each column from
+    // the first row that has it. Only needed when rows have moved.
+    private void updateColumnTops() {
+        long remaining = fullRow;
+        for (int y = stackTop; y < height && remaining != 0; y++) {
+            for (long bits = rows[y] & remaining; bits != 0; bits &= bits - 1) {
+                columnTops[Long.numberOfTrailingZeros(bits)] = y;
+            }
+            remaining &= ~rows[y];
+        }
+        for (long bits = remaining; bits != 0; bits &= bits - 1) {
+            columnTops[Long.numberOfTrailingZeros(bits)] = height;
+        }
+    }
+
+    private void markAllDamaged() {
+        Arrays.fill(damage, fullRow);
+        damageTop = 0;
+        damageBottom = height - 1;
+    }
+
+    // The mask of a row with all width columns filled
+    public static long getFullRow(int width) {
+        return width >= Long.SIZE ? -1L : (1L << width) - 1;
+    }
+
+    // A shape row moved to column x. Bits moved past either edge are lost, so callers check the
+    // shape fits first.
+    static long shift(int shapeRow, int x) {
+        return x >= 0 ? (long) shapeRow << x : shapeRow >>> -x;
+    }
+}
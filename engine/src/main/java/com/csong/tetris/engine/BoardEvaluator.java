@@ -0,0 +1,70 @@
+package com.csong.tetris.engine;
+
+/**
+ * Scores a board for the placement search as a weighted sum of aggregate height, lines
+ * cleared, holes and bumpiness. Higher is better. Works on plain row bitmasks so every feature
+ * comes from a single pass down the rows.
+ */
+
+public class BoardEvaluator {
+    // Weights tuned for a 10 wide board by a genetic search, as published for this feature set
+    public static final double HEIGHT_WEIGHT = -0.510066;
+    public static final double LINES_WEIGHT = 0.760666;
+    public static final double HOLES_WEIGHT = -0.35663;
+    public static final double BUMPINESS_WEIGHT = -0.184483;
+
+    private final double heightWeight;
+    private final double linesWeight;
+    private final double holesWeight;
+    private final double bumpinessWeight;
+
+    public BoardEvaluator() {
+        this(HEIGHT_WEIGHT, LINES_WEIGHT, HOLES_WEIGHT, BUMPINESS_WEIGHT);
+    }
+
+    public BoardEvaluator(double heightWeight, double linesWeight, double holesWeight,
+                          double bumpinessWeight) {
+        this.heightWeight = heightWeight;
+        this.linesWeight = linesWeight;
+        this.holesWeight = holesWeight;
+        this.bumpinessWeight = bumpinessWeight;
+    }
+
+    // Scores a board of the given width held as row bitmasks, top row first. columnHeights is
+    // scratch space with room for width entries.
+    public double evaluate(long[] rows, int width, int linesCleared, int[] columnHeights) {
+        int height = rows.length;
+        long full = Board.getFullRow(width);
+        for (int x = 0; x < width; x++) {
+            columnHeights[x] = 0;
+        }
+
+        // Columns that have a filled cell somewhere above the current row
+        long covered = 0;
+        int holes = 0;
+        for (int y = 0; y < height; y++) {
+            long row = rows[y];
+            holes += Long.bitCount(covered & ~row & full);
+
+            // Columns whose first filled cell is in this row
+            long tops = row & ~covered;
+            while (tops != 0) {
+                columnHeights[Long.numberOfTrailingZeros(tops)] = height - y;
+                tops &= tops - 1;
+            }
+            covered |= row;
+        }
+
+        int aggregateHeight = 0;
+        int bumpiness = 0;
+        for (int x = 0; x < width; x++) {
+            aggregateHeight += columnHeights[x];
+            if (x > 0) {
+                bumpiness += Math.abs(columnHeights[x] - columnHeights[x - 1]);
+            }
+        }
+
+        return heightWeight * aggregateHeight + linesWeight * linesCleared
+                + holesWeight * holes + bumpinessWeight * bumpiness;
+    }
+}
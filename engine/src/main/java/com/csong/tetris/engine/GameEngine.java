@@ -0,0 +1,432 @@
+package com.csong.tetris.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The rules of the game with no dependency on Android: spawning, moving, rotating, gravity,
+ * locking and clearing rows. Everything is driven by calls to tick() and the move methods, and
+ * block selection comes from a seeded generator, so the same seed and the same calls always
+ * play out the same game.
+ *
+ * In a versus game, clearing two or more rows at once sends garbage to an opponent, and
+ * garbage received rises up from the bottom of the board the next time a block locks without
+ * clearing anything.
+ */
+
+public class GameEngine {
+    // Number of times tick() is expected to be called per second of play
+    public static final int TICKS_PER_SECOND = 60;
+
+    // The narrowest board a game can be played on, as wide as the line block
+    public static final int MIN_WIDTH = 4;
+
+    // Rows per second a block falls at when a game starts
+    public static final int DEFAULT_FALL_SPEED = 2;
+
+    // "TSN5", at the start of every snapshot. Older snapshots had room for 255 rows at most.
+    private static final int SNAPSHOT_MAGIC = 0x54534E35;
+
+    // Points for clearing 0 to 4 rows with one block, times the level it was cleared on
+    static final int[] POINTS_FOR_LINES = {0, 40, 100, 300, 1200};
+
+    // Garbage rows sent for clearing 0 to 4 rows with one block
+    private static final int[] GARBAGE_FOR_LINES = {0, 0, 1, 2, 4};
+
+    private final int width;
+    private final int height;
+    private final Board board;
+
+    // Number of upcoming blocks shown, unless the constructor is told otherwise
+    public static final int DEFAULT_PREVIEW_COUNT = 3;
+
+    private final GameRandom random = new GameRandom(0);
+    private final PieceQueue queue;
+    // The active block and the one before it. Spawning reuses the older one, so the block that
+    // just locked stays valid until the next one locks.
+    private final Block[] blocks = {new Block(0, 0, 0), new Block(0, 0, 0)};
+    private int spawned;
+    private long seed;
+    private Block activeBlock;
+    private boolean gameOver;
+
+    private GravityCurve gravityCurve = GravityCurve.standard();
+    private int level;
+    // Rows per tick and the part of a row fallen so far, both as GravityCurve fixed point
+    private int gravity;
+    private int gravityAccumulator;
+    // Set when the speed was chosen directly, so levelling up doesn't change it
+    private boolean gravityOverridden;
+    private long ticks;
+    private int linesCleared;
+    private int piecesPlaced;
+    private long score;
+
+    // Garbage received but not yet risen, all with the gap in the same column
+    private int pendingGarbage;
+    private int garbageHole;
+    private int garbageSent;
+
+    // Deals blocks from a 7-bag with DEFAULT_PREVIEW_COUNT previews
+    public GameEngine(int width, int height, long seed) {
+        this(width, height, seed, new BagRandomizer(), DEFAULT_PREVIEW_COUNT);
+    }
+
+    public GameEngine(int width, int height, long seed, Randomizer randomizer, int previewCount) {
+        checkWidth(width, Board.MAX_WIDTH);
+        this.width = width;
+        this.height = height;
+        // Renderers work out what changed from copies, so the engine's board doesn't track it
+        this.board = new Board(width, height, false);
+        this.queue = new PieceQueue(randomizer, random, previewCount);
+        reset(seed);
+    }
+
+    // Throws unless width is at least MIN_WIDTH and at most maxWidth, the widest board the
+    // caller can hold. Shared with VectorEnv so both refuse the same boards.
+    static void checkWidth(int width, int maxWidth) {
+        if (width < MIN_WIDTH || width > maxWidth) {
+            throw new IllegalArgumentException("width must be between " + MIN_WIDTH + " and "
+                    + maxWidth);
+        }
+    }
+
+    // Starts a new game on an empty board
+    public void reset(long seed) {
+        this.seed = seed;
+        random.setState(seed);
+        board.clear();
+        gameOver = false;
+        level = 1;
+        gravity = gravityCurve.getGravity(level);
+        gravityAccumulator = 0;
+        gravityOverridden = false;
+        ticks = 0;
+        linesCleared = 0;
+        piecesPlaced = 0;
+        score = 0;
+        pendingGarbage = 0;
+        garbageHole = 0;
+        garbageSent = 0;
+        queue.reset();
+        spawn();
+    }
+
+    // Advances the game by one tick. Does nothing once the game is over.
+    public void tick() {
+        if (gameOver) {
+            return;
+        }
+
+        ticks++;
+        gravityAccumulator += gravity;
+        int rows = gravityAccumulator >>> GravityCurve.FRACTION_BITS;
+        if (rows == 0) {
+            return;
+        }
+        gravityAccumulator &= GravityCurve.ONE_ROW - 1;
+
+        // However many rows are due, the landing row comes from one probe. A block that was
+        // already resting when it was due to fall locks.
+        int distance = activeBlock.getDropDistance(board);
+        if (distance == 0) {
+            lock();
+        } else {
+            activeBlock.fall(Math.min(rows, distance));
+        }
+    }
+
+    // Applies one of the Input commands
+    public void handleInput(int input) {
+        switch (input) {
+            case Input.MOVE_LEFT:
+                moveLeft();
+                break;
+            case Input.MOVE_RIGHT:
+                moveRight();
+                break;
+            case Input.ROTATE:
+                rotate();
+                break;
+            case Input.DROP:
+                hardDrop();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown input " + input);
+        }
+    }
+
+    public boolean moveLeft() {
+        return move(-1);
+    }
+
+    public boolean moveRight() {
+        return move(1);
+    }
+
+    public void rotate() {
+        if (!gameOver) {
+            activeBlock.rotate(board);
+        }
+    }
+
+    // Drops the active block as far as it can go and locks it there
+    public void hardDrop() {
+        if (gameOver) {
+            return;
+        }
+
+        activeBlock.fall(activeBlock.getDropDistance(board));
+        gravityAccumulator = 0;
+        lock();
+    }
+
+    // Returns how far the active block is towards falling into the next row, from 0 to 1, or 0
+    // if it can't fall. interpolation is how far the caller is between this tick and the next.
+    public float getFallProgress(float interpolation) {
+        if (gameOver || !activeBlock.canMove(board, 0, 1)) {
+            return 0;
+        }
+        return Math.min(1, (gravityAccumulator + interpolation * gravity) / GravityCurve.ONE_ROW);
+    }
+
+    // Returns how many more ticks until the active block falls a row, or locks if it is
+    // resting. Without input nothing on the board changes before then. Long.MAX_VALUE once
+    // the game is over.
+    public long getTicksUntilFall() {
+        if (gameOver) {
+            return Long.MAX_VALUE;
+        }
+        return (GravityCurve.ONE_ROW - gravityAccumulator + gravity - 1) / gravity;
+    }
+
+    // Sets a fixed speed that stays until the next reset, ignoring the level curve
+    public void setFallSpeed(int rowsPerSecond) {
+        setGravity(GravityCurve.fromRowsPerSecond(Math.max(1, rowsPerSecond)));
+    }
+
+    // As setFallSpeed() in GravityCurve fixed point rows per tick, up to 20G
+    public void setGravity(int gravity) {
+        this.gravity = Math.max(1, Math.min(GravityCurve.MAX_GRAVITY, gravity));
+        gravityOverridden = true;
+    }
+
+    // Jumps to a level and its speed from the curve
+    public void setLevel(int level) {
+        this.level = Math.max(1, level);
+        gravity = gravityCurve.getGravity(this.level);
+        gravityOverridden = false;
+    }
+
+    // Used from the next level change on
+    public void setGravityCurve(GravityCurve gravityCurve) {
+        this.gravityCurve = gravityCurve;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getGravity() {
+        return gravity;
+    }
+
+    // Queues rows of garbage from an opponent with the gap at holeColumn. Clearing rows cancels
+    // queued garbage before any is sent back, and whatever is left rises when a block next
+    // locks without clearing a row.
+    public void receiveGarbage(int rows, int holeColumn) {
+        if (gameOver || rows <= 0) {
+            return;
+        }
+        pendingGarbage = Math.min(height, pendingGarbage + rows);
+        garbageHole = Math.max(0, Math.min(width - 1, holeColumn));
+    }
+
+    public int getPendingGarbage() {
+        return pendingGarbage;
+    }
+
+    // Total garbage rows this game has sent, after cancelling. Callers pass on the difference
+    // since they last looked.
+    public int getGarbageSent() {
+        return garbageSent;
+    }
+
+    // The most bytes writeSnapshot() can take, for sizing a buffer to reuse
+    public int getMaxSnapshotSize() {
+        return 91 + queue.getMaxStateSize() + height * (8 + width);
+    }
+
+    // Writes everything needed to carry on this exact game: the board, the active and next
+    // blocks, the generator state, the counters, the gravity timer and waiting garbage
+    public void writeSnapshot(ByteBuffer out) {
+        out.putInt(SNAPSHOT_MAGIC);
+        out.put((byte) width);
+        out.putShort((short) height);
+        out.putLong(seed);
+        out.putLong(random.getState());
+        out.put((byte) (gameOver ? 1 : 0));
+        out.putInt(level);
+        out.putInt(gravity);
+        out.putInt(gravityAccumulator);
+        out.put((byte) (gravityOverridden ? 1 : 0));
+        out.putLong(ticks);
+        out.putInt(linesCleared);
+        out.putInt(piecesPlaced);
+        out.putLong(score);
+        out.putInt(pendingGarbage);
+        out.putInt(garbageHole);
+        out.putInt(garbageSent);
+        queue.writeState(out);
+        out.put((byte) activeBlock.getType());
+        out.put((byte) activeBlock.getRotation());
+        out.putShort((short) activeBlock.getX());
+        out.putShort((short) activeBlock.getY());
+        board.writeTo(out);
+    }
+
+    // Carries on from a snapshot written by writeSnapshot() on a board of the same size
+    public void readSnapshot(ByteBuffer in) {
+        if (in.getInt() != SNAPSHOT_MAGIC) {
+            throw new IllegalArgumentException("Not a game snapshot");
+        }
+        int snapshotWidth = in.get() & 0xFF;
+        int snapshotHeight = in.getShort() & 0xFFFF;
+        if (snapshotWidth != width || snapshotHeight != height) {
+            throw new IllegalArgumentException("Snapshot is for a " + snapshotWidth + "x"
+                    + snapshotHeight + " board");
+        }
+
+        seed = in.getLong();
+        random.setState(in.getLong());
+        gameOver = in.get() != 0;
+        level = in.getInt();
+        gravity = in.getInt();
+        gravityAccumulator = in.getInt();
+        gravityOverridden = in.get() != 0;
+        ticks = in.getLong();
+        linesCleared = in.getInt();
+        piecesPlaced = in.getInt();
+        score = in.getLong();
+        pendingGarbage = in.getInt();
+        garbageHole = in.getInt();
+        garbageSent = in.getInt();
+        queue.readState(in);
+        int type = in.get();
+        int rotation = in.get();
+        int x = in.getShort();
+        int y = in.getShort();
+        activeBlock = blocks[spawned++ & 1];
+        activeBlock.set(type, rotation, x, y);
+        board.readFrom(in);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public Block getActiveBlock() {
+        return activeBlock;
+    }
+
+    // The row the active block would land in if dropped now, where the ghost piece is drawn
+    public int getGhostY() {
+        return activeBlock.getY() + activeBlock.getDropDistance(board);
+    }
+
+    // The type of the block that spawns after the active one
+    public int getNextType() {
+        return queue.peek(0);
+    }
+
+    // The type i blocks after the next one, up to getPreviewCount() - 1
+    public int getPreview(int i) {
+        return queue.peek(i);
+    }
+
+    public int getPreviewCount() {
+        return queue.getPreviewCount();
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public int getLinesCleared() {
+        return linesCleared;
+    }
+
+    public int getPiecesPlaced() {
+        return piecesPlaced;
+    }
+
+    public long getScore() {
+        return score;
+    }
+
+    private boolean move(int dx) {
+        if (gameOver || !activeBlock.canMove(board, dx, 0)) {
+            return false;
+        }
+
+        activeBlock.move(board, dx);
+        return true;
+    }
+
+    private void lock() {
+        int cleared = activeBlock.mergeInto(board);
+        score += (long) POINTS_FOR_LINES[Math.min(cleared, POINTS_FOR_LINES.length - 1)] * level;
+        int levelsGained = (linesCleared + cleared) / GravityCurve.LINES_PER_LEVEL
+                - linesCleared / GravityCurve.LINES_PER_LEVEL;
+        linesCleared += cleared;
+        piecesPlaced++;
+        if (levelsGained > 0) {
+            level += levelsGained;
+            if (!gravityOverridden) {
+                gravity = gravityCurve.getGravity(level);
+            }
+        }
+
+        if (cleared > 0) {
+            int attack = GARBAGE_FOR_LINES[Math.min(cleared, GARBAGE_FOR_LINES.length - 1)];
+            int cancelled = Math.min(attack, pendingGarbage);
+            pendingGarbage -= cancelled;
+            garbageSent += attack - cancelled;
+        } else if (pendingGarbage > 0) {
+            boolean fits = board.addGarbage(pendingGarbage, garbageHole);
+            pendingGarbage = 0;
+            if (!fits) {
+                gameOver = true;
+                return;
+            }
+        }
+        spawn();
+    }
+
+    // Package private so the benchmarks can measure spawning on its own
+    void spawn() {
+        activeBlock = blocks[spawned++ & 1];
+        // Centred for a three wide block, a column left of centre on even widths
+        activeBlock.set(queue.take(), Block.ZERO, (width - 3) / 2, 0);
+
+        // No room for the new block
+        if (activeBlock.collidesWith(board)) {
+            gameOver = true;
+        }
+    }
+}
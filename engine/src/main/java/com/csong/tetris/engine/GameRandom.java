@@ -0,0 +1,47 @@
+package com.csong.tetris.engine;
+
+/**
+ * A small seeded generator (SplitMix64) whose whole state is one long, so a game can be
+ * snapshotted and carry on with exactly the blocks it would have had. java.util.Random keeps
+ * its state private, which is why the engine doesn't use it.
+ */
+
+public class GameRandom {
+    private long state;
+
+    public GameRandom(long seed) {
+        state = seed;
+    }
+
+    // Added to the state for every value
+    static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    public long nextLong() {
+        return mix(state += GAMMA);
+    }
+
+    // Returns a value from 0 up to but not including bound. Scales 32 random bits instead of
+    // taking a remainder, which keeps the bias below one in 2^32 / bound.
+    public int nextInt(int bound) {
+        return scale(nextLong(), bound);
+    }
+
+    // The output for a state, for code that keeps many generators' states in one array
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static int scale(long value, int bound) {
+        return (int) (((value >>> 32) * bound) >>> 32);
+    }
+
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state;
+    }
+}
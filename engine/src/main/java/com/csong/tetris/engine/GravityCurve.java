@@ -0,0 +1,58 @@
+package com.csong.tetris.engine;
+
+/**
+ * How fast blocks fall at each level, in rows per tick as 16.16 fixed point. ONE_ROW is one
+ * row every tick (1G), and speeds are capped at MAX_GRAVITY (20G), where a block falls the
+ * height of a standard board in a single tick.
+ */
+
+public class GravityCurve {
+    public static final int FRACTION_BITS = 16;
+    public static final int ONE_ROW = 1 << FRACTION_BITS;
+    public static final int MAX_GRAVITY = 20 * ONE_ROW;
+
+    // Levels go up after this many lines
+    public static final int LINES_PER_LEVEL = 10;
+
+    private final int[] gravityByLevel;
+
+    // gravityByLevel[0] is the speed at level 1. Levels past the end keep the last speed.
+    public GravityCurve(int[] gravityByLevel) {
+        if (gravityByLevel.length == 0) {
+            throw new IllegalArgumentException("Need the speed of at least one level");
+        }
+        this.gravityByLevel = gravityByLevel.clone();
+        for (int i = 0; i < this.gravityByLevel.length; i++) {
+            this.gravityByLevel[i] = Math.max(1, Math.min(MAX_GRAVITY, this.gravityByLevel[i]));
+        }
+    }
+
+    // The usual curve, where a row takes (0.8 - (level - 1) * 0.007) ^ (level - 1) seconds,
+    // but never slower than GameEngine.DEFAULT_FALL_SPEED. Reaches 20G at level 20.
+    public static GravityCurve standard() {
+        int[] gravity = new int[20];
+        for (int level = 1; level <= gravity.length; level++) {
+            double secondsPerRow = Math.pow(0.8 - (level - 1) * 0.007, level - 1);
+            double rowsPerSecond = Math.max(GameEngine.DEFAULT_FALL_SPEED, 1 / secondsPerRow);
+            gravity[level - 1] = fromRowsPerSecond(rowsPerSecond);
+        }
+        gravity[gravity.length - 1] = MAX_GRAVITY;
+        return new GravityCurve(gravity);
+    }
+
+    // Converts a speed to fixed point rows per tick, rounding up so a whole number of ticks
+    // per row comes out exact
+    public static int fromRowsPerSecond(double rowsPerSecond) {
+        double perTick = rowsPerSecond * ONE_ROW / GameEngine.TICKS_PER_SECOND;
+        return (int) Math.min(MAX_GRAVITY, Math.ceil(perTick - 1e-9));
+    }
+
+    public int getGravity(int level) {
+        int i = Math.max(1, Math.min(level, gravityByLevel.length)) - 1;
+        return gravityByLevel[i];
+    }
+
+    public int getLevelCount() {
+        return gravityByLevel.length;
+    }
+}
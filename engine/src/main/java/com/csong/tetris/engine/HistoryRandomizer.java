@@ -0,0 +1,82 @@
+package com.csong.tetris.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Remembers the last four types dealt and rerolls a few times to avoid them. Repeats become
+ * rare without the fixed rhythm of a bag. The history starts full of Z and S so that a game
+ * doesn't open with one of them.
+ */
+
+public class HistoryRandomizer implements Randomizer {
+    private static final int HISTORY_SIZE = 4;
+    private static final int DEFAULT_ROLLS = 6;
+
+    private final int rolls;
+    private final int[] history = new int[HISTORY_SIZE];
+    // Where the next type goes in history, which is used as a ring
+    private int oldest;
+
+    public HistoryRandomizer() {
+        this(DEFAULT_ROLLS);
+    }
+
+    // rolls is how many times to draw before accepting a type that is in the history
+    public HistoryRandomizer(int rolls) {
+        this.rolls = Math.max(1, rolls);
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            history[i] = i % 2 == 0 ? Block.Z : Block.S;
+        }
+        oldest = 0;
+    }
+
+    @Override
+    public int next(GameRandom random) {
+        int type = 0;
+        for (int roll = 0; roll < rolls; roll++) {
+            type = random.nextInt(Block.TYPE_COUNT);
+            if (!inHistory(type)) {
+                break;
+            }
+        }
+
+        history[oldest] = type;
+        oldest = (oldest + 1) % HISTORY_SIZE;
+        return type;
+    }
+
+    @Override
+    public int getMaxStateSize() {
+        return 1 + HISTORY_SIZE;
+    }
+
+    @Override
+    public void writeState(ByteBuffer out) {
+        out.put((byte) oldest);
+        for (int type : history) {
+            out.put((byte) type);
+        }
+    }
+
+    @Override
+    public void readState(ByteBuffer in) {
+        oldest = in.get();
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            history[i] = in.get();
+        }
+    }
+
+    private boolean inHistory(int type) {
+        for (int recent : history) {
+            if (recent == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,18 @@
+package com.csong.tetris.engine;
+
+/**
+ * Player commands, as passed to GameEngine.handleInput(). They are small ints so they can be
+ * queued and recorded without allocating.
+ */
+
+public class Input {
+    public static final int MOVE_LEFT = 0;
+    public static final int MOVE_RIGHT = 1;
+    public static final int ROTATE = 2;
+    // Drops the block straight down and locks it
+    public static final int DROP = 3;
+    public static final int COUNT = 4;
+
+    private Input() {
+    }
+}
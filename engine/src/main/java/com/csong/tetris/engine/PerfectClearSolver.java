@@ -0,0 +1,620 @@
+package com.csong.tetris.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds where to put a known sequence of blocks so that they clear the board completely, or
+ * if they can't, leave it with the fewest holes. Blocks stay within the bottom lines rows,
+ * less any rows already cleared, so a 4-line perfect clear is a search over a band four rows
+ * high. Every block is placed the way AutoPlayer places them: turned clockwise where it
+ * spawns, moved sideways and dropped. Of the placements that do equally well, the one taking
+ * the fewest inputs is chosen.
+ *
+ * Every perfect clear of a band uses the same number of blocks, since each fills four of its
+ * empty cells, so the search goes exactly that deep. The search is depth first over every
+ * placement of each block, first looking only for a perfect clear, which lets it give up on a
+ * position as soon as the band can't be filled exactly, and then, if there is none, for the
+ * fewest holes. Positions are hashed with Zobrist keys, one random key per cell and per
+ * depth, updated as cells are filled. The result below each finished position goes into a
+ * TranspositionTable, so a position reached again by placing the same blocks differently
+ * isn't searched twice. Given a pool, each placement of the first block is searched as its
+ * own task. They share the table, and all of them stop as soon as any one finds a perfect
+ * clear.
+ */
+
+public class PerfectClearSolver {
+    // Most blocks one solve can look at
+    public static final int MAX_PIECES = 64;
+    // Most cells a board can have. Leaf values pack holes, depth and filled cells into one int,
+    // which only holds them all up to about this size.
+    public static final int MAX_CELLS = 4096;
+
+    // Nothing below a position counts: no perfect clear when looking only for those, or no
+    // placement at all for the first block
+    private static final int DEAD_END = Integer.MAX_VALUE;
+    // Positions this close to the end are searched again rather than looked up, since the
+    // table lookup costs about as much as the search
+    private static final int MIN_STORED_DEPTH = 2;
+
+    private final int width;
+    private final int height;
+    private final int spawnX;
+    private final TranspositionTable table;
+    private final long[] cellKeys;
+    private final long[] depthKeys = new long[MAX_PIECES + 1];
+    // Changes every solve, so positions stored for other sequences are never found again
+    private long salt;
+
+    // Placements of each type as rotation << 8 | x, the fewest inputs first
+    private final int[][] placementOrder = new int[Block.TYPE_COUNT][];
+    // Board column then lowest shape row for each column a placement covers, by type,
+    // rotation and x
+    private final int[][][][] landingColumns = new int[Block.TYPE_COUNT][4][][];
+
+    // Set once any thread finds a perfect clear, so the others give up
+    private volatile boolean stopped;
+
+    /**
+     * The placements found and what the search took to find them.
+     */
+    public static class Solution {
+        private final Placement[] placements;
+        private final boolean perfectClear;
+        private final int holes;
+        private final int inputs;
+        private final long nodes;
+        private final long tableProbes;
+        private final long tableHits;
+        private final long nanos;
+
+        Solution(Placement[] placements, boolean perfectClear, int holes, int inputs, long nodes,
+                 long tableProbes, long tableHits, long nanos) {
+            this.placements = placements;
+            this.perfectClear = perfectClear;
+            this.holes = holes;
+            this.inputs = inputs;
+            this.nodes = nodes;
+            this.tableProbes = tableProbes;
+            this.tableHits = tableHits;
+            this.nanos = nanos;
+        }
+
+        // Where to put each block in turn. Empty if the first block can't go anywhere.
+        public Placement[] getPlacements() {
+            return placements;
+        }
+
+        public boolean isPerfectClear() {
+            return perfectClear;
+        }
+
+        // Holes left once every placement is made
+        public int getHoles() {
+            return holes;
+        }
+
+        // Rotations, moves and drops to make every placement from where its block spawns
+        public int getInputs() {
+            return inputs;
+        }
+
+        // Positions visited
+        public long getNodes() {
+            return nodes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public double getNodesPerSecond() {
+            return nanos == 0 ? 0 : nodes * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+        }
+
+        // Share of table lookups that found a position already searched
+        public double getHitRate() {
+            return tableProbes == 0 ? 0 : (double) tableHits / tableProbes;
+        }
+    }
+
+    // Keeps 2 ^ (tableBits + 1) positions between all the threads of a solve
+    public PerfectClearSolver(int width, int height, int tableBits) {
+        if (width < 1 || width > Board.MAX_WIDTH) {
+            throw new IllegalArgumentException("width must be between 1 and " + Board.MAX_WIDTH);
+        }
+        if (height < 1 || width * height > MAX_CELLS) {
+            throw new IllegalArgumentException("Boards can have at most " + MAX_CELLS + " cells");
+        }
+        this.width = width;
+        this.height = height;
+        this.spawnX = (width - 3) / 2;
+        this.table = new TranspositionTable(tableBits);
+
+        GameRandom random = new GameRandom(0x5A0B7157L);
+        cellKeys = new long[width * height];
+        for (int i = 0; i < cellKeys.length; i++) {
+            cellKeys[i] = random.nextLong();
+        }
+        for (int i = 0; i < depthKeys.length; i++) {
+            depthKeys[i] = random.nextLong();
+        }
+
+        for (int type = 0; type < Block.TYPE_COUNT; type++) {
+            List<Integer> order = new ArrayList<Integer>();
+            for (int rotation = 0; rotation < Block.getDistinctRotations(type); rotation++) {
+                int[] bottoms = Block.getShapeBottoms(type, rotation);
+                int right = bottoms.length - 1;
+                while (bottoms[right] < 0) {
+                    right--;
+                }
+                landingColumns[type][rotation] = new int[width][];
+                for (int x = 0; x + right < width; x++) {
+                    order.add(rotation << 8 | x);
+                    int[] columns = new int[2 * bottoms.length];
+                    int count = 0;
+                    for (int i = 0; i < bottoms.length; i++) {
+                        if (bottoms[i] >= 0) {
+                            columns[count++] = x + i;
+                            columns[count++] = bottoms[i];
+                        }
+                    }
+                    landingColumns[type][rotation][x] = Arrays.copyOf(columns, count);
+                }
+            }
+            int[] codes = new int[order.size()];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = order.get(i);
+            }
+            sortByInputs(codes);
+            placementOrder[type] = codes;
+        }
+    }
+
+    // Searches on the calling thread
+    public Solution solve(Board board, int[] pieces, int lines) {
+        return solve(board, pieces, lines, null);
+    }
+
+    // Places pieces, the active block's type and then the ones after it, within the bottom
+    // lines rows of board. Root placements are searched on pool, or on the calling thread if
+    // pool is null.
+    public Solution solve(Board board, int[] pieces, int lines, ForkJoinPool pool) {
+        if (pieces.length > MAX_PIECES) {
+            throw new IllegalArgumentException("At most " + MAX_PIECES + " pieces");
+        }
+        if (lines < 1 || lines > height) {
+            throw new IllegalArgumentException("lines must be between 1 and " + height);
+        }
+        long start = System.nanoTime();
+        long[] rows = new long[height];
+        int bandTop = height - lines;
+        int filled = 0;
+        boolean aboveBand = false;
+        for (int y = 0; y < height; y++) {
+            rows[y] = board.getRow(y);
+            if (y >= bandTop) {
+                filled += Long.bitCount(rows[y]);
+            } else {
+                aboveBand |= rows[y] != 0;
+            }
+        }
+
+        // Each block fills four empty cells, so only one count of blocks clears the band.
+        // Cells above the band stay whatever is placed, so it can't end up empty.
+        int empty = lines * width - filled;
+        int depth = pieces.length;
+        if (!aboveBand && empty > 0 && empty % 4 == 0) {
+            depth = Math.min(depth, empty / 4);
+        }
+
+        List<Search> roots = new ArrayList<Search>();
+        if (depth > 0) {
+            Search root = new Search(pieces, depth, lines, rows);
+            for (int code : placementOrder[pieces[0]]) {
+                if (root.canPlace(0, code)) {
+                    roots.add(new Search(pieces, depth, lines, rows, code));
+                }
+            }
+        }
+
+        // Looking only for perfect clears lets whole branches be ruled out early, so that
+        // goes first and the search for the fewest holes only runs if it finds nothing
+        boolean found = false;
+        if (!aboveBand) {
+            search(roots, true, pool);
+            for (Search search : roots) {
+                found |= search.value == 0;
+            }
+        }
+        if (!found) {
+            search(roots, false, pool);
+        }
+
+        long nodes = 0;
+        long probes = 0;
+        long hits = 0;
+        Search best = null;
+        for (Search search : roots) {
+            nodes += search.nodes;
+            probes += search.probes;
+            hits += search.hits;
+            // Ties go to the first, which takes the fewest inputs
+            if (best == null || search.value < best.value) {
+                best = search;
+            }
+        }
+
+        List<Placement> placements = new ArrayList<Placement>();
+        boolean perfectClear = false;
+        int holes = 0;
+        int inputs = 0;
+        if (best != null && best.value != DEAD_END) {
+            int[] path = best.walk();
+            for (int i = 0; i < path.length; i += 3) {
+                int rotation = path[i] >> 8;
+                int x = path[i] & 0xFF;
+                placements.add(new Placement(rotation, x, path[i + 1], best.value));
+                inputs += getInputs(path[i]);
+            }
+            perfectClear = best.value == 0 && isEmpty(best.boards[placements.size()]);
+            holes = countHoles(best.boards[placements.size()], width);
+        }
+        return new Solution(placements.toArray(new Placement[placements.size()]), perfectClear,
+                holes, inputs, nodes, probes, hits, System.nanoTime() - start);
+    }
+
+    private void search(List<Search> roots, boolean perfectOnly, ForkJoinPool pool) {
+        // A new salt, so nothing stored by another solve or the other kind of search is found
+        salt = GameRandom.mix(salt + GameRandom.GAMMA);
+        stopped = false;
+        for (Search search : roots) {
+            search.perfectOnly = perfectOnly;
+        }
+        if (pool != null) {
+            pool.invoke(new RootTask(roots));
+        } else {
+            for (Search search : roots) {
+                search.searchRoot();
+            }
+        }
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    // Presses to turn a block from its spawn rotation, move it from its spawn column and drop it
+    private int getInputs(int code) {
+        return (code >> 8) + Math.abs((code & 0xFF) - spawnX) + 1;
+    }
+
+    private void sortByInputs(int[] codes) {
+        // Insertion sort, so equal costs keep rotation then column order
+        for (int i = 1; i < codes.length; i++) {
+            int code = codes[i];
+            int j = i - 1;
+            while (j >= 0 && getInputs(codes[j]) > getInputs(code)) {
+                codes[j + 1] = codes[j];
+                j--;
+            }
+            codes[j + 1] = code;
+        }
+    }
+
+    // Empty cells with a filled cell somewhere above them
+    static int countHoles(long[] rows, int width) {
+        long full = Board.getFullRow(width);
+        long covered = 0;
+        int holes = 0;
+        for (long row : rows) {
+            holes += Long.bitCount(covered & ~row & full);
+            covered |= row;
+        }
+        return holes;
+    }
+
+    private static boolean isEmpty(long[] rows) {
+        for (long row : rows) {
+            if (row != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The search below one placement of the first block, with its own scratch boards
+    private class Search {
+        private final int[] pieces;
+        private final int leafDepth;
+        private final int lines;
+        private final int rootCode;
+        // boards[d] is the board before pieces[d] is placed, and tops[d] its column tops
+        final long[][] boards;
+        private final int[][] tops;
+        private final long[] hashes;
+        private final int[] cleared;
+        // The row each placement on the current path landed in
+        private final int[] landedY;
+
+        // Whether anything short of a perfect clear counts as DEAD_END
+        boolean perfectOnly;
+        int value = DEAD_END;
+        long nodes;
+        long probes;
+        long hits;
+
+        Search(int[] pieces, int leafDepth, int lines, long[] rows) {
+            this(pieces, leafDepth, lines, rows, -1);
+        }
+
+        Search(int[] pieces, int leafDepth, int lines, long[] rows, int rootCode) {
+            this.pieces = pieces;
+            this.leafDepth = leafDepth;
+            this.lines = lines;
+            this.rootCode = rootCode;
+            boards = new long[leafDepth + 1][height];
+            tops = new int[leafDepth + 1][width];
+            System.arraycopy(rows, 0, boards[0], 0, height);
+            findTops(0);
+            hashes = new long[leafDepth + 1];
+            hashes[0] = hash(rows);
+            cleared = new int[leafDepth + 1];
+            landedY = new int[leafDepth];
+        }
+
+        void searchRoot() {
+            value = place(0, rootCode) ? search(1) : DEAD_END;
+        }
+
+        // Whether pieces[depth] can go at code without leaving the band
+        boolean canPlace(int depth, int code) {
+            return landingY(depth, code) >= 0;
+        }
+
+        // The row pieces[depth] comes to rest in at code, or -1 if it can't go there or would
+        // stick out of the band. Every block drops from above the stack, so it lands on
+        // whichever column top it reaches first, as in Board.getDropDistance().
+        private int landingY(int depth, int code) {
+            int[] columns = landingColumns[pieces[depth]][code >> 8][code & 0xFF];
+            int[] columnTops = tops[depth];
+            int bandTop = height - (lines - cleared[depth]);
+            int landing = Integer.MAX_VALUE;
+            for (int i = 0; i < columns.length; i += 2) {
+                landing = Math.min(landing, columnTops[columns[i]] - 1 - columns[i + 1]);
+                if (landing < bandTop) {
+                    return -1;
+                }
+            }
+            return landing;
+        }
+
+        // Makes boards[depth + 1] the board after placing pieces[depth] at code. Returns false
+        // if the placement isn't allowed.
+        private boolean place(int depth, int code) {
+            int y = landingY(depth, code);
+            if (y < 0) {
+                return false;
+            }
+            int[] shape = Block.getShapeRows(pieces[depth], code >> 8);
+            int x = code & 0xFF;
+            long[] child = boards[depth + 1];
+            System.arraycopy(boards[depth], 0, child, 0, height);
+            landedY[depth] = y;
+            int rows = PlacementSearch.place(child, width, shape, x, y);
+            cleared[depth + 1] = cleared[depth] + rows;
+            if (rows == 0) {
+                long hash = hashes[depth];
+                int[] columnTops = tops[depth + 1];
+                System.arraycopy(tops[depth], 0, columnTops, 0, width);
+                for (int i = 0; i < shape.length; i++) {
+                    for (long bits = Board.shift(shape[i], x); bits != 0; bits &= bits - 1) {
+                        int column = Long.numberOfTrailingZeros(bits);
+                        hash ^= cellKeys[(y + i) * width + column];
+                        columnTops[column] = Math.min(columnTops[column], y + i);
+                    }
+                }
+                hashes[depth + 1] = hash;
+            } else {
+                // Everything above the cleared rows moved, so start again
+                hashes[depth + 1] = hash(child);
+                findTops(depth + 1);
+            }
+            return true;
+        }
+
+        private void findTops(int depth) {
+            long[] rows = boards[depth];
+            int[] columnTops = tops[depth];
+            Arrays.fill(columnTops, height);
+            long seen = 0;
+            for (int y = 0; y < height; y++) {
+                for (long bits = rows[y] & ~seen; bits != 0; bits &= bits - 1) {
+                    columnTops[Long.numberOfTrailingZeros(bits)] = y;
+                }
+                seen |= rows[y];
+            }
+        }
+
+        // Best value reachable from boards[depth] with pieces[depth] onwards: 0 for a perfect
+        // clear, otherwise ranked by holes, then blocks left unplaced, then filled cells
+        private int search(int depth) {
+            nodes++;
+            long[] rows = boards[depth];
+            if (cleared[depth] > cleared[depth - 1] && isEmpty(rows)) {
+                stopped = true;
+                return 0;
+            }
+            if (perfectOnly && !canStillClear(depth)) {
+                return DEAD_END;
+            }
+            if (depth == leafDepth) {
+                return perfectOnly ? DEAD_END : leafValue(rows, depth);
+            }
+
+            boolean stores = leafDepth - depth >= MIN_STORED_DEPTH;
+            long key = hashes[depth] ^ depthKeys[depth] ^ salt;
+            if (stores) {
+                probes++;
+                int stored = table.get(key);
+                if (stored != TranspositionTable.MISS) {
+                    hits++;
+                    return stored;
+                }
+            }
+
+            int best = DEAD_END;
+            for (int code : placementOrder[pieces[depth]]) {
+                if (stopped) {
+                    break;
+                }
+                if (place(depth, code)) {
+                    best = Math.min(best, search(depth + 1));
+                    if (best == 0) {
+                        break;
+                    }
+                }
+            }
+            if (best == DEAD_END && !perfectOnly) {
+                if (stopped) {
+                    return best;
+                }
+                // The blocks from here on don't fit, so the sequence ends here
+                best = leafValue(rows, depth);
+            }
+            // A search cut short by another thread's perfect clear isn't the whole answer
+            if (stores && (!stopped || best == 0)) {
+                table.put(key, best, leafDepth - depth);
+            }
+            return best;
+        }
+
+        // False if the band can't be filled exactly any more. Blocks are connected and drop
+        // from above, so none can cross a column filled to the top of the band. Line clears
+        // take a row from every column alike, so such a column stays full, and the empty cells
+        // between two of them have to be filled by whole blocks of four.
+        private boolean canStillClear(int depth) {
+            long[] rows = boards[depth];
+            long full = Board.getFullRow(width);
+            int bandTop = height - (lines - cleared[depth]);
+            long walls = full;
+            for (int y = bandTop; y < height; y++) {
+                walls &= rows[y];
+            }
+            if (walls == 0) {
+                return true;
+            }
+
+            long open = full & ~walls;
+            while (open != 0) {
+                // The lowest run of columns without a wall
+                long low = open & -open;
+                long region = open & ~(open + low);
+                open &= ~region;
+                int empty = 0;
+                for (int y = bandTop; y < height; y++) {
+                    empty += Long.bitCount(region & ~rows[y]);
+                }
+                if (empty % 4 != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int leafValue(long[] rows, int depth) {
+            int cells = width * height + 1;
+            int filled = 0;
+            for (long row : rows) {
+                filled += Long.bitCount(row);
+            }
+            return (countHoles(rows, width) * (MAX_PIECES + 1) + leafDepth - depth) * cells
+                    + filled;
+        }
+
+        // Follows the placements that give value from the root down, leaving boards along the
+        // path. Returns code, landing row and value for each placement.
+        int[] walk() {
+            List<Integer> path = new ArrayList<Integer>();
+            place(0, rootCode);
+            path.add(rootCode);
+            path.add(landedY[0]);
+            path.add(value);
+            int depth = 1;
+            while (depth < leafDepth && !(cleared[depth] > 0 && isEmpty(boards[depth]))) {
+                int next = -1;
+                for (int code : placementOrder[pieces[depth]]) {
+                    // Finding the perfect clear again mustn't cut short the rest of the walk
+                    stopped = false;
+                    if (place(depth, code) && search(depth + 1) == value) {
+                        next = code;
+                        break;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                path.add(next);
+                path.add(landedY[depth]);
+                path.add(value);
+                depth++;
+            }
+
+            int[] codes = new int[path.size()];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = path.get(i);
+            }
+            return codes;
+        }
+
+        private long hash(long[] rows) {
+            long hash = 0;
+            for (int y = 0; y < rows.length; y++) {
+                for (long bits = rows[y]; bits != 0; bits &= bits - 1) {
+                    hash ^= cellKeys[y * width + Long.numberOfTrailingZeros(bits)];
+                }
+            }
+            return hash;
+        }
+    }
+
+    // Searches every placement of the first block as its own fork-join task
+    private static class RootTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Search> roots;
+
+        RootTask(List<Search> roots) {
+            this.roots = roots;
+        }
+
+        @Override
+        protected void compute() {
+            List<SearchTask> tasks = new ArrayList<SearchTask>(roots.size());
+            for (Search search : roots) {
+                tasks.add(new SearchTask(search));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    // Searches from one placement of the first block
+    private static class SearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Search search;
+
+        SearchTask(Search search) {
+            this.search = search;
+        }
+
+        @Override
+        protected void compute() {
+            search.searchRoot();
+        }
+    }
+}
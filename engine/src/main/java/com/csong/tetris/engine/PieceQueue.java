@@ -0,0 +1,70 @@
+package com.csong.tetris.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The upcoming block types, as a fixed ring that is topped up from the randomizer each time a
+ * type is taken off the front. Nothing is allocated after construction.
+ */
+
+public class PieceQueue {
+    private final Randomizer randomizer;
+    private final GameRandom random;
+    private final int[] types;
+    // Index of the type that spawns next
+    private int head;
+
+    public PieceQueue(Randomizer randomizer, GameRandom random, int previewCount) {
+        if (previewCount < 1) {
+            throw new IllegalArgumentException("Need at least one preview");
+        }
+        this.randomizer = randomizer;
+        this.random = random;
+        this.types = new int[previewCount];
+    }
+
+    // Starts a new sequence from the generator's current state
+    public void reset() {
+        randomizer.reset();
+        head = 0;
+        for (int i = 0; i < types.length; i++) {
+            types[i] = randomizer.next(random);
+        }
+    }
+
+    // Removes and returns the next type, drawing a new one onto the end
+    public int take() {
+        int type = types[head];
+        types[head] = randomizer.next(random);
+        head = (head + 1) % types.length;
+        return type;
+    }
+
+    // The type i places from the front, 0 being the one that spawns next
+    public int peek(int i) {
+        return types[(head + i) % types.length];
+    }
+
+    public int getPreviewCount() {
+        return types.length;
+    }
+
+    public int getMaxStateSize() {
+        return types.length + randomizer.getMaxStateSize();
+    }
+
+    public void writeState(ByteBuffer out) {
+        for (int i = 0; i < types.length; i++) {
+            out.put((byte) peek(i));
+        }
+        randomizer.writeState(out);
+    }
+
+    public void readState(ByteBuffer in) {
+        head = 0;
+        for (int i = 0; i < types.length; i++) {
+            types[i] = in.get();
+        }
+        randomizer.readState(in);
+    }
+}
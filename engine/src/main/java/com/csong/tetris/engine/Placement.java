@@ -0,0 +1,37 @@
+package com.csong.tetris.engine;
+
+/**
+ * Where the placement search decided to put a block: the rotation to turn it to, the column
+ * of its top left tile and the row it will land on.
+ */
+
+public class Placement {
+    private final int rotation;
+    private final int x;
+    private final int y;
+    private final double score;
+
+    public Placement(int rotation, int x, int y, double score) {
+        this.rotation = rotation;
+        this.x = x;
+        this.y = y;
+        this.score = score;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    // The evaluator's score for the best board this placement leads to
+    public double getScore() {
+        return score;
+    }
+}
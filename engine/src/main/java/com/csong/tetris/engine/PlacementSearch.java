@@ -0,0 +1,240 @@
+package com.csong.tetris.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses where to put the active block. Every rotation and column the block can reach from
+ * where it is now is dropped onto a copy of the board, then every placement of each preview
+ * block after it, and the best scoring board at the end of the chain picks the placement.
+ *
+ * Each placement of the active block is an independent branch with its own scratch boards, so
+ * the branches can be handed to a ForkJoinPool and searched across cores. Scratch boards are
+ * allocated once per branch, not per placement tried.
+ */
+
+public class PlacementSearch {
+    private final BoardEvaluator evaluator;
+    private final AtomicLong placementsEvaluated = new AtomicLong();
+
+    public PlacementSearch(BoardEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    // Searches on the calling thread
+    public Placement findBest(Board board, Block block, int[] previews) {
+        return findBest(board, block, previews, null);
+    }
+
+    // Finds the best placement for block, looking ahead through the preview block types in the
+    // order they will spawn. Branches are searched on pool, or on the calling thread if pool is
+    // null. Returns null if the block can't be placed anywhere.
+    public Placement findBest(Board board, Block block, int[] previews, ForkJoinPool pool) {
+        List<Branch> branches = findBranches(board, block, previews);
+        if (branches.isEmpty()) {
+            return null;
+        }
+
+        if (pool != null) {
+            pool.invoke(new SearchTask(branches));
+        } else {
+            for (Branch branch : branches) {
+                branch.search();
+            }
+        }
+
+        Branch best = null;
+        long evaluated = 0;
+        for (Branch branch : branches) {
+            evaluated += branch.evaluated;
+            if (best == null || branch.score > best.score) {
+                best = branch;
+            }
+        }
+        placementsEvaluated.addAndGet(evaluated);
+        return new Placement(best.rotation, best.x, best.y, best.score);
+    }
+
+    // Total number of finished boards scored over every search so far
+    public long getPlacementsEvaluated() {
+        return placementsEvaluated.get();
+    }
+
+    // One branch per placement the block can reach by rotating where it is, then moving
+    // sideways until something stops it, then dropping. This is the order the autoplayer sends
+    // its inputs in, so any placement found here can be played.
+    private List<Branch> findBranches(Board board, Block block, int[] previews) {
+        int width = board.getWidth();
+        long[] rows = new long[board.getHeight()];
+        for (int y = 0; y < rows.length; y++) {
+            rows[y] = board.getRow(y);
+        }
+
+        List<Branch> branches = new ArrayList<Branch>();
+        int type = block.getType();
+        int rotation = block.getRotation();
+        int y = block.getY();
+        for (int turns = 0; turns < Block.getDistinctRotations(type); turns++) {
+            if (turns > 0) {
+                int next = (rotation + 1) % 4;
+                if (Board.collides(rows, width, Block.getShapeRows(type, next), block.getX(), y)) {
+                    break;
+                }
+                rotation = next;
+            }
+
+            int[] shape = Block.getShapeRows(type, rotation);
+            for (int x = block.getX(); !Board.collides(rows, width, shape, x, y); x--) {
+                branches.add(new Branch(evaluator, rows, width, previews, shape, rotation, x,
+                        dropY(rows, width, shape, x, y)));
+            }
+            for (int x = block.getX() + 1; !Board.collides(rows, width, shape, x, y); x++) {
+                branches.add(new Branch(evaluator, rows, width, previews, shape, rotation, x,
+                        dropY(rows, width, shape, x, y)));
+            }
+        }
+        return branches;
+    }
+
+    // Returns the row a shape at (x, y) comes to rest on if it falls straight down
+    static int dropY(long[] rows, int width, int[] shape, int x, int y) {
+        while (!Board.collides(rows, width, shape, x, y + 1)) {
+            y++;
+        }
+        return y;
+    }
+
+    // Fills the cells of a shape at (x, y) and removes any rows it completes. Returns the
+    // number of rows removed.
+    static int place(long[] rows, int width, int[] shape, int x, int y) {
+        long full = Board.getFullRow(width);
+        boolean completed = false;
+        for (int i = 0; i < shape.length; i++) {
+            if (shape[i] != 0) {
+                rows[y + i] |= Board.shift(shape[i], x);
+                completed |= rows[y + i] == full;
+            }
+        }
+        if (!completed) {
+            return 0;
+        }
+
+        int cleared = 0;
+        int write = rows.length - 1;
+        for (int read = rows.length - 1; read >= 0; read--) {
+            if (rows[read] == full) {
+                cleared++;
+            } else {
+                rows[write--] = rows[read];
+            }
+        }
+        while (write >= 0) {
+            rows[write--] = 0;
+        }
+        return cleared;
+    }
+
+    // The search below one placement of the active block
+    private static class Branch {
+        private final BoardEvaluator evaluator;
+        private final int width;
+        private final int[] previews;
+        final int rotation;
+        final int x;
+        final int y;
+
+        // boards[0] is the board after this placement, boards[i] after preview i - 1
+        private final long[][] boards;
+        private final int[] columnHeights;
+        private final int rootLines;
+
+        double score;
+        long evaluated;
+
+        Branch(BoardEvaluator evaluator, long[] rows, int width, int[] previews, int[] shape,
+               int rotation, int x, int y) {
+            this.evaluator = evaluator;
+            this.width = width;
+            this.previews = previews;
+            this.rotation = rotation;
+            this.x = x;
+            this.y = y;
+            this.boards = new long[previews.length + 1][rows.length];
+            this.columnHeights = new int[width];
+
+            System.arraycopy(rows, 0, boards[0], 0, rows.length);
+            rootLines = place(boards[0], width, shape, x, y);
+        }
+
+        void search() {
+            score = search(0, rootLines);
+        }
+
+        // Best score reachable once previews[depth] onwards are placed on boards[depth]
+        private double search(int depth, int lines) {
+            long[] rows = boards[depth];
+            if (depth == previews.length) {
+                evaluated++;
+                return evaluator.evaluate(rows, width, lines, columnHeights);
+            }
+
+            // Where the next block will spawn isn't known yet, so any placement it can drop
+            // into from the top row counts
+            double best = Double.NEGATIVE_INFINITY;
+            int type = previews[depth];
+            long[] child = boards[depth + 1];
+            for (int rotation = 0; rotation < Block.getDistinctRotations(type); rotation++) {
+                int[] shape = Block.getShapeRows(type, rotation);
+                for (int x = -3; x < width; x++) {
+                    if (Board.collides(rows, width, shape, x, 0)) {
+                        continue;
+                    }
+                    System.arraycopy(rows, 0, child, 0, rows.length);
+                    int landed = dropY(rows, width, shape, x, 0);
+                    int cleared = place(child, width, shape, x, landed);
+                    best = Math.max(best, search(depth + 1, lines + cleared));
+                }
+            }
+            return best;
+        }
+    }
+
+    // Searches every branch as its own fork-join task
+    private static class SearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Branch> branches;
+
+        SearchTask(List<Branch> branches) {
+            this.branches = branches;
+        }
+
+        @Override
+        protected void compute() {
+            List<BranchTask> tasks = new ArrayList<BranchTask>(branches.size());
+            for (Branch branch : branches) {
+                tasks.add(new BranchTask(branch));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    // Searches one branch
+    private static class BranchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Branch branch;
+
+        BranchTask(Branch branch) {
+            this.branch = branch;
+        }
+
+        @Override
+        protected void compute() {
+            branch.search();
+        }
+    }
+}
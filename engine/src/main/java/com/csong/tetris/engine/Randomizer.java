@@ -0,0 +1,23 @@
+package com.csong.tetris.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides which block type comes next. Implementations draw from the engine's GameRandom so a
+ * seed still fixes the whole sequence, and keep whatever else they remember (a bag, a history)
+ * in state that can go into a snapshot.
+ */
+
+public interface Randomizer {
+    // Forgets everything, as at the start of a game
+    void reset();
+
+    int next(GameRandom random);
+
+    // The most bytes writeState() can take
+    int getMaxStateSize();
+
+    void writeState(ByteBuffer out);
+
+    void readState(ByteBuffer in);
+}
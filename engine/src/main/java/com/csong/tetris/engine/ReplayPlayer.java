@@ -0,0 +1,61 @@
+package com.csong.tetris.engine;
+
+/**
+ * Plays the replays from a ReplayReader back on an engine. step() does what a game update
+ * does, applying the inputs that are due and then ticking, so the caller can run it once per
+ * frame tick for real time playback or in a loop to re-simulate as fast as possible.
+ */
+
+public class ReplayPlayer {
+    private final ReplayReader reader;
+    // The next input to apply, read ahead so its tick is known
+    private int pending = ReplayReader.END_OF_REPLAY;
+
+    public ReplayPlayer(ReplayReader reader) {
+        this.reader = reader;
+    }
+
+    // Resets engine to the start of the next replay in the archive. Returns false if there
+    // are no more replays.
+    public boolean nextReplay(GameEngine engine) {
+        if (!reader.nextReplay()) {
+            return false;
+        }
+        if (reader.getWidth() != engine.getWidth() || reader.getHeight() != engine.getHeight()) {
+            throw new IllegalArgumentException("Replay is for a " + reader.getWidth() + "x"
+                    + reader.getHeight() + " board");
+        }
+
+        engine.reset(reader.getSeed());
+        pending = reader.nextInput();
+        return true;
+    }
+
+    // Applies the inputs due before the engine's next tick, then ticks. Returns false instead
+    // once the replay has reached its end.
+    public boolean step(GameEngine engine) {
+        while (pending != ReplayReader.END_OF_REPLAY && reader.getTick() == engine.getTicks()) {
+            engine.handleInput(pending);
+            pending = reader.nextInput();
+        }
+        if (isFinished(engine)) {
+            return false;
+        }
+
+        engine.tick();
+        return true;
+    }
+
+    // Inputs left after the game is over wouldn't do anything, so the replay ends there too
+    public boolean isFinished(GameEngine engine) {
+        return engine.isGameOver()
+                || (pending == ReplayReader.END_OF_REPLAY && engine.getTicks() >= reader.getTick());
+    }
+
+    // Runs the rest of the current replay without any throttling
+    public void playToEnd(GameEngine engine) {
+        while (step(engine)) {
+            // Keep going until the last recorded tick
+        }
+    }
+}
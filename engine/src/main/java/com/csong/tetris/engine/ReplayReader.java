@@ -0,0 +1,149 @@
+package com.csong.tetris.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the replays written by ReplayRecorder one input at a time, straight out of a buffer.
+ * An archive on disk is memory-mapped rather than loaded, so the OS pages it in as playback
+ * gets to it and archives far bigger than the heap can be played back.
+ */
+
+public class ReplayReader {
+    // Returned by nextInput() once the current replay has no more inputs
+    public static final int END_OF_REPLAY = -1;
+
+    private final ByteBuffer buffer;
+    private boolean inReplay;
+    private int width;
+    private int height;
+    private long seed;
+    private long tick;
+    private int offset;
+
+    // What the current replay says its game ended with, once its END has been read
+    private long claimedScore;
+    private int claimedLines;
+    private int claimedPieces;
+    private boolean claimedGameOver;
+    private int claimedChecksum;
+
+    public ReplayReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    // Maps a replay archive file read-only
+    public static ReplayReader open(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            return new ReplayReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // Moves to the start of the next replay, skipping whatever is left of the current one.
+    // Returns false at the end of the archive.
+    public boolean nextReplay() {
+        skipToEnd();
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
+
+        offset = buffer.position();
+        if (buffer.getInt() != ReplayRecorder.MAGIC) {
+            throw new IllegalStateException("No replay at offset " + offset);
+        }
+        width = buffer.get() & 0xFF;
+        height = (int) readVarLong();
+        seed = buffer.getLong();
+        tick = 0;
+        inReplay = true;
+        return true;
+    }
+
+    // Returns the next Input of the current replay, which should be applied once the engine
+    // has run getTick() ticks. Returns END_OF_REPLAY after the last one, when getTick() is the
+    // tick the game ended on.
+    public int nextInput() {
+        if (!inReplay) {
+            return END_OF_REPLAY;
+        }
+
+        long value = readVarLong();
+        tick += value / ReplayRecorder.SYMBOLS;
+        int input = (int) (value % ReplayRecorder.SYMBOLS);
+        if (input == ReplayRecorder.END) {
+            inReplay = false;
+            claimedScore = readVarLong();
+            claimedLines = (int) readVarLong();
+            claimedPieces = (int) readVarLong();
+            claimedGameOver = buffer.get() != 0;
+            claimedChecksum = buffer.getInt();
+            return END_OF_REPLAY;
+        }
+        return input;
+    }
+
+    // Reads past whatever inputs are left in the current replay, e.g. those recorded after the
+    // game was already over, so the claims at its end can be read
+    public void skipToEnd() {
+        while (inReplay) {
+            nextInput();
+        }
+    }
+
+    // Where in the buffer the current replay starts
+    public int getOffset() {
+        return offset;
+    }
+
+    public long getClaimedScore() {
+        return claimedScore;
+    }
+
+    public int getClaimedLines() {
+        return claimedLines;
+    }
+
+    public int getClaimedPieces() {
+        return claimedPieces;
+    }
+
+    public boolean getClaimedGameOver() {
+        return claimedGameOver;
+    }
+
+    public int getClaimedChecksum() {
+        return claimedChecksum;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
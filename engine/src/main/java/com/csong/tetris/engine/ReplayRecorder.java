@@ -0,0 +1,99 @@
+package com.csong.tetris.engine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records a game as the seed it started from plus every input with the tick it was applied
+ * before. Since the engine is deterministic that is enough to play the game again exactly.
+ *
+ * The format is a header of a magic number, the board width as a byte, the height as a varint
+ * (one byte, as it always was, up to 127 rows) and the seed as 8 bytes, followed by one varint
+ * per input holding the ticks since the previous input times SYMBOLS plus the input. An END
+ * symbol holding the final tick closes the replay, so replays can be concatenated into an
+ * archive. Most inputs take one or two bytes.
+ *
+ * After END comes what the game claims to have ended with: score, lines cleared and pieces
+ * placed as varints, a byte that is 1 if the game was over, and the board's checksum as 4
+ * bytes. Playing the inputs back has to come to the same, which is how submitted games are
+ * checked.
+ */
+
+public class ReplayRecorder {
+    // "TRP5". Bumped when the engine changes how a seed plays out, so old replays are refused
+    // rather than played back wrong.
+    static final int MAGIC = 0x54525035;
+    // The symbol that ends a replay, after the real inputs
+    static final int END = Input.COUNT;
+    static final int SYMBOLS = Input.COUNT + 1;
+
+    private byte[] buffer = new byte[1024];
+    private int length;
+    private long lastTick;
+
+    // Discards anything recorded so far and starts a new replay
+    public void start(int width, int height, long seed) {
+        length = 0;
+        lastTick = 0;
+        writeInt(MAGIC);
+        writeByte(width);
+        writeVarLong(height);
+        writeInt((int) (seed >>> 32));
+        writeInt((int) seed);
+    }
+
+    // Records an input applied when the engine had run tick ticks
+    public void record(long tick, int input) {
+        writeVarLong((tick - lastTick) * SYMBOLS + input);
+        lastTick = tick;
+    }
+
+    // Closes the replay at the tick the engine has reached, followed by how its game ended
+    public void finish(GameEngine engine) {
+        record(engine.getTicks(), END);
+        writeVarLong(engine.getScore());
+        writeVarLong(engine.getLinesCleared());
+        writeVarLong(engine.getPiecesPlaced());
+        writeByte(engine.isGameOver() ? 1 : 0);
+        writeInt(engine.getBoard().getChecksum());
+    }
+
+    // Number of bytes recorded so far, header included
+    public int getLength() {
+        return length;
+    }
+
+    public byte[] toByteArray() {
+        byte[] copy = new byte[length];
+        System.arraycopy(buffer, 0, copy, 0, length);
+        return copy;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeInt(int value) {
+        writeByte(value >>> 24);
+        writeByte(value >>> 16);
+        writeByte(value >>> 8);
+        writeByte(value);
+    }
+
+    private void writeByte(int value) {
+        if (length == buffer.length) {
+            byte[] grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+        buffer[length++] = (byte) value;
+    }
+}
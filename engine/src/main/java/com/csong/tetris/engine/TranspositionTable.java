@@ -0,0 +1,99 @@
+package com.csong.tetris.engine;
+
+/**
+ * A fixed size hash table from 64-bit position keys to search results, shared by every thread
+ * of a search. Keys pick a bucket of two entries. The first keeps whichever position had the
+ * most search left below it, since that is the most work to repeat. The second always takes
+ * the newest position, so recent ones are found again even when the first is taken.
+ *
+ * Buckets are guarded by a fixed set of locks, bucket i by lock i % STRIPES, so threads only
+ * wait for each other when they touch buckets under the same lock. Nothing is allocated after
+ * construction.
+ */
+
+public class TranspositionTable {
+    // Returned by get() for a position that isn't stored
+    public static final int MISS = -1;
+
+    private static final int STRIPES = 64;
+
+    private final int mask;
+    // Bucket b is entries[4 * b] to entries[4 * b + 3]: the key and then value << 32 | depth of
+    // the entry kept by depth, then of the one always replaced. A bucket's 32 bytes are next to
+    // each other, so a lookup and the store after it touch one or two cache lines, though
+    // buckets aren't aligned to them. A key of 0 marks an empty entry.
+    private final long[] entries;
+    private final Object[] locks = new Object[STRIPES];
+
+    // Holds 2 ^ bits buckets of two entries
+    public TranspositionTable(int bits) {
+        if (bits < 1 || bits > 26) {
+            throw new IllegalArgumentException("bits must be between 1 and 26");
+        }
+        int buckets = 1 << bits;
+        mask = buckets - 1;
+        entries = new long[4 * buckets];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // Returns the value stored for key, or MISS
+    public int get(long key) {
+        key = nonZero(key);
+        int bucket = (int) (key ^ (key >>> 32)) & mask;
+        int entry = 4 * bucket;
+        synchronized (locks[bucket & (STRIPES - 1)]) {
+            if (entries[entry] == key) {
+                return (int) (entries[entry + 1] >>> 32);
+            }
+            if (entries[entry + 2] == key) {
+                return (int) (entries[entry + 3] >>> 32);
+            }
+        }
+        return MISS;
+    }
+
+    // Stores a non-negative value for key. depth is how much search the value stands for.
+    public void put(long key, int value, int depth) {
+        key = nonZero(key);
+        int bucket = (int) (key ^ (key >>> 32)) & mask;
+        int entry = 4 * bucket;
+        long data = (long) value << 32 | depth;
+        synchronized (locks[bucket & (STRIPES - 1)]) {
+            long deep = entries[entry];
+            if (deep == key || deep == 0 || depth >= (int) entries[entry + 1]) {
+                // A position pushed out of the deep entry still gets the other one
+                if (deep != key && deep != 0) {
+                    entries[entry + 2] = deep;
+                    entries[entry + 3] = entries[entry + 1];
+                }
+                entries[entry] = key;
+                entries[entry + 1] = data;
+            } else {
+                entries[entry + 2] = key;
+                entries[entry + 3] = data;
+            }
+        }
+    }
+
+    // Number of positions the table can hold
+    public int getCapacity() {
+        return entries.length / 2;
+    }
+
+    public void clear() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                for (int bucket = stripe; bucket <= mask; bucket += STRIPES) {
+                    entries[4 * bucket] = 0;
+                    entries[4 * bucket + 2] = 0;
+                }
+            }
+        }
+    }
+
+    private static long nonZero(long key) {
+        return key == 0 ? 1 : key;
+    }
+}
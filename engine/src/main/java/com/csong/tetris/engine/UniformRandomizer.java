@@ -0,0 +1,28 @@
+package com.csong.tetris.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Every type equally likely every time, with no memory. Long droughts and floods are possible.
+ */
+
+public class UniformRandomizer implements Randomizer {
+    @Override
+    public void reset() { }
+
+    @Override
+    public int next(GameRandom random) {
+        return random.nextInt(Block.TYPE_COUNT);
+    }
+
+    @Override
+    public int getMaxStateSize() {
+        return 0;
+    }
+
+    @Override
+    public void writeState(ByteBuffer out) { }
+
+    @Override
+    public void readState(ByteBuffer in) { }
+}
@@ -0,0 +1,494 @@
+package com.csong.tetris.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Many independent single player games stepped together, for training bots. Each step applies
+ * at most one Input per game and then ticks it, the same as GamePanel.update() does for one
+ * GameEngine, and a game follows exactly the rules, speeds and block sequence of a
+ * GameEngine with the same seed, 7-bag and DEFAULT_PREVIEW_COUNT previews. Placing a block is
+ * its rotations, moves and a DROP over consecutive steps.
+ *
+ * The games aren't objects. Every field is a flat primitive array indexed by game, with the
+ * board rows of game i at i * height to i * height + height - 1, so stepping thousands of
+ * games walks a few arrays instead of thousands of object graphs. Those arrays are also the
+ * observations: callers read them directly after each step and must not modify them.
+ *
+ * A game that ends is started again straight away with the next seed from its generator, and
+ * the step that ended it is marked in getDones(). Given a pool, each step splits the games into
+ * fixed ranges across its workers. The tasks for the ranges are made once, so stepping doesn't
+ * allocate.
+ */
+
+public class VectorEnv {
+    // An action that applies no input this step, only the tick
+    public static final int NO_INPUT = -1;
+
+    // Fewest games a task steps on its own, so splitting costs little next to the stepping
+    private static final int MIN_GAMES_PER_TASK = 256;
+    // Tasks per worker, so a worker that finishes early can steal from one that doesn't
+    private static final int TASKS_PER_WORKER = 4;
+
+    // Leftmost and one past the rightmost column each shape fills, relative to its x
+    private static final int[][] SHAPE_LEFT = new int[Block.TYPE_COUNT][4];
+    private static final int[][] SHAPE_RIGHT = new int[Block.TYPE_COUNT][4];
+
+    static {
+        for (int type = 0; type < Block.TYPE_COUNT; type++) {
+            for (int rotation = 0; rotation < 4; rotation++) {
+                int columns = 0;
+                for (int shapeRow : Block.getShapeRows(type, rotation)) {
+                    columns |= shapeRow;
+                }
+                SHAPE_LEFT[type][rotation] = Integer.numberOfTrailingZeros(columns);
+                SHAPE_RIGHT[type][rotation] = Integer.SIZE - Integer.numberOfLeadingZeros(columns);
+            }
+        }
+    }
+
+    private final int count;
+    private final int width;
+    private final int height;
+    private final int fullRow;
+    private final int previewCount;
+    private final GravityCurve gravityCurve = GravityCurve.standard();
+
+    private final int[] rows;
+    // The active block
+    private final int[] types;
+    private final int[] rotations;
+    private final int[] xs;
+    private final int[] ys;
+
+    // GameRandom state, the 7-bag with the types still to deal first, and the preview ring
+    private final long[] randomStates;
+    private final byte[] bags;
+    private final byte[] bagRemaining;
+    private final byte[] previews;
+    private final byte[] previewHeads;
+
+    private final long[] seeds;
+    private final int[] levels;
+    // Rows per tick and the part of a row fallen so far, both as GravityCurve fixed point
+    private final int[] gravity;
+    private final int[] gravityAccumulators;
+    private final long[] ticks;
+    private final int[] linesCleared;
+    private final int[] piecesPlaced;
+    private final long[] scores;
+
+    // Filled by every step
+    private final int[] rewards;
+    private final boolean[] dones;
+
+    private final ForkJoinPool pool;
+    private final StepTask root;
+    private final StepTask[] tasks;
+    private int[] actions;
+
+    // Starts count games from seeds seed, seed + 1 and so on. pool may be null to step every
+    // game on the calling thread.
+    public VectorEnv(int count, int width, int height, long seed, ForkJoinPool pool) {
+        // Rows are int masks here, and a full row has to fit below the sign bit
+        GameEngine.checkWidth(width, Integer.SIZE - 1);
+        this.count = count;
+        this.width = width;
+        this.height = height;
+        this.fullRow = (1 << width) - 1;
+        this.previewCount = GameEngine.DEFAULT_PREVIEW_COUNT;
+
+        rows = new int[count * height];
+        types = new int[count];
+        rotations = new int[count];
+        xs = new int[count];
+        ys = new int[count];
+        randomStates = new long[count];
+        bags = new byte[count * Block.TYPE_COUNT];
+        bagRemaining = new byte[count];
+        previews = new byte[count * previewCount];
+        previewHeads = new byte[count];
+        seeds = new long[count];
+        levels = new int[count];
+        gravity = new int[count];
+        gravityAccumulators = new int[count];
+        ticks = new long[count];
+        linesCleared = new int[count];
+        piecesPlaced = new int[count];
+        scores = new long[count];
+        rewards = new int[count];
+        dones = new boolean[count];
+
+        this.pool = pool;
+        int taskCount = 1;
+        if (pool != null) {
+            taskCount = Math.max(1, Math.min(pool.getParallelism() * TASKS_PER_WORKER,
+                    count / MIN_GAMES_PER_TASK));
+        }
+        tasks = new StepTask[2 * taskCount - 1];
+        root = buildTasks(0, count, taskCount, new int[1]);
+
+        reset(seed);
+    }
+
+    // Starts every game again, game i from seed + i
+    public void reset(long seed) {
+        for (int env = 0; env < count; env++) {
+            reset(env, seed + env);
+        }
+    }
+
+    // Starts one game again from seed, as GameEngine.reset() does
+    public void reset(int env, long seed) {
+        seeds[env] = seed;
+        randomStates[env] = seed;
+        Arrays.fill(rows, env * height, (env + 1) * height, 0);
+        levels[env] = 1;
+        gravity[env] = gravityCurve.getGravity(1);
+        gravityAccumulators[env] = 0;
+        ticks[env] = 0;
+        linesCleared[env] = 0;
+        piecesPlaced[env] = 0;
+        scores[env] = 0;
+
+        int bag = env * Block.TYPE_COUNT;
+        for (int i = 0; i < Block.TYPE_COUNT; i++) {
+            bags[bag + i] = (byte) i;
+        }
+        bagRemaining[env] = 0;
+        previewHeads[env] = 0;
+        for (int i = 0; i < previewCount; i++) {
+            previews[env * previewCount + i] = (byte) nextType(env);
+        }
+        spawn(env);
+    }
+
+    // Applies actions[i], an Input or NO_INPUT, to game i and ticks every game once. Rewards
+    // and dones are filled in for each game, and games that ended have already started again.
+    public void step(int[] actions) {
+        if (actions.length < count) {
+            throw new IllegalArgumentException("Need an action for each of the " + count
+                    + " games");
+        }
+        if (pool == null) {
+            step(actions, 0, count);
+            return;
+        }
+
+        this.actions = actions;
+        for (StepTask task : tasks) {
+            task.reinitialize();
+        }
+        pool.invoke(root);
+        this.actions = null;
+    }
+
+    private void step(int[] actions, int from, int to) {
+        for (int env = from; env < to; env++) {
+            long scoreBefore = scores[env];
+            int action = actions[env];
+            boolean over = action != NO_INPUT && handleInput(env, action);
+            if (!over) {
+                over = tick(env);
+            }
+            rewards[env] = (int) (scores[env] - scoreBefore);
+            dones[env] = over;
+            if (over) {
+                // The generator carries on where the last game left it
+                reset(env, randomStates[env]);
+            }
+        }
+    }
+
+    // Returns true if the input ended the game
+    private boolean handleInput(int env, int input) {
+        switch (input) {
+            case Input.MOVE_LEFT:
+                move(env, -1);
+                return false;
+            case Input.MOVE_RIGHT:
+                move(env, 1);
+                return false;
+            case Input.ROTATE:
+                int rotation = (rotations[env] + 1) & 3;
+                if (!collides(env, types[env], rotation, xs[env], ys[env])) {
+                    rotations[env] = rotation;
+                }
+                return false;
+            case Input.DROP:
+                ys[env] += getDropDistance(env);
+                gravityAccumulators[env] = 0;
+                return lock(env);
+            default:
+                throw new IllegalArgumentException("Unknown input " + input);
+        }
+    }
+
+    private void move(int env, int dx) {
+        int x = xs[env] + dx;
+        if (!collides(env, types[env], rotations[env], x, ys[env])) {
+            xs[env] = x;
+        }
+    }
+
+    // Returns true if the tick ended the game
+    private boolean tick(int env) {
+        ticks[env]++;
+        int accumulator = gravityAccumulators[env] + gravity[env];
+        int fallen = accumulator >>> GravityCurve.FRACTION_BITS;
+        if (fallen == 0) {
+            gravityAccumulators[env] = accumulator;
+            return false;
+        }
+        gravityAccumulators[env] = accumulator & (GravityCurve.ONE_ROW - 1);
+
+        int distance = getDropDistance(env);
+        if (distance == 0) {
+            return lock(env);
+        }
+        ys[env] += Math.min(fallen, distance);
+        return false;
+    }
+
+    // Merges the active block, clears full rows, scores and spawns the next block. Returns
+    // true if the next block has no room.
+    private boolean lock(int env) {
+        int base = env * height;
+        int[] shape = Block.getShapeRows(types[env], rotations[env]);
+        int x = xs[env];
+        int y = ys[env];
+        int cleared = 0;
+        for (int i = 0; i < shape.length; i++) {
+            if (shape[i] != 0 && y + i >= 0) {
+                rows[base + y + i] |= (int) Board.shift(shape[i], x);
+                if (rows[base + y + i] == fullRow) {
+                    cleared++;
+                }
+            }
+        }
+        if (cleared > 0) {
+            clearFullRows(base, Math.min(y + shape.length, height) - 1);
+        }
+
+        int level = levels[env];
+        scores[env] += (long) GameEngine.POINTS_FOR_LINES[Math.min(cleared,
+                GameEngine.POINTS_FOR_LINES.length - 1)] * level;
+        int lines = linesCleared[env];
+        int levelsGained = (lines + cleared) / GravityCurve.LINES_PER_LEVEL
+                - lines / GravityCurve.LINES_PER_LEVEL;
+        linesCleared[env] = lines + cleared;
+        piecesPlaced[env]++;
+        if (levelsGained > 0) {
+            levels[env] = level + levelsGained;
+            gravity[env] = gravityCurve.getGravity(level + levelsGained);
+        }
+        return spawn(env);
+    }
+
+    // Full rows can only be in the rows the block just landed in, at bottom and above, so
+    // everything is moved down from there
+    private void clearFullRows(int base, int bottom) {
+        int write = bottom;
+        for (int read = bottom; read >= 0; read--) {
+            int row = rows[base + read];
+            if (row != fullRow) {
+                rows[base + write--] = row;
+            }
+        }
+        for (; write >= 0; write--) {
+            rows[base + write] = 0;
+        }
+    }
+
+    // Returns true if the new block has no room
+    private boolean spawn(int env) {
+        int head = previewHeads[env];
+        int slot = env * previewCount + head;
+        int type = previews[slot];
+        previews[slot] = (byte) nextType(env);
+        previewHeads[env] = (byte) ((head + 1) % previewCount);
+
+        types[env] = type;
+        rotations[env] = Block.ZERO;
+        // Centred for a three wide block, a column left of centre on even widths
+        xs[env] = (width - 3) / 2;
+        ys[env] = 0;
+        return collides(env, type, Block.ZERO, xs[env], 0);
+    }
+
+    // Deals from the game's 7-bag as BagRandomizer does
+    private int nextType(int env) {
+        int remaining = bagRemaining[env];
+        if (remaining == 0) {
+            remaining = Block.TYPE_COUNT;
+        }
+
+        long state = randomStates[env] + GameRandom.GAMMA;
+        randomStates[env] = state;
+        int bag = env * Block.TYPE_COUNT;
+        int i = bag + GameRandom.scale(GameRandom.mix(state), remaining);
+        remaining--;
+        byte type = bags[i];
+        bags[i] = bags[bag + remaining];
+        bags[bag + remaining] = type;
+        bagRemaining[env] = (byte) remaining;
+        return type;
+    }
+
+    private int getDropDistance(int env) {
+        int type = types[env];
+        int rotation = rotations[env];
+        int x = xs[env];
+        int y = ys[env];
+        int distance = 0;
+        while (!collides(env, type, rotation, x, y + distance + 1)) {
+            distance++;
+        }
+        return distance;
+    }
+
+    private boolean collides(int env, int type, int rotation, int x, int y) {
+        if (x + SHAPE_LEFT[type][rotation] < 0 || x + SHAPE_RIGHT[type][rotation] > width) {
+            return true;
+        }
+
+        int[] shape = Block.getShapeRows(type, rotation);
+        int base = env * height;
+        for (int i = 0; i < shape.length; i++) {
+            int shapeRow = shape[i];
+            if (shapeRow == 0) {
+                continue;
+            }
+            int row = y + i;
+            if (row >= height) {
+                return true;
+            }
+            if (row >= 0 && (rows[base + row] & Board.shift(shapeRow, x)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Splits from to to into parts ranges, storing the tasks in tasks from next[0] on
+    private StepTask buildTasks(int from, int to, int parts, int[] next) {
+        StepTask task;
+        if (parts == 1) {
+            task = new StepTask(from, to, null, null);
+        } else {
+            int leftParts = parts / 2;
+            int middle = from + (int) ((long) (to - from) * leftParts / parts);
+            task = new StepTask(from, to, buildTasks(from, middle, leftParts, next),
+                    buildTasks(middle, to, parts - leftParts, next));
+        }
+        tasks[next[0]++] = task;
+        return task;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Row bitmasks of every board, without the active blocks. Row y of game i is at
+    // i * getHeight() + y.
+    public int[] getRows() {
+        return rows;
+    }
+
+    public int[] getTypes() {
+        return types;
+    }
+
+    public int[] getRotations() {
+        return rotations;
+    }
+
+    // Column of each active block's top left tile
+    public int[] getXs() {
+        return xs;
+    }
+
+    // Row of each active block's top left tile
+    public int[] getYs() {
+        return ys;
+    }
+
+    // Points each game scored in the last step
+    public int[] getRewards() {
+        return rewards;
+    }
+
+    // Set for each game that ended in the last step and has since started again
+    public boolean[] getDones() {
+        return dones;
+    }
+
+    // The type i places after game env's active block, up to the preview count
+    public int getPreview(int env, int i) {
+        return previews[env * previewCount + (previewHeads[env] + i) % previewCount];
+    }
+
+    public int getPreviewCount() {
+        return previewCount;
+    }
+
+    // The seed game env last started from
+    public long getSeed(int env) {
+        return seeds[env];
+    }
+
+    public long getTicks(int env) {
+        return ticks[env];
+    }
+
+    public long getScore(int env) {
+        return scores[env];
+    }
+
+    public int getLinesCleared(int env) {
+        return linesCleared[env];
+    }
+
+    public int getPiecesPlaced(int env) {
+        return piecesPlaced[env];
+    }
+
+    public int getLevel(int env) {
+        return levels[env];
+    }
+
+    // Steps a fixed range of games, or both halves of it in parallel
+    private class StepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final StepTask left;
+        private final StepTask right;
+
+        StepTask(int from, int to, StepTask left, StepTask right) {
+            this.from = from;
+            this.to = to;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        protected void compute() {
+            if (left == null) {
+                step(actions, from, to);
+            } else {
+                invokeAll(left, right);
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.csong.tetris.engine;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class BoardTest {
+    @Test
+    public void emptyBoard_onlyWallsAndFloorAreOccupied() throws Exception {
+        Board board = new Board(10, 20);
+
+        assertFalse(board.isOccupied(0, 0));
+        assertFalse(board.isOccupied(9, 19));
+        assertFalse(board.isOccupied(4, -1));
+        assertTrue(board.isOccupied(-1, 5));
+        assertTrue(board.isOccupied(10, 5));
+        assertTrue(board.isOccupied(4, 20));
+    }
+
+    @Test
+    public void fill_setsRowBitAndCellType() throws Exception {
+        Board board = new Board(10, 20);
+        board.fill(3, 19, Block.T);
+        board.fill(4, 19, Block.T);
+
+        assertEquals(0b11000, board.getRow(19));
+        assertTrue(board.isOccupied(3, 19));
+        assertEquals(Block.T, board.getCellType(4, 19));
+    }
+
+    @Test
+    public void fillAboveTopRow_isDropped() throws Exception {
+        Board board = new Board(10, 20);
+        board.fill(3, -1, Block.T);
+
+        assertFalse(board.isOccupied(3, -1));
+    }
+
+    @Test
+    public void clear_emptiesEveryRow() throws Exception {
+        Board board = new Board(10, 20);
+        board.fill(0, 0, Block.LINE);
+        board.fill(9, 19, Block.LINE);
+        board.clear();
+
+        for (int y = 0; y < board.getHeight(); y++) {
+            assertEquals(0, board.getRow(y));
+        }
+    }
+
+    @Test
+    public void collides_checksWallsFloorAndFilledCells() throws Exception {
+        Board board = new Board(10, 20);
+        // Horizontal line, one row of four tiles
+        int[] line = {0b1111};
+
+        assertFalse(board.collides(line, 0, 19));
+        assertFalse(board.collides(line, 6, 0));
+        assertFalse(board.collides(line, 3, -1));
+        assertTrue(board.collides(line, -1, 0));
+        assertTrue(board.collides(line, 7, 0));
+        assertTrue(board.collides(line, 0, 20));
+
+        board.fill(5, 19, Block.T);
+        assertTrue(board.collides(line, 2, 19));
+        assertFalse(board.collides(line, 6, 19));
+    }
+
+    @Test
+    public void merge_fillsEveryShapeRow() throws Exception {
+        Board board = new Board(10, 20);
+        // T pointing up
+        int[] t = {0b010, 0b111};
+        board.merge(t, 4, 18, Block.T);
+
+        assertEquals(0b0100000, board.getRow(18));
+        assertEquals(0b1110000, board.getRow(19));
+        assertEquals(Block.T, board.getCellType(6, 19));
+    }
+
+    @Test
+    public void merge_dropsRowsAboveTop() throws Exception {
+        Board board = new Board(10, 20);
+        int[] t = {0b010, 0b111};
+        board.merge(t, 0, -1, Block.T);
+
+        assertEquals(0b111, board.getRow(0));
+    }
+
+    @Test
+    public void clearFullRows_removesFullRowsAndMovesRowsAboveDown() throws Exception {
+        Board board = new Board(4, 6);
+        board.fill(1, 2, Block.T);
+        board.merge(new int[]{0b1111, 0b0111, 0b1111}, 0, 3, Block.LINE);
+
+        assertEquals(2, board.clearFullRows(3, 5));
+        assertEquals(0, board.getRow(3));
+        assertEquals(0b0010, board.getRow(4));
+        assertEquals(Block.T, board.getCellType(1, 4));
+        assertEquals(0b0111, board.getRow(5));
+        assertEquals(Block.LINE, board.getCellType(2, 5));
+    }
+
+    @Test
+    public void clearFullRows_ignoresRowsOutsideRange() throws Exception {
+        Board board = new Board(4, 6);
+        board.merge(new int[]{0b1111}, 0, 5, Block.LINE);
+
+        assertEquals(0, board.clearFullRows(2, 4));
+        assertEquals(0b1111, board.getRow(5));
+        assertEquals(1, board.clearFullRows(2, 5));
+        assertEquals(0, board.getRow(5));
+    }
+
+    @Test
+    public void clearFullRows_keepsCountsAfterCompaction() throws Exception {
+        Board board = new Board(4, 6);
+        board.merge(new int[]{0b0111, 0b1111}, 0, 4, Block.LINE);
+        board.clearFullRows(4, 5);
+
+        // The row that moved down becomes full once its last cell is filled
+        board.fill(3, 5, Block.T);
+        assertEquals(1, board.clearFullRows(5, 5));
+        for (int y = 0; y < board.getHeight(); y++) {
+            assertEquals(0, board.getRow(y));
+        }
+    }
+
+    @Test
+    public void newBoard_isFullyDamaged() throws Exception {
+        Board board = new Board(4, 6);
+
+        assertTrue(board.hasDamage());
+        assertEquals(0, board.getDamageTop());
+        assertEquals(5, board.getDamageBottom());
+        assertEquals(0b1111, board.getDamage(3));
+    }
+
+    @Test
+    public void boardWithoutDamage_neverHasAny() throws Exception {
+        Board board = new Board(4, 6, false);
+        assertFalse(board.hasDamage());
+
+        board.merge(new int[]{0b1111}, 0, 5, Block.LINE);
+        board.fill(1, 4, Block.T);
+        board.clearFullRows(5, 5);
+        Board other = new Board(4, 6);
+        other.fill(2, 5, Block.S);
+        board.copyFrom(other);
+        assertFalse(board.hasDamage());
+        assertEquals(0, board.getDamage(5));
+        assertEquals(other.getChecksum(), board.getChecksum());
+    }
+
+    @Test
+    public void merge_damagesOnlyTheMergedCells() throws Exception {
+        Board board = new Board(10, 20);
+        board.clearDamage();
+        assertFalse(board.hasDamage());
+
+        board.merge(new int[]{0b010, 0b111}, 4, 18, Block.T);
+        assertEquals(18, board.getDamageTop());
+        assertEquals(19, board.getDamageBottom());
+        assertEquals(0b0100000, board.getDamage(18));
+        assertEquals(0b1110000, board.getDamage(19));
+        assertEquals(0, board.getDamage(17));
+    }
+
+    @Test
+    public void clearFullRows_damagesEveryRowThatMoved() throws Exception {
+        Board board = new Board(4, 6);
+        board.fill(1, 3, Block.T);
+        board.merge(new int[]{0b1111}, 0, 5, Block.LINE);
+        board.clearDamage();
+
+        board.clearFullRows(5, 5);
+        assertEquals(3, board.getDamageTop());
+        assertEquals(5, board.getDamageBottom());
+        assertEquals(0b1111, board.getDamage(4));
+    }
+
+    @Test
+    public void copyFrom_damagesOnlyCellsThatDiffer() throws Exception {
+        Board board = new Board(4, 6);
+        board.fill(0, 5, Block.T);
+        board.fill(1, 5, Block.L);
+        Board copy = new Board(4, 6);
+        copy.copyFrom(board);
+        copy.clearDamage();
+
+        // One cell changes type and one appears
+        board.fill(1, 5, Block.S);
+        board.fill(2, 4, Block.Z);
+        copy.copyFrom(board);
+        assertEquals(4, copy.getDamageTop());
+        assertEquals(5, copy.getDamageBottom());
+        assertEquals(0b0100, copy.getDamage(4));
+        assertEquals(0b0010, copy.getDamage(5));
+        assertEquals(board.getChecksum(), copy.getChecksum());
+        assertEquals(4, copy.getColumnTop(2));
+
+        // Damage that hasn't been cleared yet is kept
+        board.clear();
+        copy.copyFrom(board);
+        assertEquals(0b0100, copy.getDamage(4));
+        assertEquals(0b0011, copy.getDamage(5));
+        assertEquals(6, copy.getColumnTop(0));
+    }
+
+    @Test
+    public void dropDistance_matchesFallingOneRowAtATime() throws Exception {
+        Board board = new Board(10, 20);
+        board.fill(2, 19, Block.L);
+        board.fill(4, 17, Block.L);
+
+        for (int type = 0; type < Block.TYPE_COUNT; type++) {
+            for (int x = 0; x < 7; x++) {
+                Block block = new Block(type, x, 0);
+                int distance = block.getDropDistance(board);
+                int fallen = 0;
+                while (!block.update(board)) {
+                    fallen++;
+                }
+                assertEquals(fallen, distance);
+            }
+        }
+    }
+
+    @Test
+    public void columnTops_followFillsAndClears() throws Exception {
+        Board board = new Board(4, 6);
+        assertEquals(6, board.getColumnTop(0));
+        assertEquals(0, board.getColumnHeight(0));
+
+        board.fill(1, 2, Block.T);
+        board.merge(new int[]{0b1111, 0b0111}, 0, 4, Block.LINE);
+        assertEquals(4, board.getColumnTop(0));
+        assertEquals(2, board.getColumnTop(1));
+        assertEquals(4, board.getColumnTop(3));
+
+        board.clearFullRows(4, 5);
+        assertEquals(5, board.getColumnTop(0));
+        assertEquals(3, board.getColumnTop(1));
+        assertEquals(5, board.getColumnTop(2));
+        assertEquals(6, board.getColumnTop(3));
+
+        board.clear();
+        assertEquals(6, board.getColumnTop(1));
+    }
+
+    @Test
+    public void dropDistance_fallsBackUnderAnOverhang() throws Exception {
+        Board board = new Board(10, 20);
+        // A roof over columns 0 to 2 with room for a flat line underneath it
+        board.merge(new int[]{0b111}, 0, 17, Block.LINE);
+        Block line = new Block(Block.LINE, Block.CLOCKWISE, 0, 18);
+        int[] shape = Block.getShapeRows(Block.LINE, Block.CLOCKWISE);
+
+        assertEquals(board.getDropDistance(shape, 0, 18), line.getDropDistance(board));
+        assertEquals(1, line.getDropDistance(board));
+    }
+
+    @Test
+    public void dropDistance_matchesProbingAsTheBoardChanges() throws Exception {
+        Board board = new Board(10, 20);
+        GameRandom random = new GameRandom(7);
+        for (int piece = 0; piece < 500; piece++) {
+            int type = random.nextInt(Block.TYPE_COUNT);
+            int rotation = random.nextInt(4);
+            int[] shape = Block.getShapeRows(type, rotation);
+            int x = random.nextInt(8);
+            if (board.collides(shape, x, 0)) {
+                board.clear();
+                continue;
+            }
+
+            Block block = new Block(type, rotation, x, 0);
+            int distance = block.getDropDistance(board);
+            assertEquals(board.getDropDistance(shape, x, 0), distance);
+            block.fall(distance);
+            block.mergeInto(board);
+
+            for (int column = 0; column < board.getWidth(); column++) {
+                int top = 0;
+                while (top < board.getHeight() && !board.isOccupied(column, top)) {
+                    top++;
+                }
+                assertEquals(top, board.getColumnTop(column));
+            }
+        }
+    }
+
+    @Test
+    public void addGarbage_pushesRowsUp() throws Exception {
+        Board board = new Board(4, 6);
+        board.fill(2, 5, Block.T);
+        assertTrue(board.addGarbage(2, 1));
+
+        assertEquals(0b0100, board.getRow(3));
+        assertEquals(Block.T, board.getCellType(2, 3));
+        assertEquals(0b1101, board.getRow(4));
+        assertEquals(0b1101, board.getRow(5));
+        assertEquals(Board.GARBAGE, board.getCellType(0, 5));
+        assertEquals(3, board.getColumnTop(2));
+        assertEquals(6, board.getColumnTop(1));
+
+        // Garbage only clears once its hole is filled
+        board.fill(1, 5, Block.LINE);
+        assertEquals(1, board.clearFullRows(4, 5));
+        assertFalse(board.addGarbage(5, 0));
+    }
+
+    @Test
+    public void checksum_dependsOnCellsAndTypes() throws Exception {
+        Board board = new Board(10, 20);
+        Board other = new Board(10, 20);
+        assertEquals(board.getChecksum(), other.getChecksum());
+
+        board.fill(3, 19, Block.T);
+        other.fill(3, 19, Block.L);
+        assertNotEquals(board.getChecksum(), other.getChecksum());
+
+        // The same cell reached another way, with a row cleared under it
+        other.clear();
+        other.merge(new int[]{0b1000, 0b1111111111}, 0, 18, Block.T);
+        other.clearFullRows(18, 19);
+        assertEquals(board.getChecksum(), other.getChecksum());
+    }
+
+    @Test
+    public void wideBoard_usesAll64Columns() throws Exception {
+        Board board = new Board(64, 3000);
+        int[] line = Block.getShapeRows(Block.LINE, Block.CLOCKWISE);
+        assertTrue(board.collides(line, 61, 2999));
+        assertEquals(0, board.getDropDistance(line, 60, 2999));
+
+        board.merge(line, 60, 2999, Block.LINE);
+        assertEquals(0xFL << 60, board.getRow(2999));
+        assertEquals(Block.LINE, board.getCellType(63, 2999));
+        assertEquals(2999, board.getColumnTop(63));
+        for (int x = 0; x < 60; x++) {
+            board.fill(x, 2999, Block.T);
+        }
+        board.fill(63, 2998, Block.S);
+
+        assertEquals(1, board.clearFullRows(2999, 2999));
+        assertEquals(1L << 63, board.getRow(2999));
+        assertEquals(Block.S, board.getCellType(63, 2999));
+        assertEquals(2999, board.getColumnTop(63));
+        assertEquals(3000, board.getColumnTop(0));
+    }
+
+    @Test
+    public void tallBoard_savesAndClearsOnlyTheStack() throws Exception {
+        Board board = new Board(64, 3000);
+        board.fill(63, 2990, Block.Z);
+        board.fill(0, 2999, Block.T);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        board.writeTo(buffer);
+        buffer.flip();
+
+        Board restored = new Board(64, 3000);
+        restored.readFrom(buffer);
+        assertFalse(buffer.hasRemaining());
+        assertEquals(1L << 63, restored.getRow(2990));
+        assertEquals(Block.Z, restored.getCellType(63, 2990));
+        assertEquals(board.getChecksum(), restored.getChecksum());
+
+        // The empty rows above the stack are left alone
+        board.clearDamage();
+        board.clear();
+        assertEquals(2990, board.getDamageTop());
+        assertEquals(1L << 63, board.getDamage(2990));
+        assertEquals(0, board.getRow(2990));
+    }
+}
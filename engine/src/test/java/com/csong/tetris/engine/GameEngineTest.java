@@ -0,0 +1,399 @@
+package com.csong.tetris.engine;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GameEngineTest {
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 20;
+
+    @Test
+    public void sameSeedAndInputs_playTheSameGame() throws Exception {
+        GameEngine first = new GameEngine(WIDTH, HEIGHT, 42);
+        GameEngine second = new GameEngine(WIDTH, HEIGHT, 42);
+        play(first, new Random(7), 5000);
+        play(second, new Random(7), 5000);
+
+        assertEquals(first.getPiecesPlaced(), second.getPiecesPlaced());
+        assertEquals(first.getLinesCleared(), second.getLinesCleared());
+        assertEquals(first.isGameOver(), second.isGameOver());
+        for (int y = 0; y < HEIGHT; y++) {
+            assertEquals(first.getBoard().getRow(y), second.getBoard().getRow(y));
+        }
+    }
+
+    @Test
+    public void blockFallsOneRowPerGravityStep() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1);
+        int startY = engine.getActiveBlock().getY();
+        int ticksPerRow = GameEngine.TICKS_PER_SECOND / GameEngine.DEFAULT_FALL_SPEED;
+
+        for (int i = 0; i < ticksPerRow - 1; i++) {
+            engine.tick();
+        }
+        assertEquals(startY, engine.getActiveBlock().getY());
+
+        engine.tick();
+        assertEquals(startY + 1, engine.getActiveBlock().getY());
+    }
+
+    @Test
+    public void ticksUntilFall_countsDownToTheNextRow() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1);
+        engine.setGravity(GravityCurve.ONE_ROW / 4);
+        int startY = engine.getActiveBlock().getY();
+
+        assertEquals(4, engine.getTicksUntilFall());
+        for (int i = 0; i < 3; i++) {
+            engine.tick();
+        }
+        assertEquals(1, engine.getTicksUntilFall());
+        assertEquals(startY, engine.getActiveBlock().getY());
+        engine.tick();
+        assertEquals(startY + 1, engine.getActiveBlock().getY());
+    }
+
+    @Test
+    public void fractionalGravity_carriesOverBetweenTicks() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1);
+        int startY = engine.getActiveBlock().getY();
+        // One and a half rows per tick
+        engine.setGravity(GravityCurve.ONE_ROW * 3 / 2);
+
+        engine.tick();
+        assertEquals(startY + 1, engine.getActiveBlock().getY());
+        engine.tick();
+        assertEquals(startY + 3, engine.getActiveBlock().getY());
+    }
+
+    @Test
+    public void twentyG_landsInOneTickAndLocksOnTheNext() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1);
+        engine.setGravity(GravityCurve.MAX_GRAVITY);
+        Block block = engine.getActiveBlock();
+
+        engine.tick();
+        assertEquals(0, block.getDropDistance(engine.getBoard()));
+        assertEquals(0, engine.getPiecesPlaced());
+
+        engine.tick();
+        assertEquals(1, engine.getPiecesPlaced());
+    }
+
+    @Test
+    public void standardCurve_speedsUpToTwentyG() throws Exception {
+        GravityCurve curve = GravityCurve.standard();
+        assertEquals(GravityCurve.fromRowsPerSecond(GameEngine.DEFAULT_FALL_SPEED),
+                curve.getGravity(1));
+        for (int level = 2; level <= curve.getLevelCount(); level++) {
+            assertTrue(curve.getGravity(level) >= curve.getGravity(level - 1));
+        }
+        assertEquals(GravityCurve.MAX_GRAVITY, curve.getGravity(curve.getLevelCount()));
+        assertEquals(GravityCurve.MAX_GRAVITY, curve.getGravity(100));
+    }
+
+    @Test
+    public void blockLocksOnTheFloor() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1);
+        engine.setFallSpeed(GameEngine.TICKS_PER_SECOND);
+        Block first = engine.getActiveBlock();
+
+        while (engine.getPiecesPlaced() == 0) {
+            engine.tick();
+        }
+
+        assertNotSame(first, engine.getActiveBlock());
+        assertNotEquals(0, engine.getBoard().getRow(HEIGHT - 1));
+    }
+
+    @Test
+    public void spawn_reusesBlocksAndFollowsThePreview() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1);
+        Block first = engine.getActiveBlock();
+        int next = engine.getNextType();
+        engine.hardDrop();
+        assertEquals(next, engine.getActiveBlock().getType());
+
+        engine.hardDrop();
+        assertSame(first, engine.getActiveBlock());
+    }
+
+    @Test
+    public void movesStopAtTheWalls() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1);
+        while (engine.moveLeft()) {
+            // Keep going until the wall stops it
+        }
+        assertFalse(engine.getActiveBlock().canMove(engine.getBoard(), -1, 0));
+        assertEquals(0, engine.getActiveBlock().getX());
+
+        while (engine.moveRight()) {
+            // Keep going until the wall stops it
+        }
+        assertFalse(engine.getActiveBlock().canMove(engine.getBoard(), 1, 0));
+    }
+
+    @Test
+    public void move_leavesTheBoardUndamaged() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1);
+        engine.moveRight();
+        engine.getBoard().clearDamage();
+
+        // The active block isn't part of the board, a renderer draws it from the snapshot
+        assertTrue(engine.moveLeft());
+        engine.rotate();
+        engine.tick();
+        assertFalse(engine.getBoard().hasDamage());
+    }
+
+    @Test
+    public void hardDrop_locksOnTheFloorAndSpawnsTheNextBlock() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1);
+        Block first = engine.getActiveBlock();
+        engine.handleInput(Input.DROP);
+
+        assertEquals(1, engine.getPiecesPlaced());
+        assertNotSame(first, engine.getActiveBlock());
+        // The dropped block rests on the floor and is now part of the board
+        assertNotEquals(0, first.getRowMask(HEIGHT - 1));
+        assertEquals(first.getRowMask(HEIGHT - 1), engine.getBoard().getRow(HEIGHT - 1));
+    }
+
+    @Test
+    public void ghostY_isWhereHardDropLeavesTheBlock() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1);
+        for (int piece = 0; piece < 20 && !engine.isGameOver(); piece++) {
+            engine.moveLeft();
+            Block block = engine.getActiveBlock();
+            int ghostY = engine.getGhostY();
+            engine.hardDrop();
+            assertEquals(ghostY, block.getY());
+        }
+    }
+
+    @Test
+    public void gameEndsWhenBlocksReachTheTop() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 3);
+        engine.setFallSpeed(GameEngine.TICKS_PER_SECOND);
+        for (int i = 0; i < 100000 && !engine.isGameOver(); i++) {
+            engine.tick();
+        }
+
+        assertTrue(engine.isGameOver());
+        long ticks = engine.getTicks();
+        engine.tick();
+        assertEquals(ticks, engine.getTicks());
+    }
+
+    @Test
+    public void receivedGarbage_risesWhenABlockLocksWithoutClearing() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1);
+        engine.receiveGarbage(2, 3);
+        assertEquals(2, engine.getPendingGarbage());
+
+        engine.hardDrop();
+        assertEquals(0, engine.getPendingGarbage());
+        int garbageRow = ((1 << WIDTH) - 1) & ~(1 << 3);
+        assertEquals(garbageRow, engine.getBoard().getRow(HEIGHT - 1));
+        assertEquals(garbageRow, engine.getBoard().getRow(HEIGHT - 2));
+        assertEquals(Board.GARBAGE, engine.getBoard().getCellType(0, HEIGHT - 1));
+    }
+
+    @Test
+    public void clearingTwoRows_sendsGarbage() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1, new OnlyLines(), 1);
+        fillAroundLanding(engine);
+        engine.hardDrop();
+
+        assertEquals(2, engine.getLinesCleared());
+        assertEquals(1, engine.getGarbageSent());
+    }
+
+    @Test
+    public void clearingRows_scoresByLevel() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1, new OnlyLines(), 1);
+        engine.setLevel(3);
+        fillAroundLanding(engine);
+        engine.hardDrop();
+
+        assertEquals(100 * 3, engine.getScore());
+    }
+
+    @Test
+    public void clearingRows_cancelsPendingGarbageFirst() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1, new OnlyLines(), 1);
+        engine.receiveGarbage(3, 0);
+        fillAroundLanding(engine);
+        engine.hardDrop();
+
+        assertEquals(0, engine.getGarbageSent());
+        assertEquals(2, engine.getPendingGarbage());
+        // Only what was left of the line, no garbage has risen
+        assertEquals(1 << engine.getActiveBlock().getX(), engine.getBoard().getRow(HEIGHT - 1));
+    }
+
+    @Test
+    public void garbagePushedOffTheTop_endsTheGame() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 1);
+        engine.receiveGarbage(HEIGHT, 0);
+        engine.hardDrop();
+
+        assertTrue(engine.isGameOver());
+    }
+
+    @Test
+    public void narrowestBoard_spawnsEveryBlockInside() throws Exception {
+        GameEngine engine = new GameEngine(GameEngine.MIN_WIDTH, HEIGHT, 1);
+        for (int i = 0; i < Block.TYPE_COUNT; i++) {
+            assertFalse(engine.isGameOver());
+            Block block = engine.getActiveBlock();
+            for (int y = block.getY(); y < block.getY() + 4; y++) {
+                assertEquals(0, block.getRowMask(y) & ~Board.getFullRow(GameEngine.MIN_WIDTH));
+            }
+            engine.handleInput(Input.DROP);
+        }
+        assertEquals(Block.TYPE_COUNT, engine.getPiecesPlaced());
+    }
+
+    @Test
+    public void tooNarrowBoard_isRejected() throws Exception {
+        try {
+            new GameEngine(GameEngine.MIN_WIDTH - 1, HEIGHT, 1);
+            fail("Expected a board too narrow for the line block to be rejected");
+        } catch (IllegalArgumentException e) {
+            // The line block wouldn't fit across it
+        }
+    }
+
+    @Test
+    public void wideTallSnapshot_restoresTheBoard() throws Exception {
+        GameEngine engine = new GameEngine(64, 1000, 3);
+        for (int i = 0; i < 20; i++) {
+            // Every other block goes up against the right wall
+            for (int move = 0; i % 2 == 0 && move < 64; move++) {
+                engine.moveRight();
+            }
+            engine.hardDrop();
+        }
+        ByteBuffer snapshot = ByteBuffer.allocate(engine.getMaxSnapshotSize());
+        engine.writeSnapshot(snapshot);
+        snapshot.flip();
+
+        GameEngine restored = new GameEngine(64, 1000, 0);
+        restored.readSnapshot(snapshot);
+        assertFalse(snapshot.hasRemaining());
+        assertEquals(engine.getBoard().getChecksum(), restored.getBoard().getChecksum());
+        assertEquals(engine.getGhostY(), restored.getGhostY());
+        assertTrue(engine.getBoard().getColumnTop(63) < 1000);
+    }
+
+    @Test
+    public void restoredSnapshot_playsOnTheSame() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 8);
+        play(engine, new Random(4), 3000);
+        ByteBuffer snapshot = ByteBuffer.allocate(engine.getMaxSnapshotSize());
+        engine.writeSnapshot(snapshot);
+        snapshot.flip();
+
+        GameEngine restored = new GameEngine(WIDTH, HEIGHT, 0);
+        restored.readSnapshot(snapshot);
+        assertFalse(snapshot.hasRemaining());
+        assertEquals(engine.getTicks(), restored.getTicks());
+        assertEquals(engine.getNextType(), restored.getNextType());
+
+        play(engine, new Random(5), 5000);
+        play(restored, new Random(5), 5000);
+        assertEquals(engine.getPiecesPlaced(), restored.getPiecesPlaced());
+        assertEquals(engine.getLinesCleared(), restored.getLinesCleared());
+        assertEquals(engine.getActiveBlock().getX(), restored.getActiveBlock().getX());
+        for (int y = 0; y < HEIGHT; y++) {
+            assertEquals(engine.getBoard().getRow(y), restored.getBoard().getRow(y));
+            for (int x = 0; x < WIDTH; x++) {
+                if (engine.getBoard().isOccupied(x, y)) {
+                    assertEquals(engine.getBoard().getCellType(x, y),
+                            restored.getBoard().getCellType(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void simulatesThousandsOfGames() throws Exception {
+        Random inputs = new Random(11);
+        int games = 2000;
+        long pieces = 0;
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 0);
+        for (int i = 0; i < games; i++) {
+            engine.reset(i);
+            engine.setFallSpeed(GameEngine.TICKS_PER_SECOND);
+            play(engine, inputs, Integer.MAX_VALUE);
+            assertTrue(engine.isGameOver());
+            pieces += engine.getPiecesPlaced();
+        }
+        assertTrue(pieces > games);
+    }
+
+    // Ticks until the game ends or maxTicks have run, with random moves along the way
+    private static void play(GameEngine engine, Random inputs, int maxTicks) {
+        for (int i = 0; i < maxTicks && !engine.isGameOver(); i++) {
+            switch (inputs.nextInt(8)) {
+                case 0:
+                    engine.moveLeft();
+                    break;
+                case 1:
+                    engine.moveRight();
+                    break;
+                case 2:
+                    engine.rotate();
+                    break;
+                default:
+                    break;
+            }
+            engine.tick();
+        }
+    }
+
+    // Fills the bottom two rows everywhere the active block won't cover once dropped, so the
+    // drop clears both. Needs a block with no overhang, such as an upright line.
+    private static void fillAroundLanding(GameEngine engine) {
+        Block block = engine.getActiveBlock();
+        int distance = engine.getGhostY() - block.getY();
+        for (int y = HEIGHT - 2; y < HEIGHT; y++) {
+            long covered = block.getRowMask(y - distance);
+            for (int x = 0; x < WIDTH; x++) {
+                if ((covered & (1L << x)) == 0) {
+                    engine.getBoard().fill(x, y, Block.L);
+                }
+            }
+        }
+    }
+
+    // Deals nothing but lines, which spawn upright
+    private static class OnlyLines implements Randomizer {
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public int next(GameRandom random) {
+            return Block.LINE;
+        }
+
+        @Override
+        public int getMaxStateSize() {
+            return 0;
+        }
+
+        @Override
+        public void writeState(ByteBuffer out) {
+        }
+
+        @Override
+        public void readState(ByteBuffer in) {
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.csong.tetris.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void emptyHistogram_reportsZero() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.99));
+        assertEquals(0, histogram.getMean());
+    }
+
+    @Test
+    public void smallValues_areExact() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(5, histogram.getPercentile(0.5));
+        assertEquals(10, histogram.getPercentile(1));
+        assertEquals(10, histogram.getMax());
+    }
+
+    @Test
+    public void percentiles_areWithinBucketPrecision() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1000; nanos <= 100000000; nanos += 1000) {
+            histogram.record(nanos);
+        }
+
+        assertWithin(50000000, histogram.getPercentile(0.5));
+        assertWithin(99000000, histogram.getPercentile(0.99));
+        assertEquals(100000000, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void bucketBounds_coverEveryValueOnce() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long previous = -1;
+        for (int i = 0; i < histogram.getBucketCount(); i++) {
+            long lower = histogram.getBucketLowerBound(i);
+            assertTrue(lower > previous);
+            previous = lower;
+        }
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(1, histogram.getBucketCountAt(histogram.getBucketCount() - 1));
+    }
+
+    @Test
+    public void copyInto_andReset() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(123456);
+        LatencyHistogram copy = new LatencyHistogram();
+        histogram.copyInto(copy);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(1, copy.getCount());
+        assertEquals(123456, copy.getMax());
+    }
+
+    @Test
+    public void add_combinesCountsAndMax() throws Exception {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(100);
+        second.record(1000);
+        second.record(3000);
+        first.add(second);
+
+        assertEquals(3, first.getCount());
+        assertEquals(3000, first.getMax());
+        assertEquals(1366, first.getMean());
+        assertEquals(1000, first.getPercentile(0.5), 1000 / 16);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / 16);
+    }
+}
@@ -0,0 +1,168 @@
+package com.csong.tetris.engine;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class PerfectClearSolverTest {
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 20;
+
+    @Test
+    public void wellFourWide_isClearedByFourLines() throws Exception {
+        // Four rows full apart from the first four columns
+        Board board = new Board(WIDTH, HEIGHT);
+        for (int y = HEIGHT - 4; y < HEIGHT; y++) {
+            for (int x = 4; x < WIDTH; x++) {
+                board.fill(x, y, Block.SQUARE);
+            }
+        }
+        int[] pieces = {Block.LINE, Block.LINE, Block.LINE, Block.LINE};
+
+        PerfectClearSolver.Solution solution = new PerfectClearSolver(WIDTH, HEIGHT, 12)
+                .solve(board, pieces, 4);
+
+        assertTrue(solution.isPerfectClear());
+        assertEquals(0, solution.getHoles());
+        assertEquals(4, solution.getPlacements().length);
+        for (Placement placement : solution.getPlacements()) {
+            // Lines spawn upright
+            assertEquals(Block.ZERO, placement.getRotation());
+        }
+        assertTrue(solution.getNodes() > 0);
+        assertEmptyAfter(board, pieces, solution);
+    }
+
+    @Test
+    public void cellsAboveTheLines_ruleOutAPerfectClear() throws Exception {
+        // The four wide well again, with four more cells on the row above it
+        Board board = new Board(WIDTH, HEIGHT);
+        for (int y = HEIGHT - 4; y < HEIGHT; y++) {
+            for (int x = 4; x < WIDTH; x++) {
+                board.fill(x, y, Block.SQUARE);
+            }
+        }
+        for (int x = 6; x < WIDTH; x++) {
+            board.fill(x, HEIGHT - 5, Block.SQUARE);
+        }
+        int[] pieces = {Block.LINE, Block.LINE, Block.LINE, Block.LINE};
+
+        PerfectClearSolver.Solution solution = new PerfectClearSolver(WIDTH, HEIGHT, 12)
+                .solve(board, pieces, 4);
+
+        // Those cells don't count towards filling the lines, so every block is still placed
+        assertFalse(solution.isPerfectClear());
+        assertEquals(4, solution.getPlacements().length);
+        assertEquals(0, solution.getHoles());
+    }
+
+    @Test
+    public void bagSequence_isClearedOnOneThreadOrMany() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 9, new BagRandomizer(), 9);
+        int[] pieces = new int[10];
+        pieces[0] = engine.getActiveBlock().getType();
+        for (int i = 1; i < pieces.length; i++) {
+            pieces[i] = engine.getPreview(i - 1);
+        }
+        PerfectClearSolver solver = new PerfectClearSolver(WIDTH, HEIGHT, 16);
+
+        PerfectClearSolver.Solution sequential = solver.solve(engine.getBoard(), pieces, 4);
+        assertTrue(sequential.isPerfectClear());
+        assertEmptyAfter(engine.getBoard(), pieces, sequential);
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            PerfectClearSolver.Solution parallel = solver.solve(engine.getBoard(), pieces, 4, pool);
+            assertTrue(parallel.isPerfectClear());
+            assertEmptyAfter(engine.getBoard(), pieces, parallel);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void noPerfectClear_leavesNoHoleWhereItCan() throws Exception {
+        // The bottom row is full apart from the first column, and a flat line can't fill it
+        Board board = new Board(WIDTH, HEIGHT);
+        for (int x = 1; x < WIDTH; x++) {
+            board.fill(x, HEIGHT - 1, Block.SQUARE);
+        }
+
+        PerfectClearSolver.Solution solution = new PerfectClearSolver(WIDTH, HEIGHT, 12)
+                .solve(board, new int[] {Block.LINE}, 2);
+
+        assertFalse(solution.isPerfectClear());
+        assertEquals(0, solution.getHoles());
+        assertEquals(1, solution.getPlacements().length);
+        Placement placement = solution.getPlacements()[0];
+        assertEquals(Block.CLOCKWISE, placement.getRotation());
+        assertTrue(placement.getX() > 0);
+        int[] shape = Block.getShapeRows(Block.LINE, Block.CLOCKWISE);
+        assertEquals(board.getDropDistance(shape, placement.getX(), 0), placement.getY());
+    }
+
+    @Test
+    public void table_keepsTheDeepestAndTheNewest() throws Exception {
+        // Two buckets, and even keys all go in the first
+        TranspositionTable table = new TranspositionTable(1);
+        table.put(2, 20, 5);
+        table.put(4, 40, 1);
+        assertEquals(20, table.get(2));
+        assertEquals(40, table.get(4));
+
+        // Shallower than the deep entry, so it takes the other one
+        table.put(6, 60, 3);
+        assertEquals(20, table.get(2));
+        assertEquals(TranspositionTable.MISS, table.get(4));
+        assertEquals(60, table.get(6));
+
+        // Deeper, so the old deep entry moves over
+        table.put(8, 80, 9);
+        assertEquals(80, table.get(8));
+        assertEquals(20, table.get(2));
+        assertEquals(TranspositionTable.MISS, table.get(6));
+
+        table.clear();
+        assertEquals(TranspositionTable.MISS, table.get(8));
+    }
+
+    @Test
+    public void boardsTooBigToRank_areRejected() throws Exception {
+        new PerfectClearSolver(Board.MAX_WIDTH, PerfectClearSolver.MAX_CELLS / Board.MAX_WIDTH, 4);
+        try {
+            new PerfectClearSolver(Board.MAX_WIDTH,
+                    PerfectClearSolver.MAX_CELLS / Board.MAX_WIDTH + 1, 4);
+            fail("Expected a board with more than MAX_CELLS cells to be rejected");
+        } catch (IllegalArgumentException e) {
+            // Its leaf values would overflow
+        }
+    }
+
+    // Drops each block where the solution says and checks the board ends up empty
+    private static void assertEmptyAfter(Board start, int[] pieces,
+                                         PerfectClearSolver.Solution solution) {
+        Board board = new Board(WIDTH, HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (start.isOccupied(x, y)) {
+                    board.fill(x, y, Block.SQUARE);
+                }
+            }
+        }
+        Placement[] placements = solution.getPlacements();
+        assertEquals(pieces.length, placements.length);
+        for (int i = 0; i < placements.length; i++) {
+            Placement placement = placements[i];
+            int[] shape = Block.getShapeRows(pieces[i], placement.getRotation());
+            int y = board.getDropDistance(shape, placement.getX(), 0);
+            assertEquals(placement.getY(), y);
+            board.merge(shape, placement.getX(), y, pieces[i]);
+            board.clearFullRows(0, HEIGHT - 1);
+        }
+        for (int y = 0; y < HEIGHT; y++) {
+            assertEquals(0, board.getRow(y));
+        }
+    }
+}
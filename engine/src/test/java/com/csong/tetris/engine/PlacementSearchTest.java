@@ -0,0 +1,85 @@
+package com.csong.tetris.engine;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class PlacementSearchTest {
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 20;
+
+    @Test
+    public void line_goesDownTheWell() throws Exception {
+        // Four rows full apart from the last column
+        Board board = new Board(WIDTH, HEIGHT);
+        for (int y = HEIGHT - 4; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH - 1; x++) {
+                board.fill(x, y, Block.SQUARE);
+            }
+        }
+
+        PlacementSearch search = new PlacementSearch(new BoardEvaluator());
+        Placement placement = search.findBest(board, new Block(Block.LINE, 4, 0), new int[0]);
+
+        assertEquals(Block.ZERO, placement.getRotation());
+        assertEquals(WIDTH - 1, placement.getX());
+        assertEquals(HEIGHT - 4, placement.getY());
+    }
+
+    @Test
+    public void evaluate_countsHolesHeightAndBumpiness() throws Exception {
+        long[] rows = new long[4];
+        // Column 0 is two high with a hole under it, column 2 is one high
+        rows[2] = 0b001;
+        rows[3] = 0b100;
+        int[] heights = new int[3];
+
+        assertEquals(-3, new BoardEvaluator(-1, 0, 0, 0).evaluate(rows, 3, 0, heights), 0);
+        assertEquals(-1, new BoardEvaluator(0, 0, -1, 0).evaluate(rows, 3, 0, heights), 0);
+        assertEquals(-3, new BoardEvaluator(0, 0, 0, -1).evaluate(rows, 3, 0, heights), 0);
+        assertEquals(2, new BoardEvaluator(0, 1, 0, 0).evaluate(rows, 3, 2, heights), 0);
+    }
+
+    @Test
+    public void parallelSearch_choosesTheSamePlacement() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        PlacementSearch search = new PlacementSearch(new BoardEvaluator());
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 5);
+        int[] previews = new int[1];
+        try {
+            for (int i = 0; i < 20 && !engine.isGameOver(); i++) {
+                previews[0] = engine.getNextType();
+                Placement sequential = search.findBest(engine.getBoard(), engine.getActiveBlock(),
+                        previews);
+                Placement parallel = search.findBest(engine.getBoard(), engine.getActiveBlock(),
+                        previews, pool);
+
+                assertEquals(sequential.getRotation(), parallel.getRotation());
+                assertEquals(sequential.getX(), parallel.getX());
+                assertEquals(sequential.getScore(), parallel.getScore(), 0);
+                engine.handleInput(Input.DROP);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(search.getPlacementsEvaluated() > 0);
+    }
+
+    @Test
+    public void autoPlayer_clearsLines() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 9);
+        AutoPlayer player = new AutoPlayer(new PlacementSearch(new BoardEvaluator()), null);
+        while (engine.getPiecesPlaced() < 200 && !engine.isGameOver()) {
+            int input = player.nextInput(engine);
+            if (input != AutoPlayer.NONE) {
+                engine.handleInput(input);
+            }
+            engine.tick();
+        }
+
+        assertFalse(engine.isGameOver());
+        assertTrue(engine.getLinesCleared() >= 60);
+    }
+}
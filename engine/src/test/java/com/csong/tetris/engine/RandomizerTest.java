@@ -0,0 +1,88 @@
+package com.csong.tetris.engine;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class RandomizerTest {
+    @Test
+    public void bag_dealsEveryTypeOncePerSeven() throws Exception {
+        Randomizer bag = new BagRandomizer();
+        GameRandom random = new GameRandom(1);
+        for (int run = 0; run < 100; run++) {
+            boolean[] seen = new boolean[Block.TYPE_COUNT];
+            for (int i = 0; i < Block.TYPE_COUNT; i++) {
+                int type = bag.next(random);
+                assertFalse(seen[type]);
+                seen[type] = true;
+            }
+        }
+    }
+
+    @Test
+    public void history_avoidsRecentTypes() throws Exception {
+        Randomizer history = new HistoryRandomizer();
+        GameRandom random = new GameRandom(2);
+        int previous = -1;
+        int repeats = 0;
+        for (int i = 0; i < 10000; i++) {
+            int type = history.next(random);
+            if (type == previous) {
+                repeats++;
+            }
+            previous = type;
+        }
+
+        // One in seven would repeat with no history
+        assertTrue(repeats < 10000 / 50);
+    }
+
+    @Test
+    public void uniform_staysInRange() throws Exception {
+        Randomizer uniform = new UniformRandomizer();
+        GameRandom random = new GameRandom(3);
+        int[] counts = new int[Block.TYPE_COUNT];
+        for (int i = 0; i < 7000; i++) {
+            counts[uniform.next(random)]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 800 && count < 1200);
+        }
+    }
+
+    @Test
+    public void queue_previewsWhatSpawnsNext() throws Exception {
+        PieceQueue queue = new PieceQueue(new BagRandomizer(), new GameRandom(4), 5);
+        queue.reset();
+        for (int i = 0; i < 50; i++) {
+            int[] preview = new int[queue.getPreviewCount()];
+            for (int j = 0; j < preview.length; j++) {
+                preview[j] = queue.peek(j);
+            }
+            assertEquals(preview[0], queue.take());
+            for (int j = 1; j < preview.length; j++) {
+                assertEquals(preview[j], queue.peek(j - 1));
+            }
+        }
+    }
+
+    @Test
+    public void queueState_carriesOnTheSameSequence() throws Exception {
+        GameRandom random = new GameRandom(5);
+        PieceQueue queue = new PieceQueue(new HistoryRandomizer(), random, 3);
+        queue.reset();
+        queue.take();
+        ByteBuffer state = ByteBuffer.allocate(queue.getMaxStateSize());
+        queue.writeState(state);
+        state.flip();
+
+        GameRandom copyRandom = new GameRandom(random.getState());
+        PieceQueue copy = new PieceQueue(new HistoryRandomizer(), copyRandom, 3);
+        copy.readState(state);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(queue.take(), copy.take());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.csong.tetris.engine;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReplayTest {
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 20;
+
+    @Test
+    public void replay_playsTheSameGame() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 0);
+        ReplayRecorder recorder = new ReplayRecorder();
+        record(engine, recorder, 12345, new Random(1), true);
+
+        GameEngine replayed = new GameEngine(WIDTH, HEIGHT, 0);
+        ReplayReader reader = new ReplayReader(ByteBuffer.wrap(recorder.toByteArray()));
+        ReplayPlayer player = new ReplayPlayer(reader);
+        assertTrue(player.nextReplay(replayed));
+        player.playToEnd(replayed);
+
+        assertSameGame(engine, replayed);
+        assertFalse(player.nextReplay(replayed));
+    }
+
+    @Test
+    public void replay_endsWithHowTheGameEnded() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 0);
+        ReplayRecorder recorder = new ReplayRecorder();
+        record(engine, recorder, 777, new Random(4), true);
+
+        ReplayReader reader = new ReplayReader(ByteBuffer.wrap(recorder.toByteArray()));
+        assertTrue(reader.nextReplay());
+        assertEquals(0, reader.getOffset());
+        reader.skipToEnd();
+        assertEquals(engine.getTicks(), reader.getTick());
+        assertEquals(engine.getScore(), reader.getClaimedScore());
+        assertEquals(engine.getLinesCleared(), reader.getClaimedLines());
+        assertEquals(engine.getPiecesPlaced(), reader.getClaimedPieces());
+        assertTrue(reader.getClaimedGameOver());
+        assertEquals(engine.getBoard().getChecksum(), reader.getClaimedChecksum());
+    }
+
+    @Test
+    public void inputs_takeAFewBytesEach() throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 0);
+        ReplayRecorder recorder = new ReplayRecorder();
+        int inputs = record(engine, recorder, 99, new Random(2), false);
+        int header = 14;
+
+        assertTrue(inputs > 100);
+        assertTrue((recorder.getLength() - header) <= 2 * (inputs + 1));
+    }
+
+    @Test
+    public void mappedArchive_replaysEveryGame() throws Exception {
+        int games = 500;
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 0);
+        ReplayRecorder recorder = new ReplayRecorder();
+        Random inputs = new Random(3);
+        int[] pieces = new int[games];
+        int[] lines = new int[games];
+
+        File archive = File.createTempFile("replays", ".bin");
+        try {
+            try (OutputStream out = new FileOutputStream(archive)) {
+                for (int i = 0; i < games; i++) {
+                    record(engine, recorder, i, inputs, true);
+                    recorder.writeTo(out);
+                    pieces[i] = engine.getPiecesPlaced();
+                    lines[i] = engine.getLinesCleared();
+                }
+            }
+
+            ReplayPlayer player = new ReplayPlayer(ReplayReader.open(archive));
+            for (int i = 0; i < games; i++) {
+                assertTrue(player.nextReplay(engine));
+                assertEquals(i, engine.getSeed());
+                player.playToEnd(engine);
+                assertEquals(pieces[i], engine.getPiecesPlaced());
+                assertEquals(lines[i], engine.getLinesCleared());
+            }
+            assertFalse(player.nextReplay(engine));
+        } finally {
+            archive.delete();
+        }
+    }
+
+    // Plays a game with random inputs, recording it. Without drops the game is long and has
+    // plenty of inputs. Returns the number of inputs recorded.
+    private static int record(GameEngine engine, ReplayRecorder recorder, long seed, Random inputs,
+                              boolean drops) {
+        engine.reset(seed);
+        recorder.start(WIDTH, HEIGHT, seed);
+        int count = 0;
+        while (!engine.isGameOver()) {
+            if (inputs.nextInt(4) == 0) {
+                int input = inputs.nextInt(drops ? Input.COUNT : Input.DROP);
+                engine.handleInput(input);
+                recorder.record(engine.getTicks(), input);
+                count++;
+            }
+            engine.tick();
+        }
+        recorder.finish(engine);
+        return count;
+    }
+
+    private static void assertSameGame(GameEngine expected, GameEngine actual) {
+        assertEquals(expected.getTicks(), actual.getTicks());
+        assertEquals(expected.getPiecesPlaced(), actual.getPiecesPlaced());
+        assertEquals(expected.getLinesCleared(), actual.getLinesCleared());
+        assertEquals(expected.isGameOver(), actual.isGameOver());
+        for (int y = 0; y < HEIGHT; y++) {
+            assertEquals(expected.getBoard().getRow(y), actual.getBoard().getRow(y));
+        }
+    }
+}
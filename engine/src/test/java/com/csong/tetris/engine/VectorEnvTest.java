@@ -0,0 +1,115 @@
+package com.csong.tetris.engine;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class VectorEnvTest {
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 20;
+
+    @Test
+    public void everyGame_playsLikeAGameEngine() throws Exception {
+        assertPlaysLikeGameEngines(new VectorEnv(64, WIDTH, HEIGHT, 100, null), 20000);
+    }
+
+    @Test
+    public void steppedInParallel_playsTheSame() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            assertPlaysLikeGameEngines(new VectorEnv(1000, WIDTH, HEIGHT, 7, pool), 3000);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void tooNarrowBoard_isRejectedLikeAGameEngine() throws Exception {
+        try {
+            new VectorEnv(1, GameEngine.MIN_WIDTH - 1, HEIGHT, 1, null);
+            fail("Expected a board too narrow for the line block to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("width must be between " + GameEngine.MIN_WIDTH + " and "
+                    + (Integer.SIZE - 1), e.getMessage());
+        }
+        new VectorEnv(1, GameEngine.MIN_WIDTH, HEIGHT, 1, null);
+    }
+
+    @Test
+    public void endedGame_startsAgainFromItsGenerator() throws Exception {
+        VectorEnv env = new VectorEnv(1, WIDTH, HEIGHT, 5, null);
+        int[] drop = {Input.DROP};
+        int steps = 0;
+        while (!env.getDones()[0]) {
+            env.step(drop);
+            steps++;
+        }
+
+        assertTrue(steps > 1);
+        assertNotEquals(5, env.getSeed(0));
+        assertEquals(0, env.getPiecesPlaced(0));
+        assertEquals(0, env.getTicks(0));
+        for (int y = 0; y < HEIGHT; y++) {
+            assertEquals(0, env.getRows()[y]);
+        }
+    }
+
+    // Steps env with random actions next to one GameEngine per game and checks they agree
+    // after every step
+    private static void assertPlaysLikeGameEngines(VectorEnv env, int steps) {
+        int count = env.getCount();
+        GameEngine[] engines = new GameEngine[count];
+        for (int i = 0; i < count; i++) {
+            engines[i] = new GameEngine(WIDTH, HEIGHT, env.getSeed(i));
+        }
+        Random random = new Random(count);
+        int[] actions = new int[count];
+        int games = 0;
+
+        for (int step = 0; step < steps; step++) {
+            for (int i = 0; i < count; i++) {
+                // Mostly waiting, so blocks fall as well as being dropped
+                int roll = random.nextInt(12);
+                actions[i] = roll < Input.COUNT ? roll : VectorEnv.NO_INPUT;
+            }
+            env.step(actions);
+
+            for (int i = 0; i < count; i++) {
+                GameEngine engine = engines[i];
+                long score = engine.getScore();
+                if (actions[i] != VectorEnv.NO_INPUT) {
+                    engine.handleInput(actions[i]);
+                }
+                engine.tick();
+                assertEquals(engine.getScore() - score, env.getRewards()[i]);
+                assertEquals(engine.isGameOver(), env.getDones()[i]);
+                if (engine.isGameOver()) {
+                    engine.reset(env.getSeed(i));
+                    games++;
+                }
+                assertSameGame(engine, env, i);
+            }
+        }
+        assertTrue(games > 0);
+    }
+
+    private static void assertSameGame(GameEngine engine, VectorEnv env, int i) {
+        Block block = engine.getActiveBlock();
+        assertEquals(block.getType(), env.getTypes()[i]);
+        assertEquals(block.getRotation(), env.getRotations()[i]);
+        assertEquals(block.getX(), env.getXs()[i]);
+        assertEquals(block.getY(), env.getYs()[i]);
+        assertEquals(engine.getNextType(), env.getPreview(i, 0));
+        assertEquals(engine.getTicks(), env.getTicks(i));
+        assertEquals(engine.getScore(), env.getScore(i));
+        assertEquals(engine.getLinesCleared(), env.getLinesCleared(i));
+        assertEquals(engine.getPiecesPlaced(), env.getPiecesPlaced(i));
+        assertEquals(engine.getLevel(), env.getLevel(i));
+        for (int y = 0; y < HEIGHT; y++) {
+            assertEquals(engine.getBoard().getRow(y), env.getRows()[i * HEIGHT + y]);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.csong.tetris.server;
+
+import com.csong.tetris.engine.AutoPlayer;
+import com.csong.tetris.engine.BoardEvaluator;
+import com.csong.tetris.engine.GameEngine;
+import com.csong.tetris.engine.GameRandom;
+import com.csong.tetris.engine.Input;
+import com.csong.tetris.engine.PlacementSearch;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * A simulated player for load testing. It keeps its own copy of the match from the TICK frames,
+ * like a real client would, and plays it with an AutoPlayer. It sends at most one input at a
+ * time and waits for the server to echo it back, at most one every thinkTicks ticks, and now and
+ * then drops a block straight down instead of placing it well so that matches end.
+ */
+
+class Bot implements Connection.FrameHandler {
+    private final Connection connection;
+    private final int thinkTicks;
+    private final double mistakeRate;
+    private final GameRandom random;
+    private final AutoPlayer autoPlayer =
+            new AutoPlayer(new PlacementSearch(new BoardEvaluator()), null);
+
+    private MatchState state;
+    private int player;
+    private boolean waitingForEcho;
+    private long lastInputTick;
+    // The piece the current mistake decision was made for
+    private int decidedPiece = -1;
+    private boolean blunder;
+    private boolean ended;
+
+    Bot(Connection connection, int thinkTicks, double mistakeRate, long seed) {
+        this.connection = connection;
+        this.thinkTicks = thinkTicks;
+        this.mistakeRate = mistakeRate;
+        this.random = new GameRandom(seed);
+    }
+
+    // Asks to join a match of the given size
+    void join(int players) throws IOException {
+        Protocol.putJoin(connection.getOut(), players);
+        connection.flush();
+    }
+
+    @Override
+    public void onFrame(Connection connection, int type, ByteBuffer payload) throws IOException {
+        switch (type) {
+            case Protocol.START:
+                long seed = payload.getLong();
+                int width = payload.get() & 0xFF;
+                int height = payload.get() & 0xFF;
+                int players = payload.get() & 0xFF;
+                player = payload.get() & 0xFF;
+                state = new MatchState(players, width, height, seed);
+                break;
+            case Protocol.TICK:
+                onTick(payload);
+                break;
+            case Protocol.END:
+                ended = true;
+                break;
+            default:
+                throw new ProtocolException("Unexpected frame " + type);
+        }
+    }
+
+    boolean hasEnded() {
+        return ended;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    private void onTick(ByteBuffer payload) throws IOException {
+        if (state == null) {
+            throw new ProtocolException("Tick before the match started");
+        }
+        long tick = payload.getInt() & 0xFFFFFFFFL;
+        int count = payload.get() & 0xFF;
+        for (int i = 0; i < count; i++) {
+            int eventPlayer = payload.get() & 0xFF;
+            int code = payload.get() & 0xFF;
+            if (code == Protocol.EVENT_FORFEIT) {
+                state.forfeit(eventPlayer);
+            } else {
+                state.applyInput(eventPlayer, code);
+                if (eventPlayer == player) {
+                    waitingForEcho = false;
+                }
+            }
+        }
+        state.tick();
+        if (state.getTick() != tick) {
+            throw new ProtocolException("Expected tick " + state.getTick() + " but got " + tick);
+        }
+
+        int input = nextInput();
+        if (input != AutoPlayer.NONE && connection.hasRoom()) {
+            Protocol.putInput(connection.getOut(), input);
+            waitingForEcho = true;
+            lastInputTick = tick;
+        }
+    }
+
+    private int nextInput() {
+        if (waitingForEcho || !state.isAlive(player)
+                || state.getTick() - lastInputTick < thinkTicks) {
+            return AutoPlayer.NONE;
+        }
+
+        GameEngine engine = state.getEngine(player);
+        if (decidedPiece != engine.getPiecesPlaced()) {
+            decidedPiece = engine.getPiecesPlaced();
+            blunder = random.nextInt(1000) < mistakeRate * 1000;
+        }
+        return blunder ? Input.DROP : autoPlayer.nextInput(engine);
+    }
+}
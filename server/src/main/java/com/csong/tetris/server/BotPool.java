@@ -0,0 +1,134 @@
+package com.csong.tetris.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many bots against a match server from one thread and one selector. A bot whose match
+ * has ended is replaced by a new one that joins the lobby again, so the load stays the same
+ * for as long as the pool runs.
+ */
+
+public class BotPool implements Runnable, Closeable {
+    // Bots only ever send small frames
+    private static final int OUT_BUFFER_SIZE = 4 * Protocol.MAX_FRAME_SIZE;
+
+    private final InetSocketAddress server;
+    private final int playersPerMatch;
+    private final int thinkTicks;
+    private final double mistakeRate;
+    private final Selector selector;
+    private final AtomicInteger pendingBots = new AtomicInteger();
+    private long nextSeed;
+    private volatile boolean running = true;
+    private volatile long matchesEnded;
+    private volatile long failures;
+
+    public BotPool(InetSocketAddress server, int playersPerMatch, int thinkTicks,
+                   double mistakeRate, long seed) throws IOException {
+        this.server = server;
+        this.playersPerMatch = playersPerMatch;
+        this.thinkTicks = thinkTicks;
+        this.mistakeRate = mistakeRate;
+        this.nextSeed = seed;
+        selector = Selector.open();
+    }
+
+    // Connects count more bots. Can be called from any thread.
+    public void addBots(int count) {
+        pendingBots.addAndGet(count);
+        selector.wakeup();
+    }
+
+    // Matches that bots in this pool have seen to the end, counting each match once per bot
+    public long getMatchesEnded() {
+        return matchesEnded;
+    }
+
+    // Bots that lost their connection or fell out of step with the server
+    public long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                for (int i = pendingBots.getAndSet(0); i > 0; i--) {
+                    connect();
+                }
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle((Bot) key.attachment(), key);
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                throw new IllegalStateException("Bot pool failed", e);
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((Bot) key.attachment()).getConnection().close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Shutting down anyway
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void connect() throws IOException {
+        SocketChannel channel = SocketChannel.open(server);
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel, OUT_BUFFER_SIZE);
+        Bot bot = new Bot(connection, thinkTicks, mistakeRate, nextSeed++);
+        connection.register(selector, bot);
+        bot.join(playersPerMatch);
+    }
+
+    private void handle(Bot bot, SelectionKey key) {
+        Connection connection = bot.getConnection();
+        try {
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                boolean open = connection.read(bot);
+                connection.flush();
+                if (open && !bot.hasEnded()) {
+                    return;
+                }
+            } else {
+                return;
+            }
+        } catch (IOException e) {
+            // Counted below
+        }
+
+        connection.close();
+        if (bot.hasEnded()) {
+            matchesEnded++;
+        } else {
+            failures++;
+        }
+        // Keep the same number of bots playing
+        pendingBots.incrementAndGet();
+    }
+}
@@ -0,0 +1,155 @@
+package com.csong.tetris.server;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One non-blocking socket with its own read and write buffers, used the same way by the server
+ * and by the bot clients. Frames are parsed straight out of the read buffer. Outgoing frames are
+ * written into the write buffer and go out in one write when the owning loop flushes.
+ *
+ * Only one thread uses a connection at a time: the lobby until its match starts, then the
+ * MatchLoop that runs the match.
+ */
+
+class Connection {
+    // Called for each complete frame, with payload positioned at the start of the payload
+    interface FrameHandler {
+        void onFrame(Connection connection, int type, ByteBuffer payload) throws IOException;
+    }
+
+    private final SocketChannel channel;
+    private final ByteBuffer in = ByteBuffer.allocate(4 * Protocol.MAX_FRAME_SIZE);
+    private final ByteBuffer out;
+    private SelectionKey key;
+    private int interestOps;
+    private boolean closing;
+    private boolean closed;
+
+    // Set by the lobby once the client has asked to join a match
+    boolean joined;
+    // Which match and player this is, once the lobby has placed it
+    Match match;
+    int player;
+
+    Connection(SocketChannel channel, int outBufferSize) {
+        this.channel = channel;
+        this.out = ByteBuffer.allocateDirect(outBufferSize);
+    }
+
+    // Registers for reads on a selector, replacing any registration with the previous owner's.
+    // The key's attachment is this connection.
+    void register(Selector selector) throws IOException {
+        register(selector, this);
+    }
+
+    void register(Selector selector, Object attachment) throws IOException {
+        unregister();
+        interestOps = SelectionKey.OP_READ;
+        key = channel.register(selector, interestOps, attachment);
+    }
+
+    // Stops the current owner's selector from reporting this connection, before handing it over
+    void unregister() {
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
+    }
+
+    // Reads whatever has arrived and hands every complete frame to handler. Returns false once
+    // the other end has closed.
+    boolean read(FrameHandler handler) throws IOException {
+        if (channel.read(in) < 0) {
+            return false;
+        }
+
+        in.flip();
+        try {
+            while (in.remaining() >= 2) {
+                int length = in.getShort(in.position()) & 0xFFFF;
+                if (length < 1 || length + 2 > Protocol.MAX_FRAME_SIZE) {
+                    throw new ProtocolException("Bad frame length " + length);
+                }
+                if (in.remaining() < length + 2) {
+                    break;
+                }
+
+                int end = in.position() + 2 + length;
+                in.position(in.position() + 2);
+                int type = in.get() & 0xFF;
+                ByteBuffer payload = in;
+                int limit = in.limit();
+                in.limit(end);
+                handler.onFrame(this, type, payload);
+                in.limit(limit);
+                in.position(end);
+            }
+        } finally {
+            in.compact();
+        }
+        return true;
+    }
+
+    // The buffer to write frames into with Protocol. Check hasRoom() first.
+    ByteBuffer getOut() {
+        return out;
+    }
+
+    // True if another frame fits. A client that doesn't keep up fills its buffer eventually.
+    boolean hasRoom() {
+        return !closing && !closed && out.remaining() >= Protocol.MAX_FRAME_SIZE;
+    }
+
+    // Writes as much as the socket takes and waits for it to become writable if that wasn't
+    // everything. Closes the connection once everything is out if closeAfterFlush() was called.
+    void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        out.flip();
+        while (out.hasRemaining() && channel.write(out) > 0) {
+            // Keep going while the socket takes more
+        }
+        out.compact();
+
+        boolean pending = out.position() > 0;
+        if (!pending && closing) {
+            close();
+            return;
+        }
+        int ops = pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (ops != interestOps && key != null) {
+            interestOps = ops;
+            key.interestOps(ops);
+        }
+    }
+
+    void closeAfterFlush() {
+        closing = true;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more to do with it either way
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.csong.tetris.server;
+
+import com.csong.tetris.engine.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts a match server on the loopback interface, points pools of bots at it and reports how
+ * many matches each core of the server carries and how late its ticks run. Bots and server
+ * share the machine, so give the server fewer loops than there are cores to leave room for
+ * the bots.
+ *
+ * LoadTest [bots] [players per match] [seconds] [server loops] [bot threads]
+ */
+
+public class LoadTest {
+    // Ticks a bot waits between inputs, about what a quick human manages
+    private static final int THINK_TICKS = 6;
+    // Chance a bot drops a block without placing it, so matches end
+    private static final double MISTAKE_RATE = 0.2;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int bots = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int players = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int loops = args.length > 3 ? Integer.parseInt(args[3]) : Math.max(1, cores / 2);
+        int botThreads = args.length > 4 ? Integer.parseInt(args[4]) : Math.max(1, cores - loops);
+
+        MatchServer server = new MatchServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), loops);
+        server.start();
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                server.getPort());
+
+        BotPool[] pools = new BotPool[botThreads];
+        Thread[] threads = new Thread[botThreads];
+        for (int i = 0; i < botThreads; i++) {
+            pools[i] = new BotPool(address, players, THINK_TICKS, MISTAKE_RATE, i * 1000003L);
+            threads[i] = new Thread(pools[i], "bots-" + i);
+            threads[i].start();
+            pools[i].addBots(bots / botThreads + (i < bots % botThreads ? 1 : 0));
+        }
+        System.out.println(bots + " bots in " + players + " player matches against " + loops
+                + " match loops, for " + seconds + " s");
+
+        // Matches in progress, sampled once a second
+        long activeTotal = 0;
+        for (int second = 1; second <= seconds; second++) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+            activeTotal += server.getActiveMatches();
+            if (second % 5 == 0) {
+                System.out.println(second + " s: " + server.getActiveMatches() + " running, "
+                        + server.getFinishedMatches() + " finished");
+            }
+        }
+
+        // Read before the bots go, since their leaving ends every match still running
+        LatencyHistogram latency = server.getTickLatency();
+        long finished = server.getFinishedMatches();
+        long failures = 0;
+        for (int i = 0; i < botThreads; i++) {
+            pools[i].close();
+            threads[i].join();
+            failures += pools[i].getFailures();
+        }
+        server.close();
+
+        System.out.printf("matches per core: %.1f running, %.2f finished per second%n",
+                (double) activeTotal / seconds / loops, (double) finished / seconds / loops);
+        System.out.printf("tick latency over %d ticks: p50 %d us, p99 %d us, p99.9 %d us,"
+                        + " max %d us%n", latency.getCount(),
+                micros(latency.getPercentile(0.5)), micros(latency.getPercentile(0.99)),
+                micros(latency.getPercentile(0.999)), micros(latency.getMax()));
+        System.out.println("bot failures: " + failures);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
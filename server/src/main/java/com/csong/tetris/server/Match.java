@@ -0,0 +1,133 @@
+package com.csong.tetris.server;
+
+import java.io.IOException;
+
+/**
+ * A match on the server: the MatchState plus a connection per player. Inputs are queued as
+ * they arrive and applied at the start of the next tick, and every tick each player is sent
+ * what was applied.
+ */
+
+class Match {
+    // Inputs a player can have waiting for one tick. More than a person could press in 1/60 s,
+    // so anything past it is dropped.
+    private static final int MAX_QUEUED_INPUTS = 8;
+
+    private final MatchState state;
+    private final Connection[] players;
+    private final long seed;
+    private final int width;
+    private final int height;
+
+    private final int[][] queuedInputs;
+    private final int[] queuedCounts;
+    private final boolean[] disconnected;
+    private final boolean[] forfeitSent;
+    private final byte[] events;
+
+    Match(Connection[] players, long seed, int width, int height) {
+        this.players = players.clone();
+        this.seed = seed;
+        this.width = width;
+        this.height = height;
+        state = new MatchState(players.length, width, height, seed);
+        queuedInputs = new int[players.length][MAX_QUEUED_INPUTS];
+        queuedCounts = new int[players.length];
+        disconnected = new boolean[players.length];
+        forfeitSent = new boolean[players.length];
+        events = new byte[Protocol.MAX_EVENTS * 2];
+        for (int i = 0; i < players.length; i++) {
+            this.players[i].match = this;
+            this.players[i].player = i;
+        }
+    }
+
+    // Tells every player the match has started and which player they are
+    void start() {
+        for (int i = 0; i < players.length; i++) {
+            Protocol.putStart(players[i].getOut(), seed, width, height, players.length, i);
+        }
+    }
+
+    void queueInput(int player, int input) {
+        if (queuedCounts[player] < MAX_QUEUED_INPUTS) {
+            queuedInputs[player][queuedCounts[player]++] = input;
+        }
+    }
+
+    // The player is forfeited at the next tick
+    void disconnect(int player) {
+        disconnected[player] = true;
+        players[player].close();
+    }
+
+    // Applies the queued inputs, runs one tick and queues the TICK frame for every player still
+    // connected. Returns true once the match is over, after queuing END for everyone.
+    boolean tick() {
+        int count = 0;
+        for (int i = 0; i < players.length; i++) {
+            if (disconnected[i] && !forfeitSent[i]) {
+                state.forfeit(i);
+                forfeitSent[i] = true;
+                events[count * 2] = (byte) i;
+                events[count * 2 + 1] = (byte) Protocol.EVENT_FORFEIT;
+                count++;
+            }
+        }
+        for (int i = 0; i < players.length; i++) {
+            for (int j = 0; j < queuedCounts[i]; j++) {
+                state.applyInput(i, queuedInputs[i][j]);
+                events[count * 2] = (byte) i;
+                events[count * 2 + 1] = (byte) queuedInputs[i][j];
+                count++;
+            }
+            queuedCounts[i] = 0;
+        }
+        state.tick();
+
+        for (int i = 0; i < players.length; i++) {
+            if (disconnected[i]) {
+                continue;
+            }
+            if (!players[i].hasRoom()) {
+                // Too far behind to catch up, the next tick forfeits them
+                disconnect(i);
+                continue;
+            }
+            Protocol.putTick(players[i].getOut(), state.getTick(), events, count);
+        }
+
+        if (!state.isFinished()) {
+            return false;
+        }
+        for (int i = 0; i < players.length; i++) {
+            if (!disconnected[i]) {
+                Protocol.putEnd(players[i].getOut(), state.getWinner());
+                players[i].closeAfterFlush();
+            }
+        }
+        return true;
+    }
+
+    // Sends whatever the last tick queued
+    void flush() {
+        for (int i = 0; i < players.length; i++) {
+            if (disconnected[i]) {
+                continue;
+            }
+            try {
+                players[i].flush();
+            } catch (IOException e) {
+                disconnect(i);
+            }
+        }
+    }
+
+    Connection getPlayer(int player) {
+        return players[player];
+    }
+
+    MatchState getState() {
+        return state;
+    }
+}
@@ -0,0 +1,189 @@
+package com.csong.tetris.server;
+
+import com.csong.tetris.engine.GameEngine;
+import com.csong.tetris.engine.Input;
+import com.csong.tetris.engine.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many matches on one thread with one selector. Between ticks it reads inputs from every
+ * player's socket, and every 1/60 s it ticks all its matches and flushes what they queued. The
+ * server runs one loop per core and hands each new match to the next loop in turn.
+ *
+ * Tick latency is how long after a tick was due every match on the loop had been ticked and
+ * its frames written, so it includes both the work and any lateness in waking up.
+ */
+
+class MatchLoop implements Runnable, Connection.FrameHandler {
+    static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(1) / GameEngine.TICKS_PER_SECOND;
+
+    // A loop this far behind gives up on catching up and starts counting from now
+    private static final int MAX_TICKS_BEHIND = 10;
+
+    private final Selector selector;
+    private final Queue<Match> incoming = new ConcurrentLinkedQueue<>();
+    private final List<Match> matches = new ArrayList<>();
+    private final LatencyHistogram tickLatency = new LatencyHistogram();
+    private volatile boolean running = true;
+    private volatile int activeMatches;
+    private volatile long finishedMatches;
+
+    MatchLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    // Takes over a match from the lobby. Can be called from any thread.
+    void add(Match match) {
+        incoming.add(match);
+        selector.wakeup();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    int getActiveMatches() {
+        return activeMatches;
+    }
+
+    long getFinishedMatches() {
+        return finishedMatches;
+    }
+
+    // Adds this loop's tick latencies so far to histogram
+    void addTickLatency(LatencyHistogram histogram) {
+        synchronized (tickLatency) {
+            histogram.add(tickLatency);
+        }
+    }
+
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime() + TICK_NANOS;
+        try {
+            while (running) {
+                long wait = nextTick - System.nanoTime();
+                if (wait > TimeUnit.MILLISECONDS.toNanos(1)) {
+                    selector.select(TimeUnit.NANOSECONDS.toMillis(wait));
+                } else {
+                    selector.selectNow();
+                }
+                handleKeys();
+                startIncoming();
+
+                long now = System.nanoTime();
+                if (now - nextTick >= 0) {
+                    tickAll();
+                    long done = System.nanoTime();
+                    synchronized (tickLatency) {
+                        tickLatency.record(done - nextTick);
+                    }
+                    nextTick += TICK_NANOS;
+                    if (done - nextTick > MAX_TICKS_BEHIND * TICK_NANOS) {
+                        nextTick = done;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Match loop failed", e);
+        } finally {
+            for (Match match : matches) {
+                for (int i = 0; i < match.getState().getPlayerCount(); i++) {
+                    match.disconnect(i);
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Shutting down anyway
+            }
+        }
+    }
+
+    @Override
+    public void onFrame(Connection connection, int type, ByteBuffer payload) throws IOException {
+        if (type != Protocol.INPUT || connection.match == null) {
+            throw new ProtocolException("Unexpected frame " + type);
+        }
+        Protocol.checkPayload(payload, type, Protocol.INPUT_SIZE);
+        int input = payload.get() & 0xFF;
+        if (input >= Input.COUNT) {
+            throw new ProtocolException("Unknown input " + input);
+        }
+        connection.match.queueInput(connection.player, input);
+    }
+
+    private void handleKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+                if (key.isValid() && key.isReadable() && !connection.read(this)) {
+                    drop(connection);
+                }
+            } catch (IOException e) {
+                drop(connection);
+            }
+        }
+    }
+
+    private void drop(Connection connection) {
+        if (connection.match != null) {
+            connection.match.disconnect(connection.player);
+        } else {
+            connection.close();
+        }
+    }
+
+    private void startIncoming() {
+        Match match;
+        while ((match = incoming.poll()) != null) {
+            matches.add(match);
+            for (int i = 0; i < match.getState().getPlayerCount(); i++) {
+                try {
+                    match.getPlayer(i).register(selector);
+                } catch (IOException e) {
+                    // Gone while waiting in the lobby
+                    match.disconnect(i);
+                }
+            }
+            match.start();
+            match.flush();
+        }
+        activeMatches = matches.size();
+    }
+
+    private void tickAll() {
+        // Swap finished matches out instead of shifting the list down each time
+        for (int i = 0; i < matches.size(); ) {
+            Match match = matches.get(i);
+            boolean finished = match.tick();
+            match.flush();
+            if (finished) {
+                matches.set(i, matches.get(matches.size() - 1));
+                matches.remove(matches.size() - 1);
+                finishedMatches++;
+            } else {
+                i++;
+            }
+        }
+        activeMatches = matches.size();
+    }
+}
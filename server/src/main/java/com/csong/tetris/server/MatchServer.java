@@ -0,0 +1,248 @@
+package com.csong.tetris.server;
+
+import com.csong.tetris.engine.GameRandom;
+import com.csong.tetris.engine.LatencyHistogram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hosts versus matches over TCP. One thread accepts connections and keeps the lobby: each
+ * client says how many players it wants in a match, and as soon as that many are waiting they
+ * are handed to a MatchLoop as a new match. There is one MatchLoop per core, so a match is
+ * only ever touched by one thread and nothing in a tick needs a lock.
+ *
+ * Run it with an optional port and loop count: MatchServer [port] [loops]
+ */
+
+public class MatchServer implements Runnable, Closeable, Connection.FrameHandler {
+    public static final int DEFAULT_PORT = 7654;
+    public static final int MAX_PLAYERS = 4;
+    public static final int BOARD_WIDTH = 10;
+    public static final int BOARD_HEIGHT = 20;
+
+    // Room for a few seconds of TICK frames for a client that has stopped reading
+    static final int OUT_BUFFER_SIZE = 64 * 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final MatchLoop[] loops;
+    private final Thread[] loopThreads;
+    // Clients waiting for a match, by the number of players they asked for
+    private final List<List<Connection>> lobby = new ArrayList<>();
+    private final GameRandom seeds = new GameRandom(System.nanoTime());
+    // Matches formed during the current read, handed to a loop once the read is done with
+    // their connections
+    private final List<Match> formed = new ArrayList<>();
+    private Thread thread;
+    private int nextLoop;
+    private volatile boolean running = true;
+
+    public MatchServer(InetSocketAddress address, int loopCount) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        loops = new MatchLoop[loopCount];
+        loopThreads = new Thread[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new MatchLoop();
+            loopThreads[i] = new Thread(loops[i], "match-loop-" + i);
+        }
+        for (int players = 0; players <= MAX_PLAYERS; players++) {
+            lobby.add(new ArrayList<Connection>());
+        }
+    }
+
+    // Starts the lobby and the match loops on their own threads
+    public void start() {
+        for (Thread loopThread : loopThreads) {
+            loopThread.start();
+        }
+        thread = new Thread(this, "match-lobby");
+        thread.start();
+    }
+
+    // The port the server is listening on, e.g. after binding to port 0
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getLoopCount() {
+        return loops.length;
+    }
+
+    public int getActiveMatches() {
+        int active = 0;
+        for (MatchLoop loop : loops) {
+            active += loop.getActiveMatches();
+        }
+        return active;
+    }
+
+    public long getFinishedMatches() {
+        long finished = 0;
+        for (MatchLoop loop : loops) {
+            finished += loop.getFinishedMatches();
+        }
+        return finished;
+    }
+
+    // The tick latencies of every loop so far, in nanoseconds
+    public LatencyHistogram getTickLatency() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (MatchLoop loop : loops) {
+            loop.addTickLatency(histogram);
+        }
+        return histogram;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        readJoin((Connection) key.attachment());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                throw new IllegalStateException("Lobby failed", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        for (MatchLoop loop : loops) {
+            loop.stop();
+        }
+        try {
+            if (thread != null) {
+                thread.join();
+            }
+            for (Thread loopThread : loopThreads) {
+                loopThread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Everyone still in the lobby, joined or not
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+        selector.close();
+        serverChannel.close();
+    }
+
+    @Override
+    public void onFrame(Connection connection, int type, ByteBuffer payload) throws IOException {
+        if (connection.joined && type == Protocol.INPUT) {
+            // Inputs before the match starts don't count
+            return;
+        }
+        if (type != Protocol.JOIN || connection.joined) {
+            throw new ProtocolException("Unexpected frame " + type);
+        }
+        Protocol.checkPayload(payload, type, Protocol.JOIN_SIZE);
+        int version = payload.get() & 0xFF;
+        int players = payload.get() & 0xFF;
+        if (version != Protocol.VERSION) {
+            throw new ProtocolException("Protocol version " + version + " isn't supported");
+        }
+        if (players < 1 || players > MAX_PLAYERS) {
+            throw new ProtocolException("Matches are for 1 to " + MAX_PLAYERS + " players");
+        }
+
+        connection.joined = true;
+        List<Connection> waiting = lobby.get(players);
+        waiting.add(connection);
+        if (waiting.size() == players) {
+            Connection[] matched = waiting.toArray(new Connection[players]);
+            waiting.clear();
+            formed.add(new Match(matched, seeds.nextLong(), BOARD_WIDTH, BOARD_HEIGHT));
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel, OUT_BUFFER_SIZE);
+        connection.register(selector);
+    }
+
+    private void readJoin(Connection connection) {
+        boolean open;
+        try {
+            open = connection.read(this);
+        } catch (IOException e) {
+            open = false;
+        }
+        if (!open) {
+            for (List<Connection> waiting : lobby) {
+                waiting.remove(connection);
+            }
+            connection.close();
+        }
+
+        // From here on only the loop touches these connections
+        for (Match match : formed) {
+            for (int i = 0; i < match.getState().getPlayerCount(); i++) {
+                match.getPlayer(i).unregister();
+            }
+            loops[nextLoop].add(match);
+            nextLoop = (nextLoop + 1) % loops.length;
+        }
+        formed.clear();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int loopCount = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+
+        MatchServer server = new MatchServer(new InetSocketAddress(port), loopCount);
+        server.start();
+        System.out.println("Listening on port " + server.getPort() + " with " + loopCount
+                + " match loops");
+        while (true) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+            LatencyHistogram latency = server.getTickLatency();
+            System.out.println(server.getActiveMatches() + " matches running, "
+                    + server.getFinishedMatches() + " finished, tick latency p99 "
+                    + TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(0.99)) + " us");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.csong.tetris.server;
+
+import com.csong.tetris.engine.GameEngine;
+import com.csong.tetris.engine.GameRandom;
+import com.csong.tetris.engine.Input;
+
+/**
+ * The rules of a versus match on top of one GameEngine per player. Every player gets the same
+ * seed, so the same blocks in the same order. Garbage a player sends goes to the next player
+ * still in, with the gap in a column picked from the match's own generator, so the server and
+ * every client come to the same boards from nothing but the inputs.
+ */
+
+public class MatchState {
+    private final GameEngine[] engines;
+    private final boolean[] forfeited;
+    // Garbage each player had sent as of the last tick
+    private final int[] garbageSeen;
+    private final GameRandom holes;
+    private final int width;
+    private long tick;
+
+    public MatchState(int players, int width, int height, long seed) {
+        if (players < 1) {
+            throw new IllegalArgumentException("A match needs at least one player");
+        }
+        this.width = width;
+        engines = new GameEngine[players];
+        for (int i = 0; i < players; i++) {
+            engines[i] = new GameEngine(width, height, seed);
+        }
+        forfeited = new boolean[players];
+        garbageSeen = new int[players];
+        // Kept apart from the block generators so the gaps don't change what anyone is dealt
+        holes = new GameRandom(~seed);
+    }
+
+    // Applies an Input for a player still in. Inputs from anyone else are ignored.
+    public void applyInput(int player, int input) {
+        if (input < 0 || input >= Input.COUNT) {
+            throw new IllegalArgumentException("Unknown input " + input);
+        }
+        if (isAlive(player)) {
+            engines[player].handleInput(input);
+        }
+    }
+
+    // Takes a player out of the match, e.g. because they disconnected
+    public void forfeit(int player) {
+        forfeited[player] = true;
+    }
+
+    // Advances every player by one tick, then passes on any garbage sent during it
+    public void tick() {
+        tick++;
+        for (int i = 0; i < engines.length; i++) {
+            if (isAlive(i)) {
+                engines[i].tick();
+            }
+        }
+
+        // Garbage from inputs applied before the tick is passed on here as well
+        for (int i = 0; i < engines.length; i++) {
+            int sent = engines[i].getGarbageSent() - garbageSeen[i];
+            if (sent == 0) {
+                continue;
+            }
+            garbageSeen[i] += sent;
+            int target = nextAlive(i);
+            if (target >= 0) {
+                engines[target].receiveGarbage(sent, holes.nextInt(width));
+            }
+        }
+    }
+
+    // True once at most one player is left, or nobody in a single player match
+    public boolean isFinished() {
+        int alive = 0;
+        for (int i = 0; i < engines.length; i++) {
+            if (isAlive(i)) {
+                alive++;
+            }
+        }
+        return engines.length == 1 ? alive == 0 : alive <= 1;
+    }
+
+    // The last player standing, or -1 if there isn't exactly one
+    public int getWinner() {
+        int winner = -1;
+        for (int i = 0; i < engines.length; i++) {
+            if (isAlive(i)) {
+                if (winner >= 0) {
+                    return -1;
+                }
+                winner = i;
+            }
+        }
+        return winner;
+    }
+
+    public boolean isAlive(int player) {
+        return !forfeited[player] && !engines[player].isGameOver();
+    }
+
+    public GameEngine getEngine(int player) {
+        return engines[player];
+    }
+
+    public int getPlayerCount() {
+        return engines.length;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    // The next player after this one that is still in, wrapping around, or -1 if none is
+    private int nextAlive(int player) {
+        for (int i = 1; i < engines.length; i++) {
+            int other = (player + i) % engines.length;
+            if (isAlive(other)) {
+                return other;
+            }
+        }
+        return -1;
+    }
+}
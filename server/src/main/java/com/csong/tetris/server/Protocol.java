@@ -0,0 +1,110 @@
+package com.csong.tetris.server;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol between the match server and its clients. Every message is a frame: a
+ * two byte big-endian length of what follows, a type byte, then the payload.
+ *
+ * A match runs in lockstep. The server owns the clock and, for every tick, sends each client
+ * the inputs it applied that tick. Every client runs the same MatchState from the same seed,
+ * so applying those inputs reproduces every board exactly, garbage included, and nothing else
+ * has to be sent. A client that disconnects is forfeited at the next tick.
+ */
+
+public final class Protocol {
+    public static final int VERSION = 1;
+
+    // Length prefix plus type byte
+    public static final int HEADER_SIZE = 3;
+    // Longest frame either side sends, header included
+    public static final int MAX_FRAME_SIZE = 1024;
+
+    // Client to server: u8 version, u8 players per match. Sent once to join the lobby.
+    public static final int JOIN = 1;
+    public static final int JOIN_SIZE = 2;
+    // Client to server: u8 Input, applied at the next tick
+    public static final int INPUT = 2;
+    public static final int INPUT_SIZE = 1;
+
+    // Server to client: u64 seed, u8 width, u8 height, u8 players, u8 the client's player
+    public static final int START = 10;
+    // Server to client: u32 tick, u8 event count, then two bytes per event: player, code
+    public static final int TICK = 11;
+    // Server to client: u8 winning player, or NO_WINNER. The server closes the connection after.
+    public static final int END = 12;
+
+    // Event codes in a TICK besides the Input values
+    public static final int EVENT_FORFEIT = 0xFF;
+    public static final int NO_WINNER = 0xFF;
+
+    // Most events one TICK can carry, as many as the count byte holds. That frame still fits in
+    // MAX_FRAME_SIZE.
+    public static final int MAX_EVENTS = 255;
+
+    private Protocol() {
+    }
+
+    // Throws if a received frame of the given type is too short to hold its payload. Frames
+    // only need a type byte to be read, so the payload has to be checked before it is.
+    public static void checkPayload(ByteBuffer payload, int type, int size)
+            throws ProtocolException {
+        if (payload.remaining() < size) {
+            throw new ProtocolException("Frame " + type + " needs " + size + " bytes, got "
+                    + payload.remaining());
+        }
+    }
+
+    // Starts a frame of the given type and returns where it starts, for endFrame()
+    public static int beginFrame(ByteBuffer out, int type) {
+        int start = out.position();
+        out.putShort((short) 0);
+        out.put((byte) type);
+        return start;
+    }
+
+    // Fills in the length of a frame started with beginFrame()
+    public static void endFrame(ByteBuffer out, int start) {
+        out.putShort(start, (short) (out.position() - start - 2));
+    }
+
+    public static void putJoin(ByteBuffer out, int players) {
+        int start = beginFrame(out, JOIN);
+        out.put((byte) VERSION);
+        out.put((byte) players);
+        endFrame(out, start);
+    }
+
+    public static void putInput(ByteBuffer out, int input) {
+        int start = beginFrame(out, INPUT);
+        out.put((byte) input);
+        endFrame(out, start);
+    }
+
+    public static void putStart(ByteBuffer out, long seed, int width, int height, int players,
+                                int player) {
+        int start = beginFrame(out, START);
+        out.putLong(seed);
+        out.put((byte) width);
+        out.put((byte) height);
+        out.put((byte) players);
+        out.put((byte) player);
+        endFrame(out, start);
+    }
+
+    // events holds count pairs of player and code
+    public static void putTick(ByteBuffer out, long tick, byte[] events, int count) {
+        int start = beginFrame(out, TICK);
+        out.putInt((int) tick);
+        out.put((byte) count);
+        out.put(events, 0, count * 2);
+        endFrame(out, start);
+    }
+
+    public static void putEnd(ByteBuffer out, int winner) {
+        int start = beginFrame(out, END);
+        out.put((byte) (winner < 0 ? NO_WINNER : winner));
+        endFrame(out, start);
+    }
+}
@@ -0,0 +1,319 @@
+package com.csong.tetris.server;
+
+import com.csong.tetris.engine.GameEngine;
+import com.csong.tetris.engine.ReplayPlayer;
+import com.csong.tetris.engine.ReplayReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks submitted games by playing their replays again and comparing the result with what
+ * each replay claims: score, lines, pieces, whether the game was over, the tick it ended on
+ * and the final board. Playback goes through ReplayPlayer, which applies inputs and ticks the
+ * same way GamePanel.update() does.
+ *
+ * Files are read one at a time as the directory is listed, each memory-mapped, so nothing is
+ * loaded whole. One thread walks each file just far enough to find where its replays start and
+ * hands them out in chunks to a ForkJoinPool. Each chunk splits itself until its pieces are
+ * small, so idle workers steal from busy ones when some games take much longer than others.
+ * Only a few chunks per worker are let out at a time, which keeps memory flat however many
+ * games there are.
+ *
+ * Run it on a directory of replay archives: ReplayVerifier <directory> [threads]
+ */
+
+public class ReplayVerifier {
+    // Replays handed out at once, and the most one task plays before splitting
+    private static final int CHUNK_SIZE = 256;
+    private static final int SPLIT_THRESHOLD = 8;
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private final ForkJoinPool pool;
+    // Each worker keeps one engine, made again only for a different board size
+    private final ThreadLocal<GameEngine> engines = new ThreadLocal<>();
+
+    /**
+     * A game whose replay didn't play out the way it claims, or couldn't be read.
+     */
+    public static class Mismatch {
+        private final File file;
+        private final int offset;
+        private final String reason;
+
+        Mismatch(File file, int offset, String reason) {
+            this.file = file;
+            this.offset = offset;
+            this.reason = reason;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        // Where the replay starts in the file
+        public int getOffset() {
+            return offset;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return file + " @" + offset + ": " + reason;
+        }
+    }
+
+    /**
+     * Totals for one run.
+     */
+    public static class Report {
+        private final long games;
+        private final long ticks;
+        private final long nanos;
+        private final List<Mismatch> mismatches;
+
+        Report(long games, long ticks, long nanos, List<Mismatch> mismatches) {
+            this.games = games;
+            this.ticks = ticks;
+            this.nanos = nanos;
+            this.mismatches = mismatches;
+        }
+
+        public long getGames() {
+            return games;
+        }
+
+        // Ticks simulated across every game
+        public long getTicks() {
+            return ticks;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public double getGamesPerSecond() {
+            return nanos == 0 ? 0 : games * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+        }
+
+        public List<Mismatch> getMismatches() {
+            return mismatches;
+        }
+    }
+
+    public ReplayVerifier(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Verifies every replay in every file of the directory
+    public Report verify(File directory) throws IOException, InterruptedException {
+        Run run = new Run(pool.getParallelism() * CHUNKS_PER_WORKER);
+        long start = System.nanoTime();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory.toPath())) {
+            for (Path path : files) {
+                if (Files.isRegularFile(path)) {
+                    submitFile(run, path.toFile());
+                }
+            }
+        }
+        // Every permit back means every chunk is done
+        run.inFlight.acquire(run.permits);
+        return new Report(run.games.get(), run.ticks.get(), System.nanoTime() - start,
+                new ArrayList<>(run.mismatches));
+    }
+
+    // Finds where each replay of a file starts and sends them off a chunk at a time
+    private void submitFile(Run run, File file) throws InterruptedException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            run.mismatches.add(new Mismatch(file, 0, "Can't read: " + e.getMessage()));
+            return;
+        }
+
+        ReplayReader scanner = new ReplayReader(buffer.duplicate());
+        int[] offsets = new int[CHUNK_SIZE];
+        int count = 0;
+        try {
+            while (scanner.nextReplay()) {
+                offsets[count++] = scanner.getOffset();
+                if (count == CHUNK_SIZE) {
+                    submitChunk(run, file, buffer, offsets, count);
+                    offsets = new int[CHUNK_SIZE];
+                    count = 0;
+                }
+            }
+        } catch (RuntimeException e) {
+            // Truncated or not a replay at all. Whatever came before it still gets checked.
+            run.mismatches.add(new Mismatch(file, scanner.getOffset(), "Corrupt archive: " + e));
+        }
+        if (count > 0) {
+            submitChunk(run, file, buffer, offsets, count);
+        }
+    }
+
+    private void submitChunk(Run run, File file, ByteBuffer buffer, int[] offsets, int count)
+            throws InterruptedException {
+        run.inFlight.acquire();
+        pool.execute(new VerifyTask(run, file, buffer, offsets, 0, count, true));
+    }
+
+    // Plays one replay and records a mismatch if it doesn't end the way it says
+    private void verifyOne(Run run, File file, ByteBuffer buffer, int offset) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        ReplayReader reader = new ReplayReader(slice);
+        try {
+            if (!reader.nextReplay()) {
+                return;
+            }
+            GameEngine engine = engines.get();
+            if (engine == null || engine.getWidth() != reader.getWidth()
+                    || engine.getHeight() != reader.getHeight()) {
+                engine = new GameEngine(reader.getWidth(), reader.getHeight(), 0);
+                engines.set(engine);
+            }
+
+            // The player reads the header again, so start it from the top of the replay
+            slice.position(offset);
+            reader = new ReplayReader(slice);
+            ReplayPlayer player = new ReplayPlayer(reader);
+            player.nextReplay(engine);
+            player.playToEnd(engine);
+            reader.skipToEnd();
+            run.games.incrementAndGet();
+            run.ticks.addAndGet(engine.getTicks());
+
+            String reason = compare(engine, reader);
+            if (reason != null) {
+                run.mismatches.add(new Mismatch(file, offset, reason));
+            }
+        } catch (RuntimeException e) {
+            run.mismatches.add(new Mismatch(file, offset, "Can't play: " + e));
+        }
+    }
+
+    // Returns what differs between the game played and the replay's claims, or null
+    static String compare(GameEngine engine, ReplayReader reader) {
+        if (engine.getScore() != reader.getClaimedScore()) {
+            return "score " + reader.getClaimedScore() + " claimed, " + engine.getScore()
+                    + " played";
+        }
+        if (engine.getLinesCleared() != reader.getClaimedLines()) {
+            return "lines " + reader.getClaimedLines() + " claimed, " + engine.getLinesCleared()
+                    + " played";
+        }
+        if (engine.getPiecesPlaced() != reader.getClaimedPieces()) {
+            return "pieces " + reader.getClaimedPieces() + " claimed, "
+                    + engine.getPiecesPlaced() + " played";
+        }
+        if (engine.isGameOver() != reader.getClaimedGameOver()
+                || engine.getTicks() != reader.getTick()) {
+            return "ended at tick " + reader.getTick() + (reader.getClaimedGameOver()
+                    ? " topped out" : " still playing") + " claimed, tick " + engine.getTicks()
+                    + (engine.isGameOver() ? " topped out" : " still playing") + " played";
+        }
+        if (engine.getBoard().getChecksum() != reader.getClaimedChecksum()) {
+            return "final board differs";
+        }
+        return null;
+    }
+
+    // Everything shared by the tasks of one verify() call
+    private static class Run {
+        final int permits;
+        final Semaphore inFlight;
+        final AtomicLong games = new AtomicLong();
+        final AtomicLong ticks = new AtomicLong();
+        final List<Mismatch> mismatches = Collections.synchronizedList(new ArrayList<Mismatch>());
+
+        Run(int permits) {
+            this.permits = permits;
+            inFlight = new Semaphore(permits);
+        }
+    }
+
+    private class VerifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Run run;
+        private final File file;
+        private final ByteBuffer buffer;
+        private final int[] offsets;
+        private final int from;
+        private final int to;
+        // Set on the task made for a whole chunk, which gives back its permit
+        private final boolean chunk;
+
+        VerifyTask(Run run, File file, ByteBuffer buffer, int[] offsets, int from, int to,
+                   boolean chunk) {
+            this.run = run;
+            this.file = file;
+            this.buffer = buffer;
+            this.offsets = offsets;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (to - from <= SPLIT_THRESHOLD) {
+                    for (int i = from; i < to; i++) {
+                        verifyOne(run, file, buffer, offsets[i]);
+                    }
+                } else {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new VerifyTask(run, file, buffer, offsets, from, middle, false),
+                            new VerifyTask(run, file, buffer, offsets, middle, to, false));
+                }
+            } finally {
+                if (chunk) {
+                    run.inFlight.release();
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: ReplayVerifier <directory> [threads]");
+            System.exit(2);
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Report report = new ReplayVerifier(pool).verify(new File(args[0]));
+        pool.shutdown();
+
+        for (Mismatch mismatch : report.getMismatches()) {
+            System.out.println(mismatch);
+        }
+        System.out.printf("%d games, %d flagged, %.1f s on %d threads: %.0f games/s,"
+                        + " %.1f M ticks/s%n", report.getGames(), report.getMismatches().size(),
+                report.getNanos() / 1e9, threads, report.getGamesPerSecond(),
+                report.getTicks() * 1e3 / Math.max(1, report.getNanos()));
+        System.exit(report.getMismatches().isEmpty() ? 0 : 1);
+    }
+}
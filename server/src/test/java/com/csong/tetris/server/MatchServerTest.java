@@ -0,0 +1,187 @@
+package com.csong.tetris.server;
+
+import com.csong.tetris.engine.Input;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.*;
+
+public class MatchServerTest {
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    private MatchServer server;
+    private InetSocketAddress address;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MatchServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        server.start();
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void singlePlayerMatch_ticksUntilTheGameEnds() throws Exception {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            ByteBuffer out = ByteBuffer.allocate(Protocol.MAX_FRAME_SIZE);
+            Protocol.putJoin(out, 1);
+            write(channel, out);
+
+            ByteBuffer frame = readFrame(channel);
+            assertEquals(Protocol.START, frame.get());
+            long seed = frame.getLong();
+            MatchState state = new MatchState(1, frame.get(), frame.get(), seed);
+            assertEquals(1, frame.get());
+            assertEquals(0, frame.get());
+
+            // Drop every block as soon as it spawns and follow along
+            Protocol.putInput(out, Input.DROP);
+            write(channel, out);
+            while ((frame = readFrame(channel)).get() == Protocol.TICK) {
+                long tick = frame.getInt();
+                int events = frame.get();
+                for (int i = 0; i < events; i++) {
+                    assertEquals(0, frame.get());
+                    state.applyInput(0, frame.get());
+                }
+                state.tick();
+                assertEquals(state.getTick(), tick);
+                // The next drop once the last one has been applied, unless that ended it
+                if (events > 0 && !state.isFinished()) {
+                    Protocol.putInput(out, Input.DROP);
+                    write(channel, out);
+                }
+            }
+            assertEquals(Protocol.NO_WINNER, frame.get() & 0xFF);
+            assertTrue(state.isFinished());
+        }
+    }
+
+    @Test
+    public void botMatch_runsToTheEnd() throws Exception {
+        // Bots that drop every block straight away, so the match is over in seconds
+        BotPool pool = new BotPool(address, 2, 1, 1.0, 5);
+        Thread thread = new Thread(pool);
+        thread.start();
+        pool.addBots(2);
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (server.getFinishedMatches() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        pool.close();
+        thread.join();
+
+        assertTrue(server.getFinishedMatches() >= 1);
+        assertEquals(0, pool.getFailures());
+        assertTrue(server.getTickLatency().getCount() > 0);
+    }
+
+    @Test
+    public void badJoin_isDisconnected() throws Exception {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            ByteBuffer out = ByteBuffer.allocate(Protocol.MAX_FRAME_SIZE);
+            Protocol.putJoin(out, MatchServer.MAX_PLAYERS + 1);
+            write(channel, out);
+
+            try {
+                readFrame(channel);
+                fail("Expected the server to hang up");
+            } catch (EOFException e) {
+                // Expected
+            }
+        }
+    }
+
+    // The lobby would never answer again if a short frame killed it
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void shortFrames_onlyDropTheSender() throws Exception {
+        try (SocketChannel player = SocketChannel.open(address)) {
+            ByteBuffer out = ByteBuffer.allocate(Protocol.MAX_FRAME_SIZE);
+            Protocol.putJoin(out, 1);
+            write(player, out);
+            assertEquals(Protocol.START, readFrame(player).get());
+
+            // A JOIN with no payload is dropped by the lobby
+            try (SocketChannel joiner = SocketChannel.open(address)) {
+                Protocol.endFrame(out, Protocol.beginFrame(out, Protocol.JOIN));
+                write(joiner, out);
+                assertHungUp(joiner);
+            }
+
+            // An INPUT with no payload is dropped by the match loop
+            try (SocketChannel other = SocketChannel.open(address)) {
+                Protocol.putJoin(out, 1);
+                write(other, out);
+                assertEquals(Protocol.START, readFrame(other).get());
+                Protocol.endFrame(out, Protocol.beginFrame(out, Protocol.INPUT));
+                write(other, out);
+                assertHungUp(other);
+            }
+
+            // The loop the other match ran on still applies this player's inputs
+            Protocol.putInput(out, Input.DROP);
+            write(player, out);
+            ByteBuffer frame;
+            while ((frame = readFrame(player)).get() == Protocol.TICK) {
+                frame.getInt();
+                if (frame.get() > 0) {
+                    break;
+                }
+            }
+            assertEquals(Protocol.TICK, frame.get(0));
+        }
+    }
+
+    // Reads until the server closes the connection, which it has to do within TIMEOUT_MILLIS
+    private static void assertHungUp(SocketChannel channel) throws IOException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                readFrame(channel);
+            }
+            fail("Expected the server to hang up");
+        } catch (EOFException e) {
+            // Expected
+        }
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    // Reads one whole frame and returns it positioned at the type byte
+    private static ByteBuffer readFrame(SocketChannel channel) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(2);
+        readFully(channel, length);
+        ByteBuffer frame = ByteBuffer.allocate(length.getShort(0) & 0xFFFF);
+        readFully(channel, frame);
+        frame.flip();
+        return frame;
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.csong.tetris.server;
+
+import com.csong.tetris.engine.Block;
+import com.csong.tetris.engine.Board;
+import com.csong.tetris.engine.Input;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MatchStateTest {
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 20;
+
+    @Test
+    public void sameInputs_giveTheSameBoards() throws Exception {
+        MatchState server = new MatchState(2, WIDTH, HEIGHT, 42);
+        MatchState client = new MatchState(2, WIDTH, HEIGHT, 42);
+        Random random = new Random(3);
+        while (!server.isFinished()) {
+            int player = random.nextInt(2);
+            int input = random.nextInt(Input.COUNT);
+            server.applyInput(player, input);
+            client.applyInput(player, input);
+            server.tick();
+            client.tick();
+        }
+
+        assertTrue(client.isFinished());
+        assertEquals(server.getWinner(), client.getWinner());
+        for (int player = 0; player < 2; player++) {
+            Board expected = server.getEngine(player).getBoard();
+            Board actual = client.getEngine(player).getBoard();
+            for (int y = 0; y < HEIGHT; y++) {
+                assertEquals(expected.getRow(y), actual.getRow(y));
+            }
+        }
+    }
+
+    @Test
+    public void garbage_goesToTheNextPlayerStillIn() throws Exception {
+        // Every player starts with a square from this seed
+        MatchState state = new MatchState(3, WIDTH, HEIGHT, 3);
+        assertEquals(Block.SQUARE, state.getEngine(0).getActiveBlock().getType());
+        state.forfeit(1);
+        fillAroundLanding(state, 0);
+
+        state.applyInput(0, Input.DROP);
+        state.tick();
+        assertEquals(2, state.getEngine(0).getLinesCleared());
+        assertEquals(0, state.getEngine(1).getPendingGarbage());
+        assertEquals(1, state.getEngine(2).getPendingGarbage());
+    }
+
+    @Test
+    public void lastPlayerStanding_wins() throws Exception {
+        MatchState state = new MatchState(2, WIDTH, HEIGHT, 1);
+        assertFalse(state.isFinished());
+        assertEquals(-1, state.getWinner());
+
+        state.forfeit(0);
+        assertTrue(state.isFinished());
+        assertEquals(1, state.getWinner());
+        // Inputs from a player that is out change nothing
+        state.applyInput(0, Input.DROP);
+        assertEquals(0, state.getEngine(0).getPiecesPlaced());
+    }
+
+    // Fills the bottom two rows everywhere the player's active block won't cover once dropped.
+    // Needs a block with no overhang, such as the square.
+    private static void fillAroundLanding(MatchState state, int player) {
+        Block block = state.getEngine(player).getActiveBlock();
+        Board board = state.getEngine(player).getBoard();
+        int distance = state.getEngine(player).getGhostY() - block.getY();
+        for (int y = HEIGHT - 2; y < HEIGHT; y++) {
+            long covered = block.getRowMask(y - distance);
+            for (int x = 0; x < WIDTH; x++) {
+                if ((covered & (1L << x)) == 0) {
+                    board.fill(x, y, Block.L);
+                }
+            }
+        }
+    }
+}
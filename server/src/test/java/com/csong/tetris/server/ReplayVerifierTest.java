@@ -0,0 +1,115 @@
+package com.csong.tetris.server;
+
+import com.csong.tetris.engine.GameEngine;
+import com.csong.tetris.engine.Input;
+import com.csong.tetris.engine.ReplayRecorder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ReplayVerifierTest {
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 20;
+
+    private File directory;
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("replays").toFile();
+        pool = new ForkJoinPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void honestGames_pass() throws Exception {
+        writeArchive("a.bin", 0, 300, -1);
+        writeArchive("b.bin", 300, 20, -1);
+
+        ReplayVerifier.Report report = new ReplayVerifier(pool).verify(directory);
+        assertEquals(320, report.getGames());
+        assertTrue(report.getMismatches().isEmpty());
+        assertTrue(report.getTicks() > report.getGames());
+    }
+
+    @Test
+    public void tamperedClaim_isFlagged() throws Exception {
+        writeArchive("a.bin", 0, 50, -1);
+        int offset = writeArchive("b.bin", 50, 50, 17);
+
+        ReplayVerifier.Report report = new ReplayVerifier(pool).verify(directory);
+        assertEquals(100, report.getGames());
+        assertEquals(1, report.getMismatches().size());
+        ReplayVerifier.Mismatch mismatch = report.getMismatches().get(0);
+        assertEquals("b.bin", mismatch.getFile().getName());
+        assertEquals(offset, mismatch.getOffset());
+        assertEquals("final board differs", mismatch.getReason());
+    }
+
+    @Test
+    public void truncatedArchive_isFlagged() throws Exception {
+        File file = new File(directory, "a.bin");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] { 1, 2, 3, 4, 5, 6 });
+        }
+
+        ReplayVerifier.Report report = new ReplayVerifier(pool).verify(directory);
+        assertEquals(0, report.getGames());
+        assertEquals(1, report.getMismatches().size());
+    }
+
+    // Writes games random games starting from seed firstSeed. The checksum claimed by the
+    // game at index tampered is changed. Returns the offset of that game, or -1.
+    private int writeArchive(String name, long firstSeed, int games, int tampered)
+            throws Exception {
+        GameEngine engine = new GameEngine(WIDTH, HEIGHT, 0);
+        ReplayRecorder recorder = new ReplayRecorder();
+        Random inputs = new Random(firstSeed);
+        int offset = 0;
+        int tamperedOffset = -1;
+        try (OutputStream out = new FileOutputStream(new File(directory, name))) {
+            for (int i = 0; i < games; i++) {
+                long seed = firstSeed + i;
+                engine.reset(seed);
+                recorder.start(WIDTH, HEIGHT, seed);
+                while (!engine.isGameOver()) {
+                    if (inputs.nextInt(4) == 0) {
+                        int input = inputs.nextInt(Input.COUNT);
+                        engine.handleInput(input);
+                        recorder.record(engine.getTicks(), input);
+                    }
+                    engine.tick();
+                }
+                recorder.finish(engine);
+
+                byte[] replay = recorder.toByteArray();
+                if (i == tampered) {
+                    // The checksum is the last thing in a replay
+                    replay[replay.length - 1] ^= 1;
+                    tamperedOffset = offset;
+                }
+                out.write(replay);
+                offset += replay.length;
+            }
+        }
+        return tamperedOffset;
+    }
+}